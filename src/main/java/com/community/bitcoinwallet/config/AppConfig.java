@@ -4,6 +4,6 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 @Configuration
-@Import({ServiceConfig.class})
+@Import({ServiceConfig.class, WebConfig.class})
 public class AppConfig {
 }
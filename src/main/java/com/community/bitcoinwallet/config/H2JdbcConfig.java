@@ -1,15 +1,28 @@
 package com.community.bitcoinwallet.config;
 
-import org.h2.jdbcx.JdbcDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.Metrics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
 
+/**
+ * Separate pools for ingest, reads and the balance updater, so a recompute storm or a burst of
+ * long balance queries can't take connections from add-entry, and recompute (its reads included)
+ * can't take them from balance queries.
+ * Pools report hikaricp.connections.* metrics (acquire time, active, pending, timeouts) tagged by pool name.
+ */
 @Configuration
 public class H2JdbcConfig {
+    public static final String UPDATER_TRANSACTION_MANAGER = "updaterTransactionManager";
 
     @Value("${spring.datasource.url}")
     private String url;
@@ -19,18 +32,85 @@ public class H2JdbcConfig {
     private String userName;
     @Value("${spring.datasource.password}")
     private String password;
+    @Value("${wallet.datasource.connection-timeout-millis:2000}")
+    private long connectionTimeoutMillis;
+    @Value("${wallet.datasource.ingest.pool-size:4}")
+    private int ingestPoolSize;
+    @Value("${wallet.datasource.read.pool-size:8}")
+    private int readPoolSize;
+    // parallel recompute workers, the transaction of the updater itself and retention compaction
+    @Value("${wallet.datasource.updater.pool-size:11}")
+    private int updaterPoolSize;
 
     @Bean
-    public NamedParameterJdbcTemplate h2NamedParameterJdbcTemplate() {
-        return new NamedParameterJdbcTemplate(h2DataSource());
+    public NamedParameterJdbcTemplate ingestJdbcTemplate() {
+        return new NamedParameterJdbcTemplate(ingestDataSource());
     }
 
     @Bean
-    protected DataSource h2DataSource() {
-        JdbcDataSource ds = new JdbcDataSource();
-        ds.setUrl(url);
-        ds.setUser(userName);
+    public NamedParameterJdbcTemplate readJdbcTemplate() {
+        return new NamedParameterJdbcTemplate(readDataSource());
+    }
+
+    @Bean
+    public NamedParameterJdbcTemplate updaterJdbcTemplate() {
+        return new NamedParameterJdbcTemplate(updaterDataSource());
+    }
+
+    /**
+     * Primary, so migrations and plain @Transactional go to it.
+     */
+    @Bean
+    @Primary
+    public DataSource ingestDataSource() {
+        return pooledDataSource("ingest", ingestPoolSize);
+    }
+
+    @Bean
+    public DataSource readDataSource() {
+        return pooledDataSource("read", readPoolSize);
+    }
+
+    @Bean
+    public DataSource updaterDataSource() {
+        return pooledDataSource("updater", updaterPoolSize);
+    }
+
+    /**
+     * Not pooled and never bound to a transaction: DDL in H2 commits the open transaction of its connection.
+     */
+    @Bean
+    public DataSource ddlDataSource() {
+        DriverManagerDataSource ds = new DriverManagerDataSource(url, userName, password);
+        ds.setDriverClassName(driver);
+        return ds;
+    }
+
+    @Bean
+    @Primary
+    public PlatformTransactionManager transactionManager() {
+        return new DataSourceTransactionManager(ingestDataSource());
+    }
+
+    @Bean(UPDATER_TRANSACTION_MANAGER)
+    public PlatformTransactionManager updaterTransactionManager() {
+        return new DataSourceTransactionManager(updaterDataSource());
+    }
+
+    private HikariDataSource pooledDataSource(String name, int poolSize) {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName("wallet-" + name);
+        ds.setDriverClassName(driver);
+        ds.setJdbcUrl(url);
+        ds.setUsername(userName);
         ds.setPassword(password);
+        // fixed size, connections are opened once and not on the hot path
+        ds.setMaximumPoolSize(poolSize);
+        ds.setMinimumIdle(poolSize);
+        ds.setConnectionTimeout(connectionTimeoutMillis);
+        // global registry, which app registries are added to: the registry bean binds meters of services,
+        // which need repositories, which need these pools
+        ds.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(Metrics.globalRegistry));
         return ds;
     }
 }
@@ -1,20 +1,106 @@
 package com.community.bitcoinwallet.config;
 
+import com.community.bitcoinwallet.repository.ChangeFeedStore;
+import com.community.bitcoinwallet.repository.H2ChangeFeedStore;
+import com.community.bitcoinwallet.repository.H2NodeChanges;
+import com.community.bitcoinwallet.repository.H2Partitions;
+import com.community.bitcoinwallet.repository.H2UpdaterCoordination;
 import com.community.bitcoinwallet.repository.H2WalletRepository;
+import com.community.bitcoinwallet.repository.InMemoryWalletRepository;
+import com.community.bitcoinwallet.repository.LedgerWalletRepository;
+import com.community.bitcoinwallet.repository.LocalChangeFeedStore;
+import com.community.bitcoinwallet.repository.LocalUpdaterCoordination;
+import com.community.bitcoinwallet.repository.MappedLedger;
+import com.community.bitcoinwallet.repository.UpdaterCoordination;
+import com.community.bitcoinwallet.repository.WalletRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+
+import java.nio.file.Paths;
+import java.util.UUID;
 
 @Configuration
 @RequiredArgsConstructor
 @Import(H2JdbcConfig.class)
 public class RepositoryConfig {
+    public static final String IN_MEMORY_PROFILE = "in-memory";
+    public static final String MAPPED_LEDGER_PROFILE = "mapped-ledger";
+
+    @Value("${wallet.ledger.dir:ledger}")
+    private String ledgerDir;
+    @Value("${wallet.ledger.segment-records:4194304}")
+    private int ledgerSegmentRecords;
+    @Value("${wallet.ledger.fsync:BATCH}")
+    private MappedLedger.FsyncPolicy ledgerFsyncPolicy;
+    @Value("${wallet.ledger.fsync-period-millis:100}")
+    private long ledgerFsyncPeriodMillis;
+    @Value("${wallet.ledger.snapshot-period-millis:60000}")
+    private long ledgerSnapshotPeriodMillis;
+    @Value("${wallet.node-id:}")
+    private String nodeId;
+    @Value("${wallet.node-sync.enabled:false}")
+    private boolean nodeSyncEnabled;
+    @Value("${wallet.node-sync.page-size:10000}")
+    private int nodeSyncPageSize;
+    @Value("${wallet.node-sync.gap-timeout-millis:60000}")
+    private long nodeSyncGapTimeoutMillis;
+    @Value("${wallet.node-sync.retention-millis:3600000}")
+    private long nodeSyncRetentionMillis;
+    @Value("${wallet.change-feed.max-records:100000}")
+    private int changeFeedMaxRecords;
 
     private final H2JdbcConfig h2JdbcConfig;
+    private final Environment environment;
+    private final String generatedNodeId = UUID.randomUUID().toString();
+
+    /**
+     * wallet.node-id, or a random one if it is not set.
+     */
+    public String nodeId() {
+        return nodeId.isBlank() ? generatedNodeId : nodeId;
+    }
+
+    @Bean
+    public WalletRepository walletRepository() {
+        if (environment.acceptsProfiles(Profiles.of(IN_MEMORY_PROFILE))) {
+            return new InMemoryWalletRepository();
+        }
+        if (environment.acceptsProfiles(Profiles.of(MAPPED_LEDGER_PROFILE))) {
+            return new LedgerWalletRepository(new MappedLedger(Paths.get(ledgerDir), ledgerSegmentRecords,
+                ledgerFsyncPolicy, ledgerFsyncPeriodMillis), Paths.get(ledgerDir, "buckets.snapshot"),
+                ledgerSnapshotPeriodMillis);
+        }
+        H2NodeChanges nodeChanges = new H2NodeChanges(nodeSyncEnabled, nodeId(), h2JdbcConfig.readJdbcTemplate(),
+            h2JdbcConfig.updaterJdbcTemplate(), h2JdbcConfig.updaterTransactionManager(), nodeSyncPageSize,
+            nodeSyncGapTimeoutMillis, nodeSyncRetentionMillis);
+        return new H2WalletRepository(h2JdbcConfig.ingestJdbcTemplate(), h2JdbcConfig.readJdbcTemplate(),
+            h2JdbcConfig.updaterJdbcTemplate(), new H2Partitions(h2JdbcConfig.ddlDataSource(),
+            h2JdbcConfig.readJdbcTemplate().getJdbcTemplate()), nodeChanges);
+    }
+
+    /**
+     * Only H2 can be shared between nodes, other engines always run the updater locally.
+     */
+    @Bean
+    public UpdaterCoordination updaterCoordination() {
+        if (environment.acceptsProfiles(Profiles.of(IN_MEMORY_PROFILE, MAPPED_LEDGER_PROFILE))) {
+            return new LocalUpdaterCoordination();
+        }
+        return new H2UpdaterCoordination(h2JdbcConfig.updaterJdbcTemplate(),
+            h2JdbcConfig.updaterTransactionManager());
+    }
 
     @Bean
-    public H2WalletRepository walletRepository() {
-        return new H2WalletRepository(h2JdbcConfig.h2NamedParameterJdbcTemplate());
+    public ChangeFeedStore changeFeedStore() {
+        if (environment.acceptsProfiles(Profiles.of(IN_MEMORY_PROFILE, MAPPED_LEDGER_PROFILE))) {
+            return new LocalChangeFeedStore(changeFeedMaxRecords);
+        }
+        return new H2ChangeFeedStore(h2JdbcConfig.readJdbcTemplate(), h2JdbcConfig.updaterJdbcTemplate(),
+            h2JdbcConfig.updaterTransactionManager(), changeFeedMaxRecords);
     }
 }
@@ -1,17 +1,38 @@
 package com.community.bitcoinwallet.config;
 
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.service.BalanceChangeFeed;
+import com.community.bitcoinwallet.service.BalanceQueryExecutor;
+import com.community.bitcoinwallet.service.BalanceStream;
 import com.community.bitcoinwallet.service.BalanceUpdaterService;
+import com.community.bitcoinwallet.service.ColdHistory;
+import com.community.bitcoinwallet.service.HourlyBalanceCache;
+import com.community.bitcoinwallet.service.LedgerVersion;
+import com.community.bitcoinwallet.service.NodeSync;
+import com.community.bitcoinwallet.service.RetentionRollup;
+import com.community.bitcoinwallet.service.RunningBalance;
+import com.community.bitcoinwallet.service.SingleFlight;
+import com.community.bitcoinwallet.service.StartupWarmUp;
+import com.community.bitcoinwallet.service.UpdaterLeadership;
 import com.community.bitcoinwallet.service.WalletService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Profile;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @RequiredArgsConstructor
@@ -22,19 +43,218 @@ public class ServiceConfig {
     private long updatePeriod;
     @Value("${wallet.balance-update.thread-count:8}")
     private int threadCount;
+    @Value("${wallet.balance-update.min-range-hours:24}")
+    private int minRangeHours;
+    @Value("${wallet.balance-update.set-based:true}")
+    private boolean setBasedRecompute;
+    @Value("${wallet.balance-update.lease-ttl-millis:5000}")
+    private long leaseTtlMillis;
+    @Value("${wallet.balance-update.range-hours:0}")
+    private int rangeHours;
+    @Value("${wallet.balance-update.range-claim-ttl-millis:60000}")
+    private long rangeClaimTtlMillis;
+    @Value("${wallet.node-sync.poll-millis:200}")
+    private long nodeSyncPollMillis;
+    @Value("${wallet.balance-update.recent-hours:0}")
+    private int recentHours;
+    @Value("${wallet.balance-update.backfill-hours-per-window:720}")
+    private int backfillHoursPerWindow;
+    @Value("${wallet.balance-update.backfill-window-millis:1000}")
+    private long backfillWindowMillis;
+    @Value("${wallet.change-feed.values:true}")
+    private boolean changeFeedValues;
+    @Value("${wallet.change-feed.page-size:1000}")
+    private int changeFeedPageSize;
+    @Value("${wallet.change-feed.max-wait-millis:25000}")
+    private long changeFeedMaxWaitMillis;
+    @Value("${wallet.change-feed.poll-millis:200}")
+    private long changeFeedPollMillis;
+    @Value("${wallet.balance-cache.max-days:1024}")
+    private int balanceCacheMaxDays;
+    @Value("${wallet.ledger-version.max-steps:4096}")
+    private int ledgerVersionMaxSteps;
+    @Value("${wallet.balance-stream.max-pending-hours:1024}")
+    private int balanceStreamMaxPendingHours;
+    @Value("${wallet.balance-stream.thread-count:2}")
+    private int balanceStreamThreadCount;
+    @Value("${wallet.balance-stream.send-timeout-millis:2000}")
+    private long balanceStreamSendTimeoutMillis;
+    @Value("${wallet.balance-stream.timeout-millis:1800000}")
+    private long balanceStreamTimeoutMillis;
+    @Value("${wallet.balance-query.thread-count:4}")
+    private int balanceQueryThreadCount;
+    @Value("${wallet.balance-query.queue-capacity:64}")
+    private int balanceQueryQueueCapacity;
+    @Value("${wallet.balance-query.max-in-flight-cost:262144}")
+    private long balanceQueryMaxInFlightCost;
+    @Value("${wallet.balance-query.sync-cost-factor:4}")
+    private int balanceQuerySyncCostFactor;
+    @Value("${wallet.balance-query.retry-after-seconds:1}")
+    private long balanceQueryRetryAfterSeconds;
+    @Value("${wallet.warm-up.enabled:true}")
+    private boolean warmUpEnabled;
+    @Value("${wallet.warm-up.days:7}")
+    private int warmUpDays;
+    @Value("${wallet.warm-up.budget-millis:30000}")
+    private long warmUpBudgetMillis;
+    @Value("${wallet.warm-up.max-queries:2000}")
+    private int warmUpMaxQueries;
+    @Value("${wallet.retention.max-age-days:90}")
+    private int retentionMaxAgeDays;
+    @Value("${wallet.retention.chunk-hours:24}")
+    private int retentionChunkHours;
+    @Value("${wallet.retention.period-millis:3600000}")
+    private long retentionPeriodMillis;
+    @Value("${wallet.idempotency.key-ttl-hours:24}")
+    private int idempotencyKeyTtlHours;
+    @Value("${wallet.cold.dir:cold}")
+    private String coldDir;
+    @Value("${wallet.cold.min-age-days:7}")
+    private int coldMinAgeDays;
+    @Value("${wallet.cold.period-millis:3600000}")
+    private long coldPeriodMillis;
 
     private final RepositoryConfig repositoryConfig;
+    private final H2JdbcConfig h2JdbcConfig;
+    private final ObjectMapper objectMapper;
 
     @Bean
     public WalletService walletService() {
-        return new WalletService(repositoryConfig.walletRepository());
+        return new WalletService(repositoryConfig.walletRepository(), hourlyBalanceCache(), runningBalance(),
+            ledgerVersion(), balanceQueries(), coldHistory());
+    }
+
+    @Bean
+    public SingleFlight<WalletService.BalanceQueryKey, List<WalletEntry>> balanceQueries() {
+        return new SingleFlight<>("balance");
+    }
+
+    @Bean
+    public RunningBalance runningBalance() {
+        RunningBalance runningBalance = new RunningBalance();
+        repositoryConfig.walletRepository().getWalletTotal().ifPresent(runningBalance::reset);
+        repositoryConfig.walletRepository().addChangeListener(runningBalance);
+        return runningBalance;
+    }
+
+    @Bean
+    public HourlyBalanceCache hourlyBalanceCache() {
+        HourlyBalanceCache cache = new HourlyBalanceCache(balanceCacheMaxDays);
+        repositoryConfig.walletRepository().addChangeListener(cache);
+        return cache;
+    }
+
+    @Bean
+    public ColdHistory coldHistory() {
+        ColdHistory coldHistory = new ColdHistory(repositoryConfig.walletRepository(), Paths.get(coldDir),
+            Duration.ofDays(coldMinAgeDays), coldHistoryScheduler(), coldPeriodMillis);
+        repositoryConfig.walletRepository().addChangeListener(coldHistory);
+        return coldHistory;
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    @Profile("!test")
+    public ScheduledExecutorService coldHistoryScheduler() {
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Bean
+    public LedgerVersion ledgerVersion() {
+        LedgerVersion ledgerVersion = new LedgerVersion(ledgerVersionMaxSteps);
+        repositoryConfig.walletRepository().addChangeListener(ledgerVersion);
+        return ledgerVersion;
+    }
+
+    @Bean
+    public BalanceStream balanceStream() {
+        BalanceStream balanceStream = new BalanceStream(balanceStreamMaxPendingHours, balanceStreamSendTimeoutMillis,
+            balanceStreamTimeoutMillis, balanceStreamExecutor(), balanceStreamSendExecutor());
+        repositoryConfig.walletRepository().addChangeListener(balanceStream);
+        return balanceStream;
+    }
+
+    @Bean
+    public BalanceQueryExecutor balanceQueryExecutor() {
+        return new BalanceQueryExecutor(balanceQueryExecutorService(), balanceQueryMaxInFlightCost,
+            balanceQuerySyncCostFactor, balanceQueryRetryAfterSeconds);
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService balanceQueryExecutorService() {
+        // bounded queue, so overload is reported to clients instead of piling up
+        return new ThreadPoolExecutor(balanceQueryThreadCount, balanceQueryThreadCount,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(balanceQueryQueueCapacity));
+    }
+
+    @Bean
+    public StartupWarmUp warmUp() {
+        return new StartupWarmUp(walletService(), repositoryConfig.walletRepository(), objectMapper,
+            warmUpEnabled, warmUpDays, warmUpBudgetMillis, warmUpMaxQueries);
+    }
+
+    /**
+     * Runners are done before the app is ready, so readiness is reported only after warm-up.
+     */
+    @Bean
+    public ApplicationRunner warmUpRunner() {
+        return args -> warmUp().run();
     }
 
     @Bean
     public BalanceUpdaterService balanceUpdaterService() {
-        return new BalanceUpdaterService(repositoryConfig.walletRepository(),
-            walletService(), updatePeriod, updateBalanceTaskScheduler(),
-            parallelUpdateExecutorService(), threadCount);
+        return new BalanceUpdaterService(repositoryConfig.walletRepository(), updatePeriod,
+            updateBalanceTaskScheduler(),
+            parallelUpdateExecutorService(), threadCount, minRangeHours, setBasedRecompute, updaterLeadership(),
+            repositoryConfig.updaterCoordination(), rangeHours, Duration.ofMillis(rangeClaimTtlMillis),
+            recentHours, backfillHoursPerWindow, backfillWindowMillis, balanceChangeFeed(),
+            h2JdbcConfig.updaterTransactionManager());
+    }
+
+    @Bean
+    public BalanceChangeFeed balanceChangeFeed() {
+        BalanceChangeFeed changeFeed = new BalanceChangeFeed(repositoryConfig.changeFeedStore(), changeFeedValues,
+            changeFeedPageSize, Duration.ofMillis(changeFeedMaxWaitMillis), changeFeedScheduler(),
+            changeFeedPollMillis);
+        repositoryConfig.walletRepository().addChangeListener(changeFeed);
+        return changeFeed;
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    @Profile("!test")
+    public ScheduledExecutorService changeFeedScheduler() {
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Bean
+    public UpdaterLeadership updaterLeadership() {
+        return new UpdaterLeadership(repositoryConfig.updaterCoordination(),
+            repositoryConfig.nodeId(), Duration.ofMillis(leaseTtlMillis));
+    }
+
+    @Bean
+    public NodeSync nodeSync() {
+        return new NodeSync(repositoryConfig.walletRepository(), nodeSyncScheduler(), nodeSyncPollMillis);
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    @Profile("!test")
+    public ScheduledExecutorService nodeSyncScheduler() {
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Bean
+    public RetentionRollup retentionRollup() {
+        RetentionRollup rollup = new RetentionRollup(repositoryConfig.walletRepository(),
+            Duration.ofDays(retentionMaxAgeDays), retentionChunkHours, Duration.ofHours(idempotencyKeyTtlHours),
+            retentionScheduler(), retentionPeriodMillis);
+        repositoryConfig.walletRepository().addChangeListener(rollup);
+        return rollup;
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    @Profile("!test")
+    public ScheduledExecutorService retentionScheduler() {
+        return Executors.newSingleThreadScheduledExecutor();
     }
 
     @Bean
@@ -48,4 +268,19 @@ public class ServiceConfig {
     public ExecutorService parallelUpdateExecutorService() {
         return Executors.newFixedThreadPool(threadCount);
     }
+
+    @Bean(destroyMethod = "shutdownNow")
+    @Profile("!test")
+    public ExecutorService balanceStreamExecutor() {
+        return Executors.newFixedThreadPool(balanceStreamThreadCount);
+    }
+
+    /**
+     * Threads blocked on stalled clients are not reused until the container times their writes out.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    @Profile("!test")
+    public ExecutorService balanceStreamSendExecutor() {
+        return Executors.newCachedThreadPool();
+    }
 }
@@ -0,0 +1,59 @@
+package com.community.bitcoinwallet.config;
+
+import com.community.bitcoinwallet.controller.RateLimitInterceptor;
+import com.community.bitcoinwallet.service.TokenBucketRateLimiter;
+import com.community.bitcoinwallet.util.BalanceSeriesHttpMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+import java.util.Set;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Value("${wallet.rate-limit.enabled:true}")
+    private boolean rateLimitEnabled;
+    @Value("${wallet.rate-limit.max-clients:65536}")
+    private int rateLimitMaxClients;
+    @Value("${wallet.rate-limit.api-keys:}")
+    private Set<String> rateLimitApiKeys;
+    @Value("${wallet.rate-limit.add-entry.per-second:1000}")
+    private double addEntryPerSecond;
+    @Value("${wallet.rate-limit.add-entry.burst:2000}")
+    private long addEntryBurst;
+    @Value("${wallet.rate-limit.balance.per-second:50}")
+    private double balancePerSecond;
+    @Value("${wallet.rate-limit.balance.burst:100}")
+    private long balanceBurst;
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new BalanceSeriesHttpMessageConverter());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (!rateLimitEnabled) {
+            return;
+        }
+        registry.addInterceptor(new RateLimitInterceptor(addEntryRateLimiter(), rateLimitApiKeys))
+            .addPathPatterns("/api/wallet/add-entry");
+        registry.addInterceptor(new RateLimitInterceptor(balanceRateLimiter(), rateLimitApiKeys))
+            .addPathPatterns("/api/wallet/balance", "/api/wallet/balance/**");
+    }
+
+    @Bean
+    public TokenBucketRateLimiter addEntryRateLimiter() {
+        return new TokenBucketRateLimiter("add-entry", addEntryPerSecond, addEntryBurst, rateLimitMaxClients);
+    }
+
+    @Bean
+    public TokenBucketRateLimiter balanceRateLimiter() {
+        return new TokenBucketRateLimiter("balance", balancePerSecond, balanceBurst, rateLimitMaxClients);
+    }
+}
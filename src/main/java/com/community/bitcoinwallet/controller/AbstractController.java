@@ -2,9 +2,17 @@ package com.community.bitcoinwallet.controller;
 
 import com.community.bitcoinwallet.model.response.GeneralResponseData;
 import com.community.bitcoinwallet.model.response.Status;
+import com.community.bitcoinwallet.service.IdempotencyKeyReusedException;
+import com.community.bitcoinwallet.service.QueryRejectedException;
+import com.community.bitcoinwallet.service.RateLimitedException;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -18,6 +26,14 @@ public abstract class AbstractController {
         new GeneralResponseData(Status.OK, "All good!");
     public static final GeneralResponseData WRONG_JSON_RESPONSE =
         new GeneralResponseData(Status.CLIENT_ERROR, "Wrong JSON!");
+    public static final GeneralResponseData WRONG_PARAMETERS_RESPONSE =
+        new GeneralResponseData(Status.CLIENT_ERROR, "Wrong request parameters!");
+    public static final GeneralResponseData BUSY_RESPONSE =
+        new GeneralResponseData(Status.INTERNAL_ERROR, "Too many queries, retry later");
+    public static final GeneralResponseData RATE_LIMITED_RESPONSE =
+        new GeneralResponseData(Status.CLIENT_ERROR, "Rate limit exceeded, retry later");
+    public static final GeneralResponseData KEY_REUSED_RESPONSE =
+        new GeneralResponseData(Status.CLIENT_ERROR, "Idempotency key was already used for another entry");
 
     @ExceptionHandler(IllegalArgumentException.class)
     @ResponseStatus(value = HttpStatus.BAD_REQUEST)
@@ -33,6 +49,42 @@ public abstract class AbstractController {
         return WRONG_JSON_RESPONSE;
     }
 
+    @ExceptionHandler({MissingServletRequestParameterException.class, TypeMismatchException.class})
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public GeneralResponseData handleParametersException(Exception e) {
+        return WRONG_PARAMETERS_RESPONSE;
+    }
+
+    @ExceptionHandler(QueryRejectedException.class)
+    public ResponseEntity<GeneralResponseData> handleException(QueryRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+            .body(BUSY_RESPONSE);
+    }
+
+    @ExceptionHandler(CannotGetJdbcConnectionException.class)
+    public ResponseEntity<GeneralResponseData> handleException(CannotGetJdbcConnectionException e) {
+        log.warn("No free connection in the pool", e);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, "1")
+            .body(BUSY_RESPONSE);
+    }
+
+    @ExceptionHandler(RateLimitedException.class)
+    public ResponseEntity<GeneralResponseData> handleException(RateLimitedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+            .body(RATE_LIMITED_RESPONSE);
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    @ResponseStatus(value = HttpStatus.UNPROCESSABLE_ENTITY)
+    @ResponseBody
+    public GeneralResponseData handleException(IdempotencyKeyReusedException e) {
+        return KEY_REUSED_RESPONSE;
+    }
+
     @ExceptionHandler(Exception.class)
     @ResponseStatus(value = HttpStatus.INTERNAL_SERVER_ERROR)
     @ResponseBody
@@ -0,0 +1,101 @@
+package com.community.bitcoinwallet.controller;
+
+import com.community.bitcoinwallet.model.BalanceWindow;
+import com.community.bitcoinwallet.model.requests.BalanceBatchRequest;
+import com.community.bitcoinwallet.model.requests.BalanceRequest;
+import com.community.bitcoinwallet.service.BalanceQueryExecutor;
+import com.community.bitcoinwallet.service.RateLimitedException;
+import com.community.bitcoinwallet.service.TokenBucketRateLimiter;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Charges balance queries by their estimated cost: one more permit for every costPerPermit units
+ * (hours, multiplied for sync queries, see {@link BalanceQueryExecutor#estimateCost}).
+ * Malformed requests are left to the controller.
+ */
+@ControllerAdvice(assignableTypes = WalletController.class)
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class RateLimitBodyAdvice extends RequestBodyAdviceAdapter {
+
+    TokenBucketRateLimiter rateLimiter;
+    BalanceQueryExecutor balanceQueryExecutor;
+    boolean enabled;
+    long costPerPermit;
+    Set<String> apiKeys;
+
+    public RateLimitBodyAdvice(@Qualifier("balanceRateLimiter") TokenBucketRateLimiter rateLimiter,
+                               BalanceQueryExecutor balanceQueryExecutor,
+                               @Value("${wallet.rate-limit.enabled:true}") boolean enabled,
+                               @Value("${wallet.rate-limit.balance.cost-per-permit:720}") long costPerPermit,
+                               @Value("${wallet.rate-limit.api-keys:}") Set<String> apiKeys) {
+        this.rateLimiter = rateLimiter;
+        this.balanceQueryExecutor = balanceQueryExecutor;
+        this.enabled = enabled;
+        this.costPerPermit = costPerPermit;
+        this.apiKeys = apiKeys;
+    }
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType,
+                            Class<? extends HttpMessageConverter<?>> converterType) {
+        return enabled && (targetType == BalanceRequest.class || targetType == BalanceBatchRequest.class);
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter,
+                                Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+        // the input message is a wrapper around the servlet request, so it is taken from the context
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return body;
+        }
+        List<BalanceWindow> windows = toWindows(body);
+        if (windows.isEmpty()) {
+            return body;
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        boolean sync = !"false".equals(request.getParameter("sync"));
+        long permits = balanceQueryExecutor.estimateCost(windows, sync) / costPerPermit;
+        if (permits > 0) {
+            String client = RateLimitInterceptor.clientId(request, apiKeys);
+            long waitNanos = rateLimiter.tryAcquire(client, permits);
+            if (waitNanos > 0) {
+                throw RateLimitedException.afterNanos(waitNanos);
+            }
+        }
+        return body;
+    }
+
+    private static List<BalanceWindow> toWindows(Object body) {
+        List<BalanceRequest> requests = new ArrayList<>();
+        if (body instanceof BalanceRequest) {
+            requests.add((BalanceRequest) body);
+        } else if (body instanceof BalanceBatchRequest && ((BalanceBatchRequest) body).getWindows() != null) {
+            requests.addAll(((BalanceBatchRequest) body).getWindows());
+        }
+        List<BalanceWindow> windows = new ArrayList<>(requests.size());
+        for (BalanceRequest request : requests) {
+            if (request != null && request.getFrom() != null && request.getTo() != null) {
+                windows.add(new BalanceWindow(request.getFrom().toInstant(), request.getTo().toInstant()));
+            }
+        }
+        return windows;
+    }
+}
@@ -0,0 +1,47 @@
+package com.community.bitcoinwallet.controller;
+
+import com.community.bitcoinwallet.service.RateLimitedException;
+import com.community.bitcoinwallet.service.TokenBucketRateLimiter;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * Charges every request one permit of its client.
+ * Range-dependent part of balance queries is charged by {@link RateLimitBodyAdvice}, once the body is read.
+ * <p>
+ * A client is its API key only if the key is one of the configured ones, otherwise it is its IP:
+ * made up keys would give a fresh bucket to every request and crowd real clients out of the tracked ones.
+ */
+@RequiredArgsConstructor
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class RateLimitInterceptor implements HandlerInterceptor {
+    public static final String API_KEY_HEADER = "X-API-Key";
+
+    TokenBucketRateLimiter rateLimiter;
+    Set<String> apiKeys;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            // already charged when the request came in
+            return true;
+        }
+        long waitNanos = rateLimiter.tryAcquire(clientId(request, apiKeys), 1);
+        if (waitNanos > 0) {
+            throw RateLimitedException.afterNanos(waitNanos);
+        }
+        return true;
+    }
+
+    public static String clientId(HttpServletRequest request, Set<String> apiKeys) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        return apiKey != null && apiKeys.contains(apiKey) ? "key:" + apiKey : "ip:" + request.getRemoteAddr();
+    }
+}
@@ -1,58 +1,243 @@
 package com.community.bitcoinwallet.controller;
 
+import com.community.bitcoinwallet.model.BalanceChange;
+import com.community.bitcoinwallet.model.BalanceChanges;
+import com.community.bitcoinwallet.model.BalanceWindow;
 import com.community.bitcoinwallet.model.WalletEntry;
 import com.community.bitcoinwallet.model.requests.AddWalletEntryRequest;
+import com.community.bitcoinwallet.model.requests.BalanceBatchRequest;
 import com.community.bitcoinwallet.model.requests.BalanceRequest;
+import com.community.bitcoinwallet.model.response.BalanceChangeResponse;
+import com.community.bitcoinwallet.model.response.BalanceChangesResponse;
 import com.community.bitcoinwallet.model.response.GeneralResponseData;
 import com.community.bitcoinwallet.model.response.WalletEntryResponse;
+import com.community.bitcoinwallet.service.BalanceChangeFeed;
+import com.community.bitcoinwallet.service.BalanceQueryExecutor;
+import com.community.bitcoinwallet.service.BalanceStream;
+import com.community.bitcoinwallet.service.LedgerVersion;
 import com.community.bitcoinwallet.service.WalletService;
 import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import com.community.bitcoinwallet.util.IsoDateTimeCodec;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+import static com.community.bitcoinwallet.util.BalanceSeriesHttpMessageConverter.BALANCE_SERIES;
+import static com.community.bitcoinwallet.util.BalanceSeriesHttpMessageConverter.BALANCE_SERIES_VALUE;
+
 
 @RestController
 @RequestMapping("/api/wallet")
 @RequiredArgsConstructor
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 public class WalletController extends AbstractController {
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
 
     WalletService walletService;
+    LedgerVersion ledgerVersion;
+    BalanceStream balanceStream;
+    BalanceQueryExecutor balanceQueryExecutor;
+    BalanceChangeFeed balanceChangeFeed;
 
+    /**
+     * A retry with the same Idempotency-Key doesn't add the entry again, it gets the same response
+     * with Idempotent-Replayed header. The same key with another entry gets 422.
+     */
     @PostMapping(value = "/add-entry", consumes = "application/json", produces = "application/json")
     @ResponseBody
-    public GeneralResponseData addEntry(@RequestBody AddWalletEntryRequest entryRequest) {
+    public ResponseEntity<GeneralResponseData> addEntry(
+        @RequestBody AddWalletEntryRequest entryRequest,
+        @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
         if (entryRequest == null || entryRequest.getDatetime() == null ||
             entryRequest.getAmount() == null) {
             throw new IllegalArgumentException("Request should not have null fields");
         }
-        walletService.addEntry(
+        boolean added = walletService.addEntry(
             new WalletEntry(entryRequest.getDatetime().toInstant(),
-                DateAndAmountUtils.toBigDecimal(entryRequest.getAmount())));
-        return OK_RESPONSE;
+                DateAndAmountUtils.toBigDecimal(entryRequest.getAmount())), idempotencyKey);
+        if (!added) {
+            return ResponseEntity.ok().header(IDEMPOTENT_REPLAYED, "true").body(OK_RESPONSE);
+        }
+        return ResponseEntity.ok(OK_RESPONSE);
     }
 
-    @PostMapping(value = "/balance", consumes = "application/json", produces = "application/json")
+    @PostMapping(value = "/balance", consumes = "application/json",
+        produces = {"application/json", BALANCE_SERIES_VALUE})
     @ResponseBody
-    public List<WalletEntryResponse> getBalance(@RequestBody BalanceRequest balanceRequest,
-                                                @RequestParam(defaultValue = "true") boolean sync) {
+    public CompletableFuture<ResponseEntity<?>> getBalance(
+        @RequestBody BalanceRequest balanceRequest,
+        @RequestParam(defaultValue = "true") boolean sync,
+        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         if (balanceRequest == null || balanceRequest.getFrom() == null ||
             balanceRequest.getTo() == null) {
             throw new IllegalArgumentException("Request should not have null fields");
         }
-        List<WalletEntry> entries = walletService.getBalanceFull(
-            balanceRequest.getFrom().toInstant(),
-            balanceRequest.getTo().toInstant(),
-            sync);
-        return entries.stream().map(walletEntry ->
-            new WalletEntryResponse(
-                DateAndAmountUtils.toUTCZonedDate(walletEntry.getDatetime()),
-                walletEntry.getAmount().doubleValue()))
-            .collect(Collectors.toList());
-    }
-}
+        Instant from = balanceRequest.getFrom().toInstant();
+        Instant to = balanceRequest.getTo().toInstant();
+        boolean series = prefersBalanceSeries(accept);
+        // tag is taken before the query, so it can only be older than the data, never newer
+        String eTag = "W/\"" + ledgerVersion.getBalanceTag(from, to, sync) + (series ? "-bin" : "") + "\"";
+        // body depends on Accept, so shared caches shouldn't give binary one to a JSON client
+        if (isNotModified(ifNoneMatch, eTag)) {
+            return CompletableFuture.completedFuture(
+                ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build());
+        }
+        long cost = balanceQueryExecutor.estimateCost(from, to, sync);
+        return balanceQueryExecutor.<ResponseEntity<?>>submit(cost, () -> series ?
+            ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT)
+                .body(walletService.getBalanceSeries(from, to, sync)) :
+            ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT)
+                .body(toResponse(walletService.getBalanceFull(from, to, sync))));
+    }
+
+    @GetMapping(value = "/balance/at", produces = "application/json")
+    @ResponseBody
+    public WalletEntryResponse getBalanceAt(@RequestParam("ts") String ts,
+                                            @RequestParam(defaultValue = "true") boolean sync) {
+        return toResponse(walletService.getBalanceAt(IsoDateTimeCodec.parse(ts).toInstant(), sync));
+    }
+
+    @GetMapping(value = "/balance/latest", produces = "application/json")
+    @ResponseBody
+    public WalletEntryResponse getLatestBalance() {
+        return toResponse(walletService.getLatestBalance());
+    }
+
+    /**
+     * Pushes balances of hours changed by the updater as "balances" events.
+     * Streams are closed when dropped or timed out, subscribers should re-read balances after reconnecting.
+     */
+    @GetMapping(value = "/balance/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBalances() {
+        SseEmitter emitter = new SseEmitter(balanceStream.getSubscriptionTimeoutMillis());
+        BalanceStream.Subscription subscription = balanceStream.subscribe(new BalanceStream.BalanceSink() {
+            @Override
+            public void send(List<WalletEntry> balances) throws IOException {
+                emitter.send(SseEmitter.event()
+                    .name("balances")
+                    .data(toResponse(balances), MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * Balance updates committed after the given sequence number, oldest first. With waitMillis the request
+     * is held until there is something to read. Consumers go on from lastSequence and re-read balances
+     * if resync is set.
+     */
+    @GetMapping(value = "/balance/changes", produces = "application/json")
+    @ResponseBody
+    public CompletableFuture<BalanceChangesResponse> getBalanceChanges(
+        @RequestParam(defaultValue = "0") long after,
+        @RequestParam(defaultValue = "1000") int limit,
+        @RequestParam(defaultValue = "0") long waitMillis) {
+        return balanceChangeFeed.getChanges(after, limit, Duration.ofMillis(waitMillis))
+            .thenApply(WalletController::toResponse);
+    }
+
+    @PostMapping(value = "/balance/batch", consumes = "application/json", produces = "application/json")
+    @ResponseBody
+    public CompletableFuture<List<List<WalletEntryResponse>>> getBalanceBatch(
+        @RequestBody BalanceBatchRequest batchRequest,
+        @RequestParam(defaultValue = "true") boolean sync) {
+        if (batchRequest == null || batchRequest.getWindows() == null) {
+            throw new IllegalArgumentException("Request should not have null fields");
+        }
+        List<BalanceWindow> windows = new ArrayList<>(batchRequest.getWindows().size());
+        for (BalanceRequest window : batchRequest.getWindows()) {
+            if (window == null || window.getFrom() == null || window.getTo() == null) {
+                throw new IllegalArgumentException("Request should not have null fields");
+            }
+            windows.add(new BalanceWindow(window.getFrom().toInstant(), window.getTo().toInstant()));
+        }
+        return balanceQueryExecutor.submit(balanceQueryExecutor.estimateCost(windows, sync), () ->
+            walletService.getBalanceFullBatch(windows, sync).stream()
+                .map(WalletController::toResponse)
+                .collect(Collectors.toList()));
+    }
+
+    private static BalanceChangesResponse toResponse(BalanceChanges changes) {
+        return new BalanceChangesResponse(changes.getLastSequence(), changes.isResync(),
+            changes.getChanges().stream().map(WalletController::toResponse).collect(Collectors.toList()));
+    }
+
+    private static BalanceChangeResponse toResponse(BalanceChange change) {
+        return new BalanceChangeResponse(change.getSequence(),
+            DateAndAmountUtils.toUTCZonedDate(change.getFrom()),
+            DateAndAmountUtils.toUTCZonedDate(change.getTo()),
+            toResponse(change.getBalances()));
+    }
+
+    private static List<WalletEntryResponse> toResponse(List<WalletEntry> entries) {
+        return entries.stream().map(WalletController::toResponse).collect(Collectors.toList());
+    }
+
+    private static WalletEntryResponse toResponse(WalletEntry walletEntry) {
+        return new WalletEntryResponse(
+            DateAndAmountUtils.toUTCZonedDate(walletEntry.getDatetime()),
+            walletEntry.getAmount().doubleValue());
+    }
+
+    /**
+     * JSON stays the default, binary series is returned only if client prefers it explicitly.
+     */
+    private static boolean prefersBalanceSeries(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+            if (mediaType.isCompatibleWith(BALANCE_SERIES)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNotModified(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = withoutWeakPrefix(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || withoutWeakPrefix(trimmed).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String withoutWeakPrefix(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+}
\ No newline at end of file
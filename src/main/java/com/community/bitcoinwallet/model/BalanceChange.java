@@ -0,0 +1,24 @@
+package com.community.bitcoinwallet.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A committed balance update: balances at the end of hours in [from, to) were recomputed.
+ * Balances are the merged ones in time order (hours without entries keep the balance before them),
+ * empty if the feed doesn't keep values.
+ */
+@Data
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class BalanceChange {
+    long sequence;
+    Instant from;
+    Instant to;
+    List<WalletEntry> balances;
+}
@@ -0,0 +1,21 @@
+package com.community.bitcoinwallet.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+/**
+ * A page of the change feed. If resync is set, changes after the requested sequence are not kept anymore,
+ * so the consumer should re-read balances and go on from lastSequence.
+ */
+@Data
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class BalanceChanges {
+    long lastSequence;
+    boolean resync;
+    List<BalanceChange> changes;
+}
@@ -0,0 +1,18 @@
+package com.community.bitcoinwallet.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Hourly balances in columnar form: balance at firstHourMillis + i * stepMillis is satoshis[i].
+ */
+@Data
+@AllArgsConstructor
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BalanceSeries {
+    long firstHourMillis;
+    long stepMillis;
+    long[] satoshis;
+}
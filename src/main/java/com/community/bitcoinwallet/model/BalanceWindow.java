@@ -0,0 +1,16 @@
+package com.community.bitcoinwallet.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class BalanceWindow {
+    Instant from;
+    Instant to;
+}
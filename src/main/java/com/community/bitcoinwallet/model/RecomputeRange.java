@@ -0,0 +1,49 @@
+package com.community.bitcoinwallet.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Hours [from, to) which balances should be recomputed for, id is assigned when the range is offered.
+ */
+@Data
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RecomputeRange {
+    long id;
+    Instant from;
+    Instant to;
+
+    /**
+     * @return parts of this range not covered by any of the ranges, oldest first
+     */
+    public List<RecomputeRange> without(Collection<RecomputeRange> covered) {
+        List<RecomputeRange> overlapping = covered.stream()
+            .filter(range -> range.from.isBefore(to) && from.isBefore(range.to))
+            .sorted(Comparator.comparing(RecomputeRange::getFrom))
+            .collect(Collectors.toList());
+        List<RecomputeRange> left = new ArrayList<>();
+        Instant start = from;
+        for (RecomputeRange range : overlapping) {
+            if (range.from.isAfter(start)) {
+                left.add(new RecomputeRange(0, start, range.from));
+            }
+            if (range.to.isAfter(start)) {
+                start = range.to;
+            }
+        }
+        if (start.isBefore(to)) {
+            left.add(new RecomputeRange(0, start, to));
+        }
+        return left;
+    }
+}
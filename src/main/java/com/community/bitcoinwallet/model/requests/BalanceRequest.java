@@ -1,5 +1,7 @@
 package com.community.bitcoinwallet.model.requests;
 
+import com.community.bitcoinwallet.util.ZonedDateTimeDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -13,6 +15,8 @@ import java.time.ZonedDateTime;
 @NoArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class BalanceRequest {
+    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
     ZonedDateTime from;
+    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
     ZonedDateTime to;
 }
@@ -0,0 +1,21 @@
+package com.community.bitcoinwallet.model.response;
+
+import com.community.bitcoinwallet.util.ZonedDateTimeSerializer;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+@Data
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BalanceChangeResponse {
+    long sequence;
+    @JsonSerialize(using = ZonedDateTimeSerializer.class)
+    ZonedDateTime from;
+    @JsonSerialize(using = ZonedDateTimeSerializer.class)
+    ZonedDateTime to;
+    List<WalletEntryResponse> balances;
+}
@@ -0,0 +1,15 @@
+package com.community.bitcoinwallet.model.response;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+@Data
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BalanceChangesResponse {
+    long lastSequence;
+    boolean resync;
+    List<BalanceChangeResponse> changes;
+}
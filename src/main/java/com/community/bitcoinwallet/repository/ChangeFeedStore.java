@@ -0,0 +1,39 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.BalanceChange;
+import com.community.bitcoinwallet.model.WalletEntry;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Ordered log of committed balance updates. Sequence numbers grow in commit order,
+ * so a consumer which has seen a sequence number has seen everything before it.
+ */
+public interface ChangeFeedStore {
+
+    /**
+     * Appends a record in the current updater transaction, if there is one.
+     * Only the last maxRecords records are kept.
+     *
+     * @return sequence number of the record
+     */
+    long append(Instant fromAtStart, Instant toAtStart, List<WalletEntry> balances);
+
+    /**
+     * @return records with sequence number after afterSequence, oldest first
+     */
+    List<BalanceChange> getChanges(long afterSequence, int limit);
+
+    /**
+     * @return sequence number of the oldest kept record, 0 if there are none
+     */
+    long getFirstSequence();
+
+    /**
+     * @return sequence number of the latest record, 0 if there are none
+     */
+    long getLastSequence();
+
+    void clear();
+}
@@ -0,0 +1,12 @@
+package com.community.bitcoinwallet.repository;
+
+import lombok.Value;
+
+/**
+ * Idempotency key as the in-memory engines remember it.
+ */
+@Value
+class EntryKey {
+    long payloadHash;
+    long createdMillis;
+}
@@ -0,0 +1,112 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.BalanceChange;
+import com.community.bitcoinwallet.model.WalletEntry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.community.bitcoinwallet.repository.WalletRepositoryMappersConstants.ROW_MAPPER;
+
+/**
+ * Records are rows of BALANCE_CHANGE with values in BALANCE_CHANGE_VALUE. Sequence numbers come from the TOKEN
+ * of the 'change-feed' row in UPDATER_LEASE, which stays locked until the appending transaction commits,
+ * so records commit in the order of their sequence numbers and a reader never skips one which commits later.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class H2ChangeFeedStore implements ChangeFeedStore {
+    private static final String FEED = "change-feed";
+
+    NamedParameterJdbcTemplate readJdbcTemplate;
+    NamedParameterJdbcTemplate updaterJdbcTemplate;
+    TransactionTemplate updaterTransactions;
+    int maxRecords;
+
+    public H2ChangeFeedStore(NamedParameterJdbcTemplate readJdbcTemplate,
+                             NamedParameterJdbcTemplate updaterJdbcTemplate,
+                             PlatformTransactionManager updaterTransactionManager, int maxRecords) {
+        this.readJdbcTemplate = readJdbcTemplate;
+        this.updaterJdbcTemplate = updaterJdbcTemplate;
+        this.updaterTransactions = new TransactionTemplate(updaterTransactionManager);
+        this.maxRecords = maxRecords;
+    }
+
+    @Override
+    public long append(Instant fromAtStart, Instant toAtStart, List<WalletEntry> balances) {
+        Long sequence = updaterTransactions.execute(status -> {
+            Map<String, Object> feed = Collections.singletonMap("name", FEED);
+            updaterJdbcTemplate.update("update UPDATER_LEASE set TOKEN = TOKEN + 1 where NAME = :name", feed);
+            long seq = updaterJdbcTemplate.queryForObject("select TOKEN from UPDATER_LEASE where NAME = :name",
+                feed, Long.class);
+            updaterJdbcTemplate.update("insert into BALANCE_CHANGE(SEQ, FROM_TS, TO_TS) values(:seq, :from, :to)",
+                Map.of("seq", seq, "from", fromAtStart.toEpochMilli(), "to", toAtStart.toEpochMilli()));
+            if (!balances.isEmpty()) {
+                updaterJdbcTemplate.batchUpdate("insert into BALANCE_CHANGE_VALUE(SEQ, TS, BITCOINS) " +
+                        "values(:seq, :ts, :bitcoins)",
+                    balances.stream()
+                        .map(balance -> Map.of("seq", seq, "ts", balance.getDatetime().toEpochMilli(),
+                            "bitcoins", balance.getAmount()))
+                        .toArray(Map[]::new));
+            }
+            Map<String, Object> oldest = Collections.singletonMap("oldest", seq - maxRecords);
+            updaterJdbcTemplate.update("delete from BALANCE_CHANGE_VALUE where SEQ <= :oldest", oldest);
+            updaterJdbcTemplate.update("delete from BALANCE_CHANGE where SEQ <= :oldest", oldest);
+            return seq;
+        });
+        return sequence == null ? 0 : sequence;
+    }
+
+    @Override
+    public List<BalanceChange> getChanges(long afterSequence, int limit) {
+        List<BalanceChange> changes = readJdbcTemplate.query("select SEQ, FROM_TS, TO_TS from BALANCE_CHANGE " +
+                "where SEQ > :after " +
+                "order by SEQ " +
+                "limit :limit",
+            Map.of("after", afterSequence, "limit", limit), (rs, rowNum) -> new BalanceChange(rs.getLong("SEQ"),
+                Instant.ofEpochMilli(rs.getLong("FROM_TS")), Instant.ofEpochMilli(rs.getLong("TO_TS")),
+                new ArrayList<>()));
+        if (changes.isEmpty()) {
+            return changes;
+        }
+        Map<Long, List<WalletEntry>> values = new HashMap<>();
+        changes.forEach(change -> values.put(change.getSequence(), change.getBalances()));
+        readJdbcTemplate.query("select SEQ, TS, BITCOINS from BALANCE_CHANGE_VALUE " +
+                "where SEQ > :after and SEQ <= :last " +
+                "order by SEQ, TS",
+            Map.of("after", afterSequence, "last", changes.get(changes.size() - 1).getSequence()),
+            (RowCallbackHandler) rs -> values.get(rs.getLong("SEQ")).add(ROW_MAPPER.mapRow(rs, 0)));
+        return changes;
+    }
+
+    @Override
+    public long getFirstSequence() {
+        Long first = readJdbcTemplate.queryForObject("select MIN(SEQ) from BALANCE_CHANGE",
+            Collections.emptyMap(), Long.class);
+        return first == null ? 0 : first;
+    }
+
+    @Override
+    public long getLastSequence() {
+        Long last = readJdbcTemplate.queryForObject("select MAX(SEQ) from BALANCE_CHANGE",
+            Collections.emptyMap(), Long.class);
+        return last == null ? 0 : last;
+    }
+
+    @Override
+    public void clear() {
+        updaterTransactions.executeWithoutResult(status -> {
+            updaterJdbcTemplate.update("delete from BALANCE_CHANGE_VALUE", Collections.emptyMap());
+            updaterJdbcTemplate.update("delete from BALANCE_CHANGE", Collections.emptyMap());
+        });
+    }
+}
@@ -0,0 +1,233 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import lombok.AccessLevel;
+import lombok.Value;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Log of changes made by nodes sharing the database, so every node can apply changes of the others to its
+ * caches: entries, merged balances and clears are appended to NODE_CHANGE in the transaction of the change,
+ * and nodes poll rows after the last sequence number they have seen.
+ * <p>
+ * Sequence numbers are taken at insert and rows become visible at commit, so a row can show up after rows
+ * with higher numbers. Missing numbers are polled again for gapTimeoutMillis, after that their transaction
+ * is taken as rolled back. Rows older than retentionMillis are pruned, and the 'node-changes' row of
+ * UPDATER_LEASE keeps the last pruned number: a node which hasn't seen it yet missed changes and resyncs.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class H2NodeChanges {
+    public static final char ENTRY = 'E';
+    public static final char MERGED = 'M';
+    public static final char CLEARED = 'C';
+    private static final String PRUNED = "node-changes";
+    // numbers missing further back than this are not tracked, their transactions are long gone
+    private static final int MAX_GAP = 1000;
+    private static final int PRUNES_PER_RETENTION = 10;
+
+    boolean enabled;
+    String nodeId;
+    NamedParameterJdbcTemplate readJdbcTemplate;
+    NamedParameterJdbcTemplate updaterJdbcTemplate;
+    TransactionTemplate updaterTransactions;
+    TransactionTemplate snapshotTransactions;
+    int pageSize;
+    long gapTimeoutMillis;
+    long retentionMillis;
+    // missing sequence number -> when it was found missing
+    NavigableMap<Long, Long> gaps = new TreeMap<>();
+    // nothing seen yet, the first poll resyncs
+    @NonFinal
+    long lastSeq = -1;
+    @NonFinal
+    long prunedAtMillis;
+
+    public H2NodeChanges(boolean enabled, String nodeId, NamedParameterJdbcTemplate readJdbcTemplate,
+                         NamedParameterJdbcTemplate updaterJdbcTemplate,
+                         PlatformTransactionManager updaterTransactionManager, int pageSize,
+                         long gapTimeoutMillis, long retentionMillis) {
+        this.enabled = enabled;
+        this.nodeId = nodeId;
+        this.readJdbcTemplate = readJdbcTemplate;
+        this.updaterJdbcTemplate = updaterJdbcTemplate;
+        this.updaterTransactions = new TransactionTemplate(updaterTransactionManager);
+        this.snapshotTransactions = new TransactionTemplate(updaterTransactionManager);
+        snapshotTransactions.setIsolationLevel(TransactionDefinition.ISOLATION_SERIALIZABLE);
+        snapshotTransactions.setReadOnly(true);
+        this.pageSize = pageSize;
+        this.gapTimeoutMillis = gapTimeoutMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Should be called in the transaction of the entry.
+     */
+    public void entryAdded(NamedParameterJdbcTemplate jdbcTemplate, WalletEntry entry) {
+        long ts = entry.getDatetime().toEpochMilli();
+        append(jdbcTemplate, ENTRY, ts, ts, entry.getAmount());
+    }
+
+    /**
+     * Should be called in the transaction of the merge, only the range of balances is logged.
+     */
+    public void balancesMerged(NamedParameterJdbcTemplate jdbcTemplate, List<WalletEntry> balances) {
+        if (balances.isEmpty()) {
+            return;
+        }
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (WalletEntry balance : balances) {
+            from = Math.min(from, balance.getDatetime().toEpochMilli());
+            to = Math.max(to, balance.getDatetime().toEpochMilli());
+        }
+        append(jdbcTemplate, MERGED, from, to, BigDecimal.ZERO);
+    }
+
+    public void cleared(NamedParameterJdbcTemplate jdbcTemplate) {
+        append(jdbcTemplate, CLEARED, 0, 0, BigDecimal.ZERO);
+    }
+
+    /**
+     * @return changes of other nodes which became visible since the previous poll, in sequence order,
+     * or empty if this node may have missed some and should {@link #resync}
+     */
+    public synchronized Optional<List<Change>> poll() {
+        if (lastSeq < 0 || lastSeq < getPrunedSeq()) {
+            return Optional.empty();
+        }
+        long now = System.currentTimeMillis();
+        gaps.values().removeIf(missedAt -> now - missedAt > gapTimeoutMillis);
+        Map<String, Object> params = new HashMap<>();
+        params.put("last", lastSeq);
+        params.put("limit", pageSize);
+        params.put("gaps", gaps.isEmpty() ? Collections.singleton(-1L) : gaps.keySet());
+        List<Change> rows = readJdbcTemplate.query("select SEQ, NODE, KIND, FROM_TS, TO_TS, BITCOINS " +
+                "from NODE_CHANGE " +
+                "where SEQ > :last or SEQ in (:gaps) " +
+                "order by SEQ " +
+                "limit :limit",
+            params, (rs, rowNum) -> new Change(rs.getLong("SEQ"), rs.getString("NODE"),
+                rs.getString("KIND").charAt(0), rs.getLong("FROM_TS"), rs.getLong("TO_TS"),
+                rs.getBigDecimal("BITCOINS")));
+        List<Change> remote = new ArrayList<>(rows.size());
+        for (Change row : rows) {
+            if (row.seq > lastSeq) {
+                if (row.seq - lastSeq <= MAX_GAP) {
+                    for (long missing = lastSeq + 1; missing < row.seq; missing++) {
+                        gaps.put(missing, now);
+                    }
+                }
+                lastSeq = row.seq;
+            } else {
+                gaps.remove(row.seq);
+            }
+            if (!nodeId.equals(row.node)) {
+                remote.add(row);
+            }
+        }
+        if (now - prunedAtMillis >= retentionMillis / PRUNES_PER_RETENTION) {
+            prunedAtMillis = now;
+            prune(now - retentionMillis);
+        }
+        return Optional.of(remote);
+    }
+
+    /**
+     * Starts over from the current end of the log. The end of the log and the snapshot are read in one
+     * serializable transaction on the updater pool: rows which commit later are not in the snapshot,
+     * and they are polled as gaps or after the end, so every change is in exactly one of them.
+     */
+    public synchronized <T> T resync(Supplier<T> snapshot) {
+        return snapshotTransactions.execute(status -> {
+            long pruned = getPrunedSeq();
+            Long max = updaterJdbcTemplate.queryForObject("select MAX(SEQ) from NODE_CHANGE",
+                Collections.emptyMap(), Long.class);
+            long end = max == null ? pruned : max;
+            Set<Long> present = new HashSet<>(updaterJdbcTemplate.queryForList("select SEQ from NODE_CHANGE " +
+                "where SEQ > :from", Collections.singletonMap("from", end - MAX_GAP), Long.class));
+            T result = snapshot.get();
+            long now = System.currentTimeMillis();
+            gaps.clear();
+            for (long seq = Math.max(end - MAX_GAP, pruned) + 1; seq <= end; seq++) {
+                if (!present.contains(seq)) {
+                    gaps.put(seq, now);
+                }
+            }
+            lastSeq = end;
+            log.info("Resynced with changes of other nodes at {}, {} of them may still commit", end, gaps.size());
+            return result;
+        });
+    }
+
+    private void append(NamedParameterJdbcTemplate jdbcTemplate, char kind, long fromTs, long toTs,
+                        BigDecimal bitcoins) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.update("insert into NODE_CHANGE(NODE, KIND, FROM_TS, TO_TS, BITCOINS, CREATED) " +
+                "values(:node, :kind, :from, :to, :bitcoins, :created)",
+            Map.of("node", nodeId, "kind", String.valueOf(kind), "from", fromTs, "to", toTs,
+                "bitcoins", bitcoins, "created", System.currentTimeMillis()));
+    }
+
+    private long getPrunedSeq() {
+        Long pruned = readJdbcTemplate.queryForObject("select TOKEN from UPDATER_LEASE where NAME = :name",
+            Collections.singletonMap("name", PRUNED), Long.class);
+        return pruned == null ? 0 : pruned;
+    }
+
+    /**
+     * The pruned number moves in the same transaction as rows go, so a reader never misses rows unnoticed.
+     */
+    private void prune(long createdBeforeMillis) {
+        try {
+            updaterTransactions.executeWithoutResult(status -> {
+                Long upTo = updaterJdbcTemplate.queryForObject("select MAX(SEQ) from NODE_CHANGE " +
+                    "where CREATED < :before", Collections.singletonMap("before", createdBeforeMillis), Long.class);
+                if (upTo == null) {
+                    return;
+                }
+                Map<String, Object> params = Map.of("name", PRUNED, "seq", upTo);
+                updaterJdbcTemplate.update("update UPDATER_LEASE set TOKEN = GREATEST(TOKEN, :seq) " +
+                    "where NAME = :name", params);
+                updaterJdbcTemplate.update("delete from NODE_CHANGE where SEQ <= :seq", params);
+            });
+        } catch (RuntimeException e) {
+            log.warn("Can't prune changes of nodes", e);
+        }
+    }
+
+    @Value
+    public static class Change {
+        long seq;
+        String node;
+        char kind;
+        long fromTs;
+        long toTs;
+        BigDecimal bitcoins;
+    }
+}
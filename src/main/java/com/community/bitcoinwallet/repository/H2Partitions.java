@@ -0,0 +1,256 @@
+package com.community.bitcoinwallet.repository;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Monthly partitions of WALLET and BALANCE: WALLET_2020_05 keeps entries of May 2020, BALANCE_2020_05 keeps
+ * balances at the end of its hours (so a balance at ts goes to the month of ts - 1ms, with entries summed up
+ * into it). Both tables of a month are created on demand by the first entry of the month.
+ * <p>
+ * DDL in H2 commits the open transaction, so partitions are created through their own non-pooled
+ * connection and callers may ensure a partition inside a transaction.
+ * <p>
+ * Known months are kept in memory, reads never go to INFORMATION_SCHEMA. Other nodes sharing the database
+ * create partitions too, so {@link #refresh} reloads them when there is a reason to: node sync reloads them
+ * on a clear and, via {@link #refreshIfUnknown}, on an entry of a month this node doesn't know.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class H2Partitions {
+    private static final String WALLET_PREFIX = "WALLET_";
+    private static final String BALANCE_PREFIX = "BALANCE_";
+    private static final Pattern PARTITION = Pattern.compile("WALLET_(\\d{4})_(\\d{2})");
+    private static final String NO_ROWS = "(select CAST(0 AS BIGINT) as ts, CAST(0 AS DECIMAL(15,8)) as bitcoins " +
+        "from DUAL where 1 = 0)";
+
+    JdbcTemplate ddlJdbcTemplate;
+    TransactionTemplate ddlTransactions;
+    JdbcTemplate readJdbcTemplate;
+    NavigableSet<YearMonth> months = new ConcurrentSkipListSet<>();
+    Object refreshLock = new Object();
+    // months created while a refresh reads INFORMATION_SCHEMA, it may not see them yet
+    Set<YearMonth> ensuredDuringRefresh = new HashSet<>();
+    // months a refresh didn't find, not reloaded for again until the next full refresh
+    Set<YearMonth> missed = ConcurrentHashMap.newKeySet();
+    @NonFinal
+    boolean refreshing;
+
+    /**
+     * @param readJdbcTemplate pooled, used to reload months
+     */
+    public H2Partitions(DataSource ddlDataSource, JdbcTemplate readJdbcTemplate) {
+        this.ddlJdbcTemplate = new JdbcTemplate(ddlDataSource);
+        this.ddlTransactions = new TransactionTemplate(new DataSourceTransactionManager(ddlDataSource));
+        this.readJdbcTemplate = readJdbcTemplate;
+        reload();
+        migrateUnpartitioned();
+    }
+
+    public static YearMonth monthOf(long tsMillis) {
+        return YearMonth.from(Instant.ofEpochMilli(tsMillis).atZone(ZoneOffset.UTC));
+    }
+
+    public static long monthStartMillis(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    public static String walletTable(YearMonth month) {
+        return WALLET_PREFIX + suffix(month);
+    }
+
+    public static String balanceTable(YearMonth month) {
+        return BALANCE_PREFIX + suffix(month);
+    }
+
+    /**
+     * Creates both tables of the month, if they are not there yet.
+     */
+    public void ensure(YearMonth month) {
+        if (months.contains(month)) {
+            return;
+        }
+        synchronized (this) {
+            if (months.contains(month)) {
+                return;
+            }
+            String wallet = walletTable(month);
+            String balance = balanceTable(month);
+            ddlJdbcTemplate.execute("CREATE TABLE IF NOT EXISTS PUBLIC." + wallet + "(" +
+                "ID bigint auto_increment primary key, " +
+                "TS bigint not null, " +
+                "BITCOINS DECIMAL(15,8) not null)");
+            ddlJdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + wallet + "_BY_TS_IDX ON " + wallet + "(TS)");
+            ddlJdbcTemplate.execute("CREATE TABLE IF NOT EXISTS PUBLIC." + balance + "(" +
+                "TS bigint not null primary key, " +
+                "BITCOINS DECIMAL(15,8) not null)");
+            months.add(month);
+            if (refreshing) {
+                ensuredDuringRefresh.add(month);
+            }
+            log.info("Created partitions {} and {}", wallet, balance);
+        }
+    }
+
+    /**
+     * Reloads the known months, picking up partitions created or dropped by other nodes.
+     * INFORMATION_SCHEMA is read outside of the monitor of {@link #ensure}, months created meanwhile are kept.
+     */
+    public void refresh() {
+        missed.clear();
+        reload();
+    }
+
+    /**
+     * Reloads the known months if the month is not known, once: a month which is still missing after that
+     * is not reloaded for again until the next {@link #refresh}.
+     */
+    public void refreshIfUnknown(YearMonth month) {
+        if (months.contains(month) || missed.contains(month)) {
+            return;
+        }
+        reload();
+        if (!months.contains(month)) {
+            missed.add(month);
+        }
+    }
+
+    private void reload() {
+        synchronized (refreshLock) {
+            synchronized (this) {
+                refreshing = true;
+            }
+            NavigableSet<YearMonth> existing = null;
+            try {
+                existing = readJdbcTemplate.queryForList("select TABLE_NAME " +
+                    "from INFORMATION_SCHEMA.TABLES where TABLE_SCHEMA = 'PUBLIC'", String.class).stream()
+                    .map(PARTITION::matcher)
+                    .filter(Matcher::matches)
+                    .map(table -> YearMonth.of(Integer.parseInt(table.group(1)), Integer.parseInt(table.group(2))))
+                    .collect(Collectors.toCollection(TreeSet::new));
+            } finally {
+                synchronized (this) {
+                    if (existing != null) {
+                        existing.addAll(ensuredDuringRefresh);
+                        months.addAll(existing);
+                        months.retainAll(existing);
+                    }
+                    ensuredDuringRefresh.clear();
+                    refreshing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return existing months, oldest first
+     */
+    public NavigableSet<YearMonth> getMonths() {
+        return months;
+    }
+
+    /**
+     * @return existing months which may have entries with ts in [fromMillis, toMillis)
+     * or balances with ts in (fromMillis, toMillis]
+     */
+    public NavigableSet<YearMonth> getMonths(long fromMillis, long toMillis) {
+        if (toMillis <= fromMillis) {
+            return Collections.emptyNavigableSet();
+        }
+        return months.subSet(monthOf(fromMillis), true, monthOf(toMillis - 1), true);
+    }
+
+    /**
+     * @return existing months which may have entries with ts before toMillis
+     */
+    public NavigableSet<YearMonth> getMonthsBefore(long toMillis) {
+        if (toMillis == Long.MIN_VALUE) {
+            return Collections.emptyNavigableSet();
+        }
+        return months.headSet(monthOf(toMillis - 1), true);
+    }
+
+    /**
+     * @return derived table with ts and bitcoins of entries of the given months
+     */
+    public static String wallet(NavigableSet<YearMonth> months) {
+        return union(months, WALLET_PREFIX);
+    }
+
+    /**
+     * @return derived table with ts and bitcoins of balances of the given months
+     */
+    public static String balance(NavigableSet<YearMonth> months) {
+        return union(months, BALANCE_PREFIX);
+    }
+
+    private static String union(NavigableSet<YearMonth> months, String prefix) {
+        if (months.isEmpty()) {
+            return NO_ROWS;
+        }
+        return months.stream()
+            .map(month -> "select ts, bitcoins from " + prefix + suffix(month))
+            .collect(Collectors.joining(" union all ", "(", ")"));
+    }
+
+    private static String suffix(YearMonth month) {
+        return String.format("%04d_%02d", month.getYear(), month.getMonthValue());
+    }
+
+    /**
+     * Moves rows of a database created before partitioning into partitions, once.
+     */
+    private void migrateUnpartitioned() {
+        Integer tables = ddlJdbcTemplate.queryForObject("select COUNT(*) from INFORMATION_SCHEMA.TABLES " +
+            "where TABLE_SCHEMA = 'PUBLIC' and TABLE_NAME in ('WALLET', 'BALANCE')", Integer.class);
+        if (tables == null || tables < 2) {
+            return;
+        }
+        List<Long> bounds = ddlJdbcTemplate.queryForObject("select MIN(ts) min_ts, MAX(ts) max_ts from " +
+            "(select ts from WALLET union all select ts - 1 from BALANCE) t", (rs, rowNum) ->
+            rs.getObject("min_ts") == null ? null : List.of(rs.getLong("min_ts"), rs.getLong("max_ts")));
+        if (bounds == null) {
+            return;
+        }
+        YearMonth first = monthOf(bounds.get(0));
+        YearMonth last = monthOf(bounds.get(1));
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            ensure(month);
+        }
+        // all rows move in one transaction, so a failed start doesn't leave them in both places
+        ddlTransactions.executeWithoutResult(status -> {
+            for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+                long from = monthStartMillis(month);
+                long to = monthStartMillis(month.plusMonths(1));
+                ddlJdbcTemplate.update("insert into " + walletTable(month) + "(ts,bitcoins) " +
+                    "select ts,bitcoins from WALLET where ts >= ? and ts < ?", from, to);
+                ddlJdbcTemplate.update("insert into " + balanceTable(month) + "(ts,bitcoins) " +
+                    "select ts,bitcoins from BALANCE where ts > ? and ts <= ?", from, to);
+            }
+            ddlJdbcTemplate.update("delete from WALLET");
+            ddlJdbcTemplate.update("delete from BALANCE");
+        });
+        log.info("Moved WALLET and BALANCE into monthly partitions {} - {}", first, last);
+    }
+}
@@ -0,0 +1,157 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.RecomputeRange;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Lease is a row of UPDATER_LEASE, ranges are rows of RECOMPUTE_RANGE. Everything goes through the updater
+ * pool, so coordination never takes connections from ingest or reads.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class H2UpdaterCoordination implements UpdaterCoordination {
+    private static final String LEASE = "balance-updater";
+    private static final String CLAIMS = "recompute-ranges";
+    private static final RowMapper<RecomputeRange> RANGE_MAPPER = (rs, rowNum) -> new RecomputeRange(
+        rs.getLong("ID"), Instant.ofEpochMilli(rs.getLong("FROM_TS")), Instant.ofEpochMilli(rs.getLong("TO_TS")));
+
+    NamedParameterJdbcTemplate updaterJdbcTemplate;
+    TransactionTemplate updaterTransactions;
+
+    public H2UpdaterCoordination(NamedParameterJdbcTemplate updaterJdbcTemplate,
+                                 PlatformTransactionManager updaterTransactionManager) {
+        this.updaterJdbcTemplate = updaterJdbcTemplate;
+        this.updaterTransactions = new TransactionTemplate(updaterTransactionManager);
+    }
+
+    /**
+     * Right-hand sides see the old row, so the token is incremented only when the owner changes.
+     * Takeover waits for the lock of a fenced transaction of the old owner, and fails if that takes too long.
+     */
+    @Override
+    public OptionalLong acquireLease(String owner, Instant now, Duration ttl) {
+        Map<String, Object> params = Map.of("name", LEASE, "owner", owner,
+            "now", now.toEpochMilli(), "expires", now.plus(ttl).toEpochMilli());
+        try {
+            int updated = updaterJdbcTemplate.update("update UPDATER_LEASE set " +
+                    "TOKEN = CASE WHEN OWNER = :owner THEN TOKEN ELSE TOKEN + 1 END, " +
+                    "OWNER = :owner, EXPIRES = :expires " +
+                    "where NAME = :name and (OWNER = :owner or EXPIRES <= :now)",
+                params);
+            if (updated == 0) {
+                return OptionalLong.empty();
+            }
+            Long token = updaterJdbcTemplate.queryForObject("select TOKEN from UPDATER_LEASE " +
+                "where NAME = :name and OWNER = :owner", params, Long.class);
+            return token == null ? OptionalLong.empty() : OptionalLong.of(token);
+        } catch (DataAccessException e) {
+            log.debug("Can't take the lease", e);
+            return OptionalLong.empty();
+        }
+    }
+
+    @Override
+    public void releaseLease(String owner) {
+        updaterJdbcTemplate.update("update UPDATER_LEASE set OWNER = '', EXPIRES = 0 " +
+            "where NAME = :name and OWNER = :owner", Map.of("name", LEASE, "owner", owner));
+    }
+
+    @Override
+    public boolean runFenced(String owner, long token, Instant now, Runnable work) {
+        Boolean done = updaterTransactions.execute(status -> {
+            if (!lockLease(owner, token, now)) {
+                return false;
+            }
+            work.run();
+            return true;
+        });
+        return Boolean.TRUE.equals(done);
+    }
+
+    /**
+     * Offers are serialized with claims by the same lock, so a range counted as pending can't be claimed
+     * (and recomputed without the new entry) before the offer commits.
+     */
+    @Override
+    public void offerRanges(List<RecomputeRange> ranges) {
+        updaterTransactions.executeWithoutResult(status -> {
+            lockClaims();
+            List<RecomputeRange> pending = new ArrayList<>(updaterJdbcTemplate.query("select ID, FROM_TS, TO_TS " +
+                "from RECOMPUTE_RANGE where OWNER is null", Collections.emptyMap(), RANGE_MAPPER));
+            List<Map<String, Object>> inserts = new ArrayList<>();
+            for (RecomputeRange range : ranges) {
+                for (RecomputeRange left : range.without(pending)) {
+                    pending.add(left);
+                    inserts.add(Map.of("from", left.getFrom().toEpochMilli(), "to", left.getTo().toEpochMilli()));
+                }
+            }
+            updaterJdbcTemplate.batchUpdate("insert into RECOMPUTE_RANGE(FROM_TS, TO_TS) values(:from, :to)",
+                inserts.toArray(Map[]::new));
+        });
+    }
+
+    /**
+     * Claimers are serialized by the lock of their own row in UPDATER_LEASE,
+     * so two overlapping ranges are never claimed at the same time.
+     */
+    @Override
+    public Optional<RecomputeRange> claimRange(String owner, Instant now, Duration ttl) {
+        return updaterTransactions.execute(status -> {
+            lockClaims();
+            Optional<RecomputeRange> range = updaterJdbcTemplate.query("select ID, FROM_TS, TO_TS " +
+                    "from RECOMPUTE_RANGE r " +
+                    "where CLAIMED_UNTIL <= :now and not exists (" +
+                    "select 1 from RECOMPUTE_RANGE c where c.CLAIMED_UNTIL > :now " +
+                    "and c.FROM_TS < r.TO_TS and r.FROM_TS < c.TO_TS) " +
+                    "order by ID " +
+                    "limit 1",
+                Map.of("now", now.toEpochMilli()), RANGE_MAPPER)
+                .stream().findFirst();
+            range.ifPresent(claimed -> updaterJdbcTemplate.update("update RECOMPUTE_RANGE " +
+                    "set OWNER = :owner, CLAIMED_UNTIL = :until where ID = :id",
+                Map.of("owner", owner, "until", now.plus(ttl).toEpochMilli(), "id", claimed.getId())));
+            return range;
+        });
+    }
+
+    @Override
+    public void completeRange(RecomputeRange range) {
+        updaterJdbcTemplate.update("delete from RECOMPUTE_RANGE where ID = :id",
+            Collections.singletonMap("id", range.getId()));
+    }
+
+    @Override
+    public void releaseRange(RecomputeRange range) {
+        updaterJdbcTemplate.update("update RECOMPUTE_RANGE set OWNER = null, CLAIMED_UNTIL = 0 where ID = :id",
+            Collections.singletonMap("id", range.getId()));
+    }
+
+    private void lockClaims() {
+        updaterJdbcTemplate.queryForList("select NAME from UPDATER_LEASE where NAME = :name for update",
+            Map.of("name", CLAIMS), String.class);
+    }
+
+    private boolean lockLease(String owner, long token, Instant now) {
+        return !updaterJdbcTemplate.queryForList("select TOKEN from UPDATER_LEASE " +
+                "where NAME = :name and OWNER = :owner and TOKEN = :token and EXPIRES > :now " +
+                "for update",
+            Map.of("name", LEASE, "owner", owner, "token", token, "now", now.toEpochMilli()), Long.class)
+            .isEmpty();
+    }
+}
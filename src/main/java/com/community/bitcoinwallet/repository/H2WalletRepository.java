@@ -1,46 +1,125 @@
 package com.community.bitcoinwallet.repository;
 
+import com.community.bitcoinwallet.config.H2JdbcConfig;
 import com.community.bitcoinwallet.model.WalletEntry;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.Instant;
+import java.time.YearMonth;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
 
+import static com.community.bitcoinwallet.repository.H2Partitions.balanceTable;
+import static com.community.bitcoinwallet.repository.H2Partitions.monthOf;
+import static com.community.bitcoinwallet.repository.H2Partitions.monthStartMillis;
+import static com.community.bitcoinwallet.repository.H2Partitions.walletTable;
 import static com.community.bitcoinwallet.repository.WalletRepositoryMappersConstants.*;
 
 
+/**
+ * Ingest, reads and the balance updater go through separate connection pools,
+ * updater transactions are bound to the updater pool.
+ * Entries and balances are kept in monthly partitions, see {@link H2Partitions}: writes go to the partition
+ * of their month and reads touch only partitions which overlap the range.
+ * Changes are also logged for other nodes sharing the database, see {@link H2NodeChanges}.
+ */
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
-public class H2WalletRepository {
+public class H2WalletRepository implements WalletRepository {
 
-    NamedParameterJdbcTemplate jdbcTemplate;
+    NamedParameterJdbcTemplate ingestJdbcTemplate;
+    NamedParameterJdbcTemplate readJdbcTemplate;
+    NamedParameterJdbcTemplate updaterJdbcTemplate;
+    H2Partitions partitions;
+    H2NodeChanges nodeChanges;
+    WalletChangeNotifier changeNotifier = new WalletChangeNotifier();
 
-    public H2WalletRepository(NamedParameterJdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+    public H2WalletRepository(NamedParameterJdbcTemplate ingestJdbcTemplate,
+                              NamedParameterJdbcTemplate readJdbcTemplate,
+                              NamedParameterJdbcTemplate updaterJdbcTemplate,
+                              H2Partitions partitions, H2NodeChanges nodeChanges) {
+        this.ingestJdbcTemplate = ingestJdbcTemplate;
+        this.readJdbcTemplate = readJdbcTemplate;
+        this.updaterJdbcTemplate = updaterJdbcTemplate;
+        this.partitions = partitions;
+        this.nodeChanges = nodeChanges;
     }
 
+    @Override
+    public void addChangeListener(WalletChangeListener listener) {
+        changeNotifier.addListener(listener);
+    }
+
+    @Override
     @Transactional
     public void addEntry(WalletEntry entry) {
         Map<String, Object> values = entryToMap(entry);
-        jdbcTemplate.update(String.format(INSERT, WALLET), values);
-        jdbcTemplate.update(String.format(INSERT, BALANCE_QUEUE), values);
+        YearMonth month = monthOf(entry.getDatetime().toEpochMilli());
+        partitions.ensure(month);
+        ingestJdbcTemplate.update(String.format(INSERT, walletTable(month)), values);
+        ingestJdbcTemplate.update(String.format(INSERT, BALANCE_QUEUE), values);
+        nodeChanges.entryAdded(ingestJdbcTemplate, entry);
+        changeNotifier.entryAdded(entry);
+    }
+
+    /**
+     * The key goes first: a duplicate fails on the primary key of ENTRY_KEY before anything else is written.
+     */
+    @Override
+    @Transactional
+    public OptionalLong addEntry(WalletEntry entry, String idempotencyKey, long payloadHash) {
+        try {
+            ingestJdbcTemplate.update("insert into ENTRY_KEY(idempotency_key,payload_hash,created) " +
+                    "values(:key, :hash, :created)",
+                Map.of("key", idempotencyKey, "hash", payloadHash, "created", System.currentTimeMillis()));
+        } catch (DuplicateKeyException e) {
+            List<Long> stored = ingestJdbcTemplate.queryForList("select payload_hash from ENTRY_KEY " +
+                "where idempotency_key = :key", Map.of("key", idempotencyKey), Long.class);
+            // expired in between, the key is free again
+            return stored.isEmpty() ? addEntry(entry, idempotencyKey, payloadHash) : OptionalLong.of(stored.get(0));
+        }
+        addEntry(entry);
+        return OptionalLong.empty();
+    }
+
+    @Override
+    public long expireEntryKeys(Instant createdBefore) {
+        return updaterJdbcTemplate.update("delete from ENTRY_KEY where created < :before",
+            Map.of("before", createdBefore.toEpochMilli()));
     }
 
+    @Override
     @Transactional
     public void clear() {
-        jdbcTemplate.update(String.format(CLEAR, WALLET), Collections.emptyMap());
-        jdbcTemplate.update(String.format(CLEAR, BALANCE), Collections.emptyMap());
-        jdbcTemplate.update(String.format(CLEAR, BALANCE_QUEUE), Collections.emptyMap());
+        // tables stay, dropping them would wait for readers of every partition
+        partitions.refresh();
+        for (YearMonth month : partitions.getMonths()) {
+            ingestJdbcTemplate.update(String.format(CLEAR, walletTable(month)), Collections.emptyMap());
+            ingestJdbcTemplate.update(String.format(CLEAR, balanceTable(month)), Collections.emptyMap());
+        }
+        ingestJdbcTemplate.update(String.format(CLEAR, BALANCE_QUEUE), Collections.emptyMap());
+        ingestJdbcTemplate.update(String.format(CLEAR, ENTRY_KEY), Collections.emptyMap());
+        nodeChanges.cleared(ingestJdbcTemplate);
+        changeNotifier.cleared();
     }
 
+    @Override
     public List<WalletEntry> getWalletSumInRangeByHour(Instant fromAtStart, Instant toAtStart) {
-        return jdbcTemplate.query("select " +
-                TS_AT_START_OF_HOUR + " as date_hour, SUM(bitcoins) as bitcoins from WALLET " +
+        return readJdbcTemplate.query("select " +
+                TS_AT_START_OF_HOUR + " as date_hour, SUM(bitcoins) as bitcoins from " +
+                walletIn(fromAtStart, toAtStart) + " w " +
                 "where ts >= :from and ts < :to " +
                 " group by " + TS_AT_START_OF_HOUR +
                 " order by date_hour",
@@ -48,57 +127,331 @@ public class H2WalletRepository {
                 "to", toAtStart.toEpochMilli()), ROW_MAPPER_WITH_DATE);
     }
 
+    /**
+     * Counted by the updater, an index scan of TS.
+     */
+    @Override
+    public NavigableMap<Instant, Long> getEntryCountsByHour(Instant fromAtStart, Instant toAtStart) {
+        NavigableMap<Instant, Long> res = new TreeMap<>();
+        updaterJdbcTemplate.query("select " +
+                TS_MILLIS_AT_START_OF_HOUR + " as h, COUNT(*) as entries from " +
+                walletIn(fromAtStart, toAtStart) + " w " +
+                "where ts >= :from and ts < :to " +
+                "group by h",
+            Map.of("from", fromAtStart.toEpochMilli(), "to", toAtStart.toEpochMilli()),
+            (RowCallbackHandler) rs -> res.put(Instant.ofEpochMilli(rs.getLong("h")), rs.getLong("entries")));
+        return res;
+    }
+
+    @Override
+    public Optional<WalletEntry> getWalletSumInRange(Instant fromAtStart, Instant toAtStart) {
+        return readJdbcTemplate.query("select SUM(bitcoins) as bitcoins from " +
+                walletIn(fromAtStart, toAtStart) + " w " +
+                "where ts >= :from and ts < :to " +
+                "group by 1",
+            Map.of("from", fromAtStart.toEpochMilli(), "to", toAtStart.toEpochMilli()), ROW_MAPPER_WITH_SUM)
+            .stream().findFirst();
+    }
+
+    @Override
     public Optional<WalletEntry> getWalletSumBeforeFrom(Instant fromAtStart) {
-        List<WalletEntry> ts = jdbcTemplate.query(
-            "select SUM(bitcoins) as bitcoins from WALLET " +
+        List<WalletEntry> ts = readJdbcTemplate.query(
+            "select SUM(bitcoins) as bitcoins from " + walletBefore(fromAtStart) + " w " +
                 "where ts < :ts " +
                 "group by 1",
             Map.of("ts", fromAtStart.toEpochMilli()), ROW_MAPPER_WITH_SUM);
         return ts.stream().findFirst();
     }
 
+    @Override
+    public List<WalletEntry> getWalletBalancesByHour(Instant fromAtStart, Instant toAtStart) {
+        return getWalletBalancesByHour(readJdbcTemplate, fromAtStart, toAtStart);
+    }
+
+    @Override
+    public List<WalletEntry> getWalletBalancesByHourToRecompute(Instant fromAtStart, Instant toAtStart) {
+        return getWalletBalancesByHour(updaterJdbcTemplate, fromAtStart, toAtStart);
+    }
+
+    private List<WalletEntry> getWalletBalancesByHour(NamedParameterJdbcTemplate jdbcTemplate,
+                                                      Instant fromAtStart, Instant toAtStart) {
+        // running total is computed by the window function, no per-hour accumulation on our side
+        String sumBeforeFrom = sumBeforeFrom(fromAtStart);
+        return jdbcTemplate.query("select CAST(:from AS BIGINT) as ts, " + sumBeforeFrom + " as bitcoins " +
+                "union all " +
+                "select h + 3600000 as ts, " + sumBeforeFrom +
+                " + SUM(SUM(bitcoins)) OVER (ORDER BY h) as bitcoins " +
+                "from (select " + TS_MILLIS_AT_START_OF_HOUR + " as h, bitcoins from " +
+                walletIn(fromAtStart, toAtStart) + " w " +
+                "where ts >= :from and ts < :to) t " +
+                "group by h " +
+                "order by ts",
+            Map.of("from", fromAtStart.toEpochMilli(),
+                "to", toAtStart.toEpochMilli()), ROW_MAPPER);
+    }
+
+    /**
+     * One statement per month of the dirty window, whatever the number of hours.
+     * The zero row for the first hour makes its balance materialized even if it has no entries.
+     */
+    @Override
+    @Transactional(H2JdbcConfig.UPDATER_TRANSACTION_MANAGER)
+    public List<WalletEntry> recomputeBalances(Instant fromAtStart, Instant toAtStart) {
+        long from = fromAtStart.toEpochMilli();
+        long to = toAtStart.toEpochMilli();
+        partitions.ensure(monthOf(from));
+        // summed up once, every next month opens with the closing balance of the previous one
+        BigDecimal opening = updaterJdbcTemplate.queryForObject("select " + sumBeforeFrom(fromAtStart),
+            Map.of("from", from), BigDecimal.class);
+        for (YearMonth month : partitions.getMonths(from, to)) {
+            long monthFrom = Math.max(from, monthStartMillis(month));
+            long monthTo = Math.min(to, monthStartMillis(month.plusMonths(1)));
+            Map<String, Object> params = Map.of("from", monthFrom, "to", monthTo, "opening", opening);
+            String firstHour = monthFrom == from ?
+                "union all select CAST(:from AS BIGINT), CAST(0 AS DECIMAL(15,8))" : "";
+            updaterJdbcTemplate.update("merge into " + balanceTable(month) + "(ts,bitcoins) key(ts) " +
+                    "select h + 3600000, CAST(:opening AS DECIMAL(15,8)) + SUM(SUM(bitcoins)) OVER (ORDER BY h) " +
+                    "from (select " + TS_MILLIS_AT_START_OF_HOUR + " as h, bitcoins from " + walletTable(month) +
+                    " where ts >= :from and ts < :to " +
+                    firstHour + ") t " +
+                    "group by h",
+                params);
+            // the latest balance just merged, a month without entries in the range keeps the opening one
+            opening = updaterJdbcTemplate.query("select bitcoins from " + balanceTable(month) + " " +
+                    "where ts > :from and ts <= :to " +
+                    "order by ts desc " +
+                    "limit 1",
+                params, (rs, rowNum) -> rs.getBigDecimal("bitcoins"))
+                .stream().findFirst().orElse(opening);
+        }
+        // balances exist only at ends of hours with entries, so everything in the window was just merged
+        List<WalletEntry> merged = updaterJdbcTemplate.query("select ts,bitcoins from " +
+                balanceIn(fromAtStart, toAtStart) + " b " +
+                "where ts > :from and ts <= :to " +
+                "order by ts",
+            Map.of("from", from, "to", to), ROW_MAPPER);
+        nodeChanges.balancesMerged(updaterJdbcTemplate, merged);
+        changeNotifier.balancesMerged(merged);
+        return merged;
+    }
+
+    @Override
     public List<WalletEntry> getBalancesWithinRange(Instant fromExclusive, Instant toInclusive) {
-        return jdbcTemplate.query("select ts,bitcoins from BALANCE " +
-                "where (ts > :from and ts < :to) or ts = :to",
+        // ts = :to is there even if the range is empty
+        long from = Math.min(fromExclusive.toEpochMilli(), toInclusive.toEpochMilli() - 1);
+        return readJdbcTemplate.query("select ts,bitcoins from " +
+                H2Partitions.balance(partitions.getMonths(from, toInclusive.toEpochMilli())) + " b " +
+                "where (ts > :from and ts < :to) or ts = :to " +
+                "order by ts",
             Map.of("from", fromExclusive.toEpochMilli(),
                 "to", toInclusive.toEpochMilli()), ROW_MAPPER);
     }
 
+    @Override
     public Optional<WalletEntry> getBalanceBeforeRange(Instant from) {
-        return jdbcTemplate.query("select ts,bitcoins from BALANCE " +
-                "where (ts <= :from) " +
-                "order by ts desc " +
-                "limit 1",
-            Map.of("from", from.toEpochMilli()), ROW_MAPPER)
-            .stream().findFirst();
+        // latest partitions first, usually the first one has it
+        for (YearMonth month : partitions.getMonthsBefore(from.toEpochMilli()).descendingSet()) {
+            Optional<WalletEntry> balance = readJdbcTemplate.query("select ts,bitcoins from " +
+                    balanceTable(month) + " " +
+                    "where (ts <= :from) " +
+                    "order by ts desc " +
+                    "limit 1",
+                Map.of("from", from.toEpochMilli()), ROW_MAPPER)
+                .stream().findFirst();
+            if (balance.isPresent()) {
+                return balance;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Floor seek of the latest materialized balance plus entries after it, so history is not scanned.
+     * A materialized balance is exact unless an entry before it still waits in the queue,
+     * so the seek goes no later than the earliest queued ts.
+     * The queue is read first: whatever the updater commits meanwhile only makes balances fresher.
+     */
+    @Override
+    public WalletEntry getWalletBalanceAt(Instant hourAtStart) {
+        long at = hourAtStart.toEpochMilli();
+        Long waiting = readJdbcTemplate.queryForObject("select LEAST(CAST(:at AS BIGINT), " +
+                "(select COALESCE(MIN(ts), :at) from BALANCE_UPDATE_QUEUE))",
+            Map.of("at", at), Long.class);
+        Optional<WalletEntry> exact = getBalanceBeforeRange(Instant.ofEpochMilli(waiting == null ? at : waiting));
+        String wallet = exact.isPresent() ? walletIn(exact.get().getDatetime(), hourAtStart) :
+            walletBefore(hourAtStart);
+        BigDecimal sinceExact = readJdbcTemplate.queryForObject("select COALESCE(SUM(bitcoins), 0) from " +
+                wallet + " w where ts >= :from and ts < :at",
+            Map.of("from", exact.map(balance -> balance.getDatetime().toEpochMilli()).orElse(Long.MIN_VALUE),
+                "at", at), BigDecimal.class);
+        BigDecimal opening = exact.map(WalletEntry::getAmount).orElse(BigDecimal.ZERO);
+        return new WalletEntry(hourAtStart, opening.add(sinceExact == null ? BigDecimal.ZERO : sinceExact)
+            .setScale(8, RoundingMode.HALF_UP));
     }
 
     /**
      * Should happen inside the transaction, otherwise we can lose some updates.
      */
-    @Transactional
+    @Override
+    @Transactional(H2JdbcConfig.UPDATER_TRANSACTION_MANAGER)
     public Optional<WalletEntry> getFirstEventAndClearQueue() {
-        Optional<WalletEntry> first = jdbcTemplate.query("select ts,bitcoins from BALANCE_UPDATE_QUEUE " +
+        Optional<WalletEntry> first = updaterJdbcTemplate.query("select ts,bitcoins from BALANCE_UPDATE_QUEUE " +
                 "order by ts " +
                 "limit 1",
             Collections.emptyMap(), ROW_MAPPER).stream().findFirst();
-        jdbcTemplate.update(String.format(CLEAR, BALANCE_QUEUE), Collections.emptyMap());
+        updaterJdbcTemplate.update(String.format(CLEAR, BALANCE_QUEUE), Collections.emptyMap());
         return first;
     }
 
-    @Transactional
+    @Override
+    @Transactional(H2JdbcConfig.UPDATER_TRANSACTION_MANAGER)
     public void mergeIntoBalances(List<WalletEntry> balancesToUpdate) {
         for (WalletEntry entry : balancesToUpdate) {
-            jdbcTemplate.update("merge into BALANCE(ts,bitcoins) values(:ts,:bitcoins)", entryToMap(entry));
+            // balance at the end of an hour lives in the partition of the hour
+            YearMonth month = monthOf(entry.getDatetime().toEpochMilli() - 1);
+            partitions.ensure(month);
+            updaterJdbcTemplate.update("merge into " + balanceTable(month) + "(ts,bitcoins) values(:ts,:bitcoins)",
+                entryToMap(entry));
         }
+        nodeChanges.balancesMerged(updaterJdbcTemplate, balancesToUpdate);
+        changeNotifier.balancesMerged(balancesToUpdate);
+    }
+
+    @Override
+    public Optional<WalletEntry> getWalletTotal() {
+        return getWalletTotal(readJdbcTemplate);
     }
 
+    /**
+     * Entries are notified one by one, merges with balances of their range as they are now,
+     * and a clear or a missed change of other nodes is a resync.
+     */
+    @Override
+    public void pollRemoteChanges() {
+        if (!nodeChanges.isEnabled()) {
+            return;
+        }
+        Optional<List<H2NodeChanges.Change>> changes = nodeChanges.poll();
+        if (changes.isEmpty()) {
+            partitions.refresh();
+            changeNotifier.resynced(nodeChanges.resync(() -> getWalletTotal(updaterJdbcTemplate)));
+            return;
+        }
+        for (H2NodeChanges.Change change : changes.get()) {
+            if (change.getKind() == H2NodeChanges.ENTRY) {
+                partitions.refreshIfUnknown(monthOf(change.getFromTs()));
+                changeNotifier.entryAdded(new WalletEntry(Instant.ofEpochMilli(change.getFromTs()),
+                    change.getBitcoins()));
+            } else if (change.getKind() == H2NodeChanges.MERGED) {
+                changeNotifier.balancesMerged(getBalancesWithinRange(Instant.ofEpochMilli(change.getFromTs() - 1),
+                    Instant.ofEpochMilli(change.getToTs())));
+            } else {
+                partitions.refresh();
+                changeNotifier.resynced(Optional.empty());
+            }
+        }
+    }
+
+    @Override
     public Optional<Instant> getLastBalanceTs() {
-        return jdbcTemplate.query("select MAX(ts) ts_max from WALLET " +
-            "group by 1", Collections.emptyMap(), (rs, rowNum) -> Instant.ofEpochMilli(rs.getLong("ts_max")))
+        for (YearMonth month : partitions.getMonths().descendingSet()) {
+            Long last = updaterJdbcTemplate.queryForObject("select MAX(ts) from " + walletTable(month),
+                Collections.emptyMap(), Long.class);
+            if (last != null) {
+                return Optional.of(Instant.ofEpochMilli(last));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Instant> getFirstEntryTs(Instant from) {
+        for (YearMonth month : partitions.getMonths().tailSet(monthOf(from.toEpochMilli()), true)) {
+            Optional<Instant> first = readJdbcTemplate.query("select ts from " + walletTable(month) + " " +
+                    "where ts >= :from " +
+                    "order by ts " +
+                    "limit 1",
+                Map.of("from", from.toEpochMilli()), (rs, rowNum) -> Instant.ofEpochMilli(rs.getLong("ts")))
+                .stream().findFirst();
+            if (first.isPresent()) {
+                return first;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public long getEntryCount() {
+        long count = 0;
+        for (YearMonth month : partitions.getMonths()) {
+            Long rows = readJdbcTemplate.queryForObject("select COUNT(*) from " + walletTable(month),
+                Collections.emptyMap(), Long.class);
+            count += rows == null ? 0 : rows;
+        }
+        return count;
+    }
+
+    /**
+     * Entries are not queued: hourly sums and so balances don't change.
+     * Serializable, so the delete removes exactly the rows which were summed up,
+     * entries committed meanwhile by ingest are left as they are.
+     */
+    @Override
+    @Transactional(transactionManager = H2JdbcConfig.UPDATER_TRANSACTION_MANAGER,
+        isolation = Isolation.SERIALIZABLE)
+    public long rollUpEntries(Instant fromAtStart, Instant toAtStart) {
+        long reclaimed = 0;
+        for (YearMonth month : partitions.getMonths(fromAtStart.toEpochMilli(), toAtStart.toEpochMilli())) {
+            reclaimed += rollUpEntries(walletTable(month), Map.of(
+                "from", Math.max(fromAtStart.toEpochMilli(), monthStartMillis(month)),
+                "to", Math.min(toAtStart.toEpochMilli(), monthStartMillis(month.plusMonths(1)))));
+        }
+        return reclaimed;
+    }
+
+    private long rollUpEntries(String wallet, Map<String, Object> range) {
+        Long hoursToCompact = updaterJdbcTemplate.queryForObject("select COUNT(*) from (" +
+                "select " + TS_MILLIS_AT_START_OF_HOUR + " as h from " + wallet + " " +
+                "where ts >= :from and ts < :to " +
+                "group by h " +
+                "having COUNT(*) > 1) t",
+            range, Long.class);
+        if (hoursToCompact == null || hoursToCompact == 0) {
+            return 0;
+        }
+        List<WalletEntry> hourSums = updaterJdbcTemplate.query("select " +
+                TS_MILLIS_AT_START_OF_HOUR + " as ts, SUM(bitcoins) as bitcoins from " + wallet + " " +
+                "where ts >= :from and ts < :to " +
+                "group by " + TS_MILLIS_AT_START_OF_HOUR,
+            range, ROW_MAPPER);
+        int deleted = updaterJdbcTemplate.update("delete from " + wallet + " where ts >= :from and ts < :to", range);
+        updaterJdbcTemplate.batchUpdate(String.format(INSERT, wallet),
+            hourSums.stream().map(this::entryToMap).toArray(Map[]::new));
+        return deleted - hourSums.size();
+    }
+
+    private Optional<WalletEntry> getWalletTotal(NamedParameterJdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.query("select MAX(ts) ts, SUM(bitcoins) bitcoins from " +
+            H2Partitions.wallet(partitions.getMonths()) + " w " +
+            "group by 1", Collections.emptyMap(), ROW_MAPPER)
             .stream().findFirst();
     }
 
+    private String walletIn(Instant fromAtStart, Instant toAtStart) {
+        return H2Partitions.wallet(partitions.getMonths(fromAtStart.toEpochMilli(), toAtStart.toEpochMilli()));
+    }
+
+    private String walletBefore(Instant fromAtStart) {
+        return H2Partitions.wallet(partitions.getMonthsBefore(fromAtStart.toEpochMilli()));
+    }
+
+    private String balanceIn(Instant fromExclusive, Instant toInclusive) {
+        return H2Partitions.balance(partitions.getMonths(fromExclusive.toEpochMilli(), toInclusive.toEpochMilli()));
+    }
+
+    private String sumBeforeFrom(Instant fromAtStart) {
+        return "(select COALESCE(SUM(bitcoins), 0) from " + walletBefore(fromAtStart) + " w where ts < :from)";
+    }
 
     private Map<String, Object> entryToMap(WalletEntry entry) {
         return Map.of("ts", entry.getDatetime().toEpochMilli(),
@@ -0,0 +1,361 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.fromSatoshis;
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.toSatoshis;
+
+/**
+ * Keeps only what balances are made of: per-hour sums and counts of entries and materialized balances,
+ * as satoshis in chunks of hourly slots. Entries themselves are not kept.
+ * Appends and merges are atomic updates of slots, so readers never wait for writers.
+ * Range bounds of entry queries should be at the start of an hour, as {@link WalletRepository} callers pass them.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class InMemoryWalletRepository implements WalletRepository {
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+    private static final int CHUNK_HOURS = 1024;
+    private static final long NO_BALANCE = Long.MIN_VALUE;
+
+    ConcurrentSkipListMap<Long, Chunk> chunks = new ConcurrentSkipListMap<>();
+    AtomicReference<WalletEntry> firstQueued = new AtomicReference<>();
+    AtomicLong lastEntryMillis = new AtomicLong(Long.MIN_VALUE);
+    WalletChangeNotifier changeNotifier = new WalletChangeNotifier();
+    Map<String, EntryKey> entryKeys = new ConcurrentHashMap<>();
+
+    @Override
+    public void addChangeListener(WalletChangeListener listener) {
+        changeNotifier.addListener(listener);
+    }
+
+    @Override
+    public void addEntry(WalletEntry entry) {
+        long millis = entry.getDatetime().toEpochMilli();
+        long satoshis = toSatoshis(entry.getAmount());
+        long hour = Math.floorDiv(millis, HOUR_MILLIS);
+        Chunk chunk = chunk(hour);
+        int slot = slot(hour);
+        chunk.sums.addAndGet(slot, satoshis);
+        chunk.counts.incrementAndGet(slot);
+        chunk.total.addAndGet(satoshis);
+        lastEntryMillis.accumulateAndGet(millis, Math::max);
+        // queued only when the entry is visible, so the updater can't miss it
+        firstQueued.accumulateAndGet(entry, (current, added) ->
+            current == null || added.getDatetime().isBefore(current.getDatetime()) ? added : current);
+        changeNotifier.entryAdded(entry);
+    }
+
+    @Override
+    public OptionalLong addEntry(WalletEntry entry, String idempotencyKey, long payloadHash) {
+        EntryKey stored = entryKeys.putIfAbsent(idempotencyKey, new EntryKey(payloadHash, System.currentTimeMillis()));
+        if (stored != null) {
+            return OptionalLong.of(stored.getPayloadHash());
+        }
+        addEntry(entry);
+        return OptionalLong.empty();
+    }
+
+    @Override
+    public long expireEntryKeys(Instant createdBefore) {
+        long expired = 0;
+        for (Map.Entry<String, EntryKey> key : entryKeys.entrySet()) {
+            if (key.getValue().getCreatedMillis() < createdBefore.toEpochMilli()
+                && entryKeys.remove(key.getKey(), key.getValue())) {
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public void clear() {
+        entryKeys.clear();
+        chunks.clear();
+        firstQueued.set(null);
+        lastEntryMillis.set(Long.MIN_VALUE);
+        changeNotifier.cleared();
+    }
+
+    @Override
+    public List<WalletEntry> getWalletSumInRangeByHour(Instant fromAtStart, Instant toAtStart) {
+        long fromHour = Math.floorDiv(fromAtStart.toEpochMilli(), HOUR_MILLIS);
+        long toHour = Math.floorDiv(toAtStart.toEpochMilli(), HOUR_MILLIS);
+        List<WalletEntry> res = new ArrayList<>();
+        if (fromHour >= toHour) {
+            return res;
+        }
+        for (Map.Entry<Long, Chunk> entry : chunksOf(fromHour, toHour - 1).entrySet()) {
+            long chunkStart = entry.getKey() * CHUNK_HOURS;
+            Chunk chunk = entry.getValue();
+            int first = (int) Math.max(0, fromHour - chunkStart);
+            int last = (int) Math.min(CHUNK_HOURS - 1, toHour - 1 - chunkStart);
+            for (int slot = first; slot <= last; slot++) {
+                if (chunk.counts.get(slot) > 0) {
+                    res.add(new WalletEntry(Instant.ofEpochMilli((chunkStart + slot) * HOUR_MILLIS),
+                        fromSatoshis(chunk.sums.get(slot))));
+                }
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public Optional<WalletEntry> getWalletSumBeforeFrom(Instant fromAtStart) {
+        long fromHour = Math.floorDiv(fromAtStart.toEpochMilli(), HOUR_MILLIS);
+        long fromChunk = Math.floorDiv(fromHour, CHUNK_HOURS);
+        long satoshis = 0;
+        for (Chunk chunk : chunks.headMap(fromChunk).values()) {
+            satoshis += chunk.total.get();
+        }
+        Chunk chunk = chunks.get(fromChunk);
+        if (chunk != null) {
+            for (int slot = 0; slot < slot(fromHour); slot++) {
+                satoshis += chunk.sums.get(slot);
+            }
+        }
+        return Optional.of(new WalletEntry(null, fromSatoshis(satoshis)));
+    }
+
+    @Override
+    public List<WalletEntry> getBalancesWithinRange(Instant fromExclusive, Instant toInclusive) {
+        long fromHour = Math.floorDiv(fromExclusive.toEpochMilli(), HOUR_MILLIS) + 1;
+        long toHour = Math.floorDiv(toInclusive.toEpochMilli(), HOUR_MILLIS);
+        List<WalletEntry> res = new ArrayList<>();
+        if (fromHour > toHour) {
+            return res;
+        }
+        for (Map.Entry<Long, Chunk> entry : chunksOf(fromHour, toHour).entrySet()) {
+            long chunkStart = entry.getKey() * CHUNK_HOURS;
+            Chunk chunk = entry.getValue();
+            if (chunk.balanceCount.get() == 0) {
+                continue;
+            }
+            int first = (int) Math.max(0, fromHour - chunkStart);
+            int last = (int) Math.min(CHUNK_HOURS - 1, toHour - chunkStart);
+            for (int slot = first; slot <= last; slot++) {
+                long balance = chunk.balances.get(slot);
+                if (balance != NO_BALANCE) {
+                    res.add(new WalletEntry(Instant.ofEpochMilli((chunkStart + slot) * HOUR_MILLIS),
+                        fromSatoshis(balance)));
+                }
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public Optional<WalletEntry> getBalanceBeforeRange(Instant from) {
+        long lastHour = Math.floorDiv(from.toEpochMilli(), HOUR_MILLIS);
+        long lastChunk = Math.floorDiv(lastHour, CHUNK_HOURS);
+        for (Map.Entry<Long, Chunk> entry : chunks.headMap(lastChunk, true).descendingMap().entrySet()) {
+            long chunkStart = entry.getKey() * CHUNK_HOURS;
+            Chunk chunk = entry.getValue();
+            if (chunk.balanceCount.get() == 0) {
+                continue;
+            }
+            int last = entry.getKey() == lastChunk ? slot(lastHour) : CHUNK_HOURS - 1;
+            for (int slot = last; slot >= 0; slot--) {
+                long balance = chunk.balances.get(slot);
+                if (balance != NO_BALANCE) {
+                    return Optional.of(new WalletEntry(Instant.ofEpochMilli((chunkStart + slot) * HOUR_MILLIS),
+                        fromSatoshis(balance)));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<WalletEntry> getFirstEventAndClearQueue() {
+        return Optional.ofNullable(firstQueued.getAndSet(null));
+    }
+
+    @Override
+    public void mergeIntoBalances(List<WalletEntry> balancesToUpdate) {
+        for (WalletEntry balance : balancesToUpdate) {
+            long hour = Math.floorDiv(balance.getDatetime().toEpochMilli(), HOUR_MILLIS);
+            Chunk chunk = chunk(hour);
+            if (chunk.balances.getAndSet(slot(hour), toSatoshis(balance.getAmount())) == NO_BALANCE) {
+                chunk.balanceCount.incrementAndGet();
+            }
+        }
+        changeNotifier.balancesMerged(balancesToUpdate);
+    }
+
+    @Override
+    public Optional<WalletEntry> getWalletTotal() {
+        long last = lastEntryMillis.get();
+        if (last == Long.MIN_VALUE) {
+            return Optional.empty();
+        }
+        long satoshis = 0;
+        for (Chunk chunk : chunks.values()) {
+            satoshis += chunk.total.get();
+        }
+        return Optional.of(new WalletEntry(Instant.ofEpochMilli(last), fromSatoshis(satoshis)));
+    }
+
+    @Override
+    public Optional<Instant> getLastBalanceTs() {
+        long last = lastEntryMillis.get();
+        return last == Long.MIN_VALUE ? Optional.empty() : Optional.of(Instant.ofEpochMilli(last));
+    }
+
+    /**
+     * Copies hourly sums and counts, should be called when no entries are being added.
+     */
+    Snapshot snapshot() {
+        TreeMap<Long, long[][]> copy = new TreeMap<>();
+        for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+            Chunk chunk = entry.getValue();
+            long[] sums = new long[CHUNK_HOURS];
+            long[] counts = new long[CHUNK_HOURS];
+            boolean hasEntries = false;
+            for (int slot = 0; slot < CHUNK_HOURS; slot++) {
+                sums[slot] = chunk.sums.get(slot);
+                counts[slot] = chunk.counts.get(slot);
+                hasEntries |= counts[slot] > 0;
+            }
+            if (hasEntries) {
+                copy.put(entry.getKey(), new long[][]{sums, counts});
+            }
+        }
+        return new Snapshot(lastEntryMillis.get(), copy);
+    }
+
+    /**
+     * Replaces all state with the snapshot. Balances are rebuilt from sums as the updater would merge them,
+     * at the end of every hour with entries, so nothing is queued. Listeners are not notified.
+     */
+    void restore(Snapshot snapshot) {
+        chunks.clear();
+        firstQueued.set(null);
+        long balance = 0;
+        for (Map.Entry<Long, long[][]> entry : snapshot.chunks.entrySet()) {
+            long chunkStart = entry.getKey() * CHUNK_HOURS;
+            long[] sums = entry.getValue()[0];
+            long[] counts = entry.getValue()[1];
+            Chunk chunk = chunk(chunkStart);
+            for (int slot = 0; slot < CHUNK_HOURS; slot++) {
+                if (counts[slot] == 0) {
+                    continue;
+                }
+                chunk.sums.set(slot, sums[slot]);
+                chunk.counts.set(slot, counts[slot]);
+                chunk.total.addAndGet(sums[slot]);
+                balance += sums[slot];
+                long nextHour = chunkStart + slot + 1;
+                Chunk balanceChunk = chunk(nextHour);
+                if (balanceChunk.balances.getAndSet(slot(nextHour), balance) == NO_BALANCE) {
+                    balanceChunk.balanceCount.incrementAndGet();
+                }
+            }
+        }
+        lastEntryMillis.set(snapshot.lastEntryMillis);
+    }
+
+    private Chunk chunk(long hour) {
+        return chunks.computeIfAbsent(Math.floorDiv(hour, CHUNK_HOURS), index -> new Chunk());
+    }
+
+    private ConcurrentNavigableMap<Long, Chunk> chunksOf(long fromHour, long toHourInclusive) {
+        return chunks.subMap(Math.floorDiv(fromHour, CHUNK_HOURS), true,
+            Math.floorDiv(toHourInclusive, CHUNK_HOURS), true);
+    }
+
+    private static int slot(long hour) {
+        return (int) Math.floorMod(hour, (long) CHUNK_HOURS);
+    }
+
+    static final class Snapshot {
+        private final long lastEntryMillis;
+        // chunk index -> {sums, counts}
+        private final TreeMap<Long, long[][]> chunks;
+
+        private Snapshot(long lastEntryMillis, TreeMap<Long, long[][]> chunks) {
+            this.lastEntryMillis = lastEntryMillis;
+            this.chunks = chunks;
+        }
+
+        /**
+         * Only hours with entries are written, as (slot, sum, count).
+         */
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(lastEntryMillis);
+            out.writeInt(chunks.size());
+            for (Map.Entry<Long, long[][]> entry : chunks.entrySet()) {
+                long[] sums = entry.getValue()[0];
+                long[] counts = entry.getValue()[1];
+                int hours = 0;
+                for (long count : counts) {
+                    hours += count > 0 ? 1 : 0;
+                }
+                out.writeLong(entry.getKey());
+                out.writeShort(hours);
+                for (int slot = 0; slot < CHUNK_HOURS; slot++) {
+                    if (counts[slot] > 0) {
+                        out.writeShort(slot);
+                        out.writeLong(sums[slot]);
+                        out.writeLong(counts[slot]);
+                    }
+                }
+            }
+        }
+
+        static Snapshot readFrom(DataInput in) throws IOException {
+            long lastEntryMillis = in.readLong();
+            int chunkCount = in.readInt();
+            TreeMap<Long, long[][]> chunks = new TreeMap<>();
+            for (int i = 0; i < chunkCount; i++) {
+                long index = in.readLong();
+                long[] sums = new long[CHUNK_HOURS];
+                long[] counts = new long[CHUNK_HOURS];
+                int hours = in.readUnsignedShort();
+                for (int j = 0; j < hours; j++) {
+                    int slot = in.readUnsignedShort();
+                    if (slot >= CHUNK_HOURS) {
+                        throw new IOException("Wrong hour slot in snapshot: " + slot);
+                    }
+                    sums[slot] = in.readLong();
+                    counts[slot] = in.readLong();
+                }
+                chunks.put(index, new long[][]{sums, counts});
+            }
+            return new Snapshot(lastEntryMillis, chunks);
+        }
+    }
+
+    private static class Chunk {
+        final AtomicLongArray sums = new AtomicLongArray(CHUNK_HOURS);
+        final AtomicLongArray counts = new AtomicLongArray(CHUNK_HOURS);
+        final AtomicLongArray balances = new AtomicLongArray(CHUNK_HOURS);
+        final AtomicLong total = new AtomicLong();
+        final AtomicInteger balanceCount = new AtomicInteger();
+
+        Chunk() {
+            for (int i = 0; i < CHUNK_HOURS; i++) {
+                balances.set(i, NO_BALANCE);
+            }
+        }
+    }
+}
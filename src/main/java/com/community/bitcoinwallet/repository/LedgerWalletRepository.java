@@ -0,0 +1,295 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.fromSatoshis;
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.toSatoshis;
+
+/**
+ * Entries are made durable by appending them to {@link MappedLedger}, queries are served from in-memory hourly buckets.
+ * On start the ledger is replayed into buckets, replayed entries are queued, so balances are materialized again.
+ * <p>
+ * With a snapshot file, hourly sums are periodically written to it together with the number of ledger records
+ * they include. Start then takes the snapshot and replays only the ledger records after it, so it costs
+ * hours of history plus the tail instead of all entries. The copy is taken while appends wait
+ * for a moment, the file is written by a background thread. Ledger is forced before the copy, so a snapshot
+ * never includes records which a crash can take away from the ledger.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class LedgerWalletRepository implements WalletRepository, Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x57534e50;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    MappedLedger ledger;
+    InMemoryWalletRepository buckets = new InMemoryWalletRepository();
+    Path snapshotFile;
+    // appends hold it shared, snapshots exclusively, so a snapshot never misses an appended record
+    ReadWriteLock appendLock = new ReentrantReadWriteLock();
+    Map<String, EntryKey> entryKeys = new ConcurrentHashMap<>();
+    ScheduledExecutorService snapshotScheduler;
+    @NonFinal
+    long snapshotWatermark = -1;
+
+    public LedgerWalletRepository(MappedLedger ledger) {
+        this(ledger, null, 0);
+    }
+
+    /**
+     * @param snapshotFile         null to replay the whole ledger on start
+     * @param snapshotPeriodMillis 0 to write snapshot only on close
+     */
+    public LedgerWalletRepository(MappedLedger ledger, Path snapshotFile, long snapshotPeriodMillis) {
+        this.ledger = ledger;
+        this.snapshotFile = snapshotFile;
+        long watermark = restoreSnapshot();
+        ledger.scanFrom(watermark, (millis, satoshis) ->
+            buckets.addEntry(new WalletEntry(Instant.ofEpochMilli(millis), fromSatoshis(satoshis))));
+        log.info("Replayed {} ledger entries after {} in snapshot", ledger.size() - watermark, watermark);
+        if (snapshotFile != null && snapshotPeriodMillis > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ledger-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotPeriodMillis,
+                snapshotPeriodMillis, TimeUnit.MILLISECONDS);
+        } else {
+            snapshotScheduler = null;
+        }
+    }
+
+    @Override
+    public void addChangeListener(WalletChangeListener listener) {
+        buckets.addChangeListener(listener);
+    }
+
+    @Override
+    public void addEntry(WalletEntry entry) {
+        appendLock.readLock().lock();
+        try {
+            ledger.append(entry.getDatetime().toEpochMilli(), toSatoshis(entry.getAmount()));
+            buckets.addEntry(entry);
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Keys are not a part of ledger records, so they are known only until restart.
+     */
+    @Override
+    public OptionalLong addEntry(WalletEntry entry, String idempotencyKey, long payloadHash) {
+        EntryKey stored = entryKeys.putIfAbsent(idempotencyKey, new EntryKey(payloadHash, System.currentTimeMillis()));
+        if (stored != null) {
+            return OptionalLong.of(stored.getPayloadHash());
+        }
+        try {
+            addEntry(entry);
+        } catch (RuntimeException e) {
+            // not stored, so a retry should store it
+            entryKeys.remove(idempotencyKey);
+            throw e;
+        }
+        return OptionalLong.empty();
+    }
+
+    @Override
+    public long expireEntryKeys(Instant createdBefore) {
+        long expired = 0;
+        for (Map.Entry<String, EntryKey> key : entryKeys.entrySet()) {
+            if (key.getValue().getCreatedMillis() < createdBefore.toEpochMilli()
+                && entryKeys.remove(key.getKey(), key.getValue())) {
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public synchronized void clear() {
+        appendLock.writeLock().lock();
+        try {
+            ledger.clear();
+            buckets.clear();
+            entryKeys.clear();
+            if (snapshotFile != null) {
+                Files.deleteIfExists(snapshotFile);
+            }
+            snapshotWatermark = -1;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't delete snapshot " + snapshotFile, e);
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes hourly sums with the number of ledger records they include, unless nothing was appended since
+     * the previous snapshot. File is replaced atomically.
+     */
+    public synchronized void snapshot() throws IOException {
+        if (snapshotFile == null) {
+            return;
+        }
+        InMemoryWalletRepository.Snapshot snapshot;
+        long watermark;
+        appendLock.writeLock().lock();
+        try {
+            watermark = ledger.size();
+            if (watermark == snapshotWatermark) {
+                return;
+            }
+            // with periodic fsync the tail may be only in memory yet
+            ledger.force();
+            snapshot = buckets.snapshot();
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(watermark);
+            snapshot.writeTo(out);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotWatermark = watermark;
+        log.info("Written snapshot of {} ledger entries", watermark);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.error("Can't write snapshot {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * @return number of ledger records included in restored buckets, 0 if there is no usable snapshot
+     */
+    private long restoreSnapshot() {
+        if (snapshotFile == null) {
+            return 0;
+        }
+        try (InputStream file = Files.newInputStream(snapshotFile)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring snapshot {} of unknown format", snapshotFile);
+                return 0;
+            }
+            long watermark = in.readLong();
+            InMemoryWalletRepository.Snapshot snapshot = InMemoryWalletRepository.Snapshot.readFrom(in);
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum) {
+                log.warn("Ignoring corrupted snapshot {}", snapshotFile);
+                return 0;
+            }
+            if (watermark > ledger.size()) {
+                // belongs to another ledger, left in place it would be taken again once the ledger grows
+                log.warn("Deleting snapshot {} of {} entries, ledger has only {}", snapshotFile, watermark,
+                    ledger.size());
+                in.close();
+                Files.delete(snapshotFile);
+                return 0;
+            }
+            buckets.restore(snapshot);
+            snapshotWatermark = watermark;
+            return watermark;
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable snapshot {}", snapshotFile, e);
+            return 0;
+        }
+    }
+
+    @Override
+    public List<WalletEntry> getWalletSumInRangeByHour(Instant fromAtStart, Instant toAtStart) {
+        return buckets.getWalletSumInRangeByHour(fromAtStart, toAtStart);
+    }
+
+    @Override
+    public Optional<WalletEntry> getWalletSumBeforeFrom(Instant fromAtStart) {
+        return buckets.getWalletSumBeforeFrom(fromAtStart);
+    }
+
+    @Override
+    public List<WalletEntry> getBalancesWithinRange(Instant fromExclusive, Instant toInclusive) {
+        return buckets.getBalancesWithinRange(fromExclusive, toInclusive);
+    }
+
+    @Override
+    public Optional<WalletEntry> getBalanceBeforeRange(Instant from) {
+        return buckets.getBalanceBeforeRange(from);
+    }
+
+    @Override
+    public Optional<WalletEntry> getFirstEventAndClearQueue() {
+        return buckets.getFirstEventAndClearQueue();
+    }
+
+    @Override
+    public void mergeIntoBalances(List<WalletEntry> balancesToUpdate) {
+        buckets.mergeIntoBalances(balancesToUpdate);
+    }
+
+    @Override
+    public Optional<WalletEntry> getWalletTotal() {
+        return buckets.getWalletTotal();
+    }
+
+    @Override
+    public Optional<Instant> getLastBalanceTs() {
+        return buckets.getLastBalanceTs();
+    }
+
+    @Override
+    public void close() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        // next start won't have to replay anything
+        snapshotQuietly();
+        ledger.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.BalanceChange;
+import com.community.bitcoinwallet.model.WalletEntry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * For engines which are not shared between nodes: the feed lives in memory and starts over on restart,
+ * consumers notice it by a sequence number which is ahead of the feed.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class LocalChangeFeedStore implements ChangeFeedStore {
+
+    int maxRecords;
+    Deque<BalanceChange> records = new ArrayDeque<>();
+    @NonFinal
+    long lastSequence;
+
+    public LocalChangeFeedStore(int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    @Override
+    public synchronized long append(Instant fromAtStart, Instant toAtStart, List<WalletEntry> balances) {
+        records.addLast(new BalanceChange(++lastSequence, fromAtStart, toAtStart, List.copyOf(balances)));
+        while (records.size() > maxRecords) {
+            records.removeFirst();
+        }
+        return lastSequence;
+    }
+
+    @Override
+    public synchronized List<BalanceChange> getChanges(long afterSequence, int limit) {
+        List<BalanceChange> res = new ArrayList<>();
+        for (BalanceChange record : records) {
+            if (res.size() == limit) {
+                break;
+            }
+            if (record.getSequence() > afterSequence) {
+                res.add(record);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public synchronized long getFirstSequence() {
+        return records.isEmpty() ? 0 : records.getFirst().getSequence();
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return records.isEmpty() ? 0 : lastSequence;
+    }
+
+    @Override
+    public synchronized void clear() {
+        records.clear();
+    }
+}
@@ -0,0 +1,96 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.RecomputeRange;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * For engines which are not shared between nodes: this node is always the leader.
+ * Ranges are claimed like {@link H2UpdaterCoordination} claims them, a claim stays until the range is completed,
+ * released or its ttl is over, so a failed recompute doesn't lose its range.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class LocalUpdaterCoordination implements UpdaterCoordination {
+
+    // by id, so the oldest range goes first
+    NavigableMap<Long, RecomputeRange> ranges = new TreeMap<>();
+    Map<Long, Long> claimedUntilMillis = new HashMap<>();
+    @NonFinal
+    long lastRangeId;
+
+    @Override
+    public OptionalLong acquireLease(String owner, Instant now, Duration ttl) {
+        return OptionalLong.of(1);
+    }
+
+    @Override
+    public void releaseLease(String owner) {
+    }
+
+    @Override
+    public boolean runFenced(String owner, long token, Instant now, Runnable work) {
+        work.run();
+        return true;
+    }
+
+    @Override
+    public synchronized void offerRanges(List<RecomputeRange> offered) {
+        // like OWNER is null of H2UpdaterCoordination: never claimed or released
+        List<RecomputeRange> pending = ranges.values().stream()
+            .filter(range -> !claimedUntilMillis.containsKey(range.getId()))
+            .collect(Collectors.toCollection(ArrayList::new));
+        for (RecomputeRange range : offered) {
+            for (RecomputeRange left : range.without(pending)) {
+                lastRangeId++;
+                RecomputeRange added = new RecomputeRange(lastRangeId, left.getFrom(), left.getTo());
+                ranges.put(lastRangeId, added);
+                pending.add(added);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Optional<RecomputeRange> claimRange(String owner, Instant now, Duration ttl) {
+        long nowMillis = now.toEpochMilli();
+        for (RecomputeRange range : ranges.values()) {
+            if (!isClaimed(range, nowMillis) && ranges.values().stream()
+                .noneMatch(other -> isClaimed(other, nowMillis) && overlap(range, other))) {
+                claimedUntilMillis.put(range.getId(), now.plus(ttl).toEpochMilli());
+                return Optional.of(range);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public synchronized void completeRange(RecomputeRange range) {
+        ranges.remove(range.getId());
+        claimedUntilMillis.remove(range.getId());
+    }
+
+    @Override
+    public synchronized void releaseRange(RecomputeRange range) {
+        claimedUntilMillis.remove(range.getId());
+    }
+
+    private boolean isClaimed(RecomputeRange range, long nowMillis) {
+        return claimedUntilMillis.getOrDefault(range.getId(), 0L) > nowMillis;
+    }
+
+    private static boolean overlap(RecomputeRange a, RecomputeRange b) {
+        return a.getFrom().isBefore(b.getTo()) && b.getFrom().isBefore(a.getTo());
+    }
+}
@@ -0,0 +1,413 @@
+package com.community.bitcoinwallet.repository;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only ledger of (epoch millis, satoshis, checksum) records, 24 bytes each, in preallocated memory-mapped
+ * segments. The checksum covers the record number too and is never zero, so the first record which doesn't
+ * match it ends the segment: on open the file is cut there, and whatever was flushed after it is gone for good.
+ * Every segment keeps a sparse index "hour -> first record", valid while its records come in time order.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class MappedLedger implements Closeable {
+    public static final int RECORD_BYTES = 24;
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    public enum FsyncPolicy {
+        /**
+         * Forced to disk before append returns. Appends which come in while a force is running
+         * are forced together by the next one (group commit).
+         */
+        BATCH,
+        /**
+         * Forced to disk by a background thread, a crash can lose the last period.
+         */
+        PERIODIC
+    }
+
+    Path dir;
+    int segmentRecords;
+    FsyncPolicy fsyncPolicy;
+    List<Segment> segments = new ArrayList<>();
+    ScheduledExecutorService fsyncScheduler;
+    @NonFinal
+    long appended;
+    @NonFinal
+    long forced;
+    @NonFinal
+    boolean forcing;
+
+    public MappedLedger(Path dir, int segmentRecords, FsyncPolicy fsyncPolicy, long fsyncPeriodMillis) {
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.fsyncPolicy = fsyncPolicy;
+        try {
+            Files.createDirectories(dir);
+            for (Path file : listSegmentFiles()) {
+                segments.add(Segment.open(file, segmentRecords));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open ledger in " + dir, e);
+        }
+        if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+            fsyncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ledger-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fsyncScheduler.scheduleAtFixedRate(this::force, fsyncPeriodMillis, fsyncPeriodMillis,
+                TimeUnit.MILLISECONDS);
+        } else {
+            fsyncScheduler = null;
+        }
+    }
+
+    public void append(long millis, long satoshis) {
+        long position;
+        synchronized (this) {
+            appendRecord(millis, satoshis);
+            position = ++appended;
+        }
+        if (fsyncPolicy == FsyncPolicy.BATCH) {
+            awaitForced(position);
+        }
+    }
+
+    /**
+     * Calls the consumer for every record with millis in [fromMillis, toMillisExclusive), in append order.
+     */
+    public synchronized void scan(long fromMillis, long toMillisExclusive, RecordConsumer consumer) {
+        for (Segment segment : segments) {
+            segment.scan(fromMillis, toMillisExclusive, consumer);
+        }
+    }
+
+    /**
+     * Calls the consumer for every record starting from the given record number, in append order.
+     */
+    public synchronized void scanFrom(long firstRecord, RecordConsumer consumer) {
+        for (Segment segment : segments) {
+            segment.scanFrom(Math.max(0, firstRecord - segment.firstRecord), consumer);
+        }
+    }
+
+    public synchronized long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        forced = appended;
+        notifyAll();
+    }
+
+    public synchronized void force() {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (fsyncScheduler != null) {
+            fsyncScheduler.shutdownNow();
+        }
+        for (Segment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+    }
+
+    private Segment appendRecord(long millis, long satoshis) {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.isFull()) {
+            segment = newSegment(segment == null ? 0 : segment.firstRecord + segmentRecords);
+        }
+        segment.append(millis, satoshis);
+        return segment;
+    }
+
+    /**
+     * Group commit: the first appender which finds no force running forces the tail segment for every record
+     * appended so far, outside the monitor, so appenders coming in meanwhile only write their records
+     * and wait for the next force together. Full segments are forced when the next one is started.
+     */
+    private void awaitForced(long position) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                long target;
+                Segment tail;
+                synchronized (this) {
+                    while (forcing && forced < position) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // the record is already appended, so it has to be durable before returning
+                            interrupted = true;
+                        }
+                    }
+                    if (forced >= position) {
+                        return;
+                    }
+                    forcing = true;
+                    target = appended;
+                    tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                }
+                boolean done = false;
+                try {
+                    if (tail != null) {
+                        tail.force();
+                    }
+                    done = true;
+                } finally {
+                    synchronized (this) {
+                        forcing = false;
+                        if (done) {
+                            forced = Math.max(forced, target);
+                        }
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Segment newSegment(long firstRecord) {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).force();
+        }
+        try {
+            Segment segment = Segment.open(dir.resolve(String.format("%020d%s", firstRecord, SEGMENT_SUFFIX)),
+                segmentRecords);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't create ledger segment in " + dir, e);
+        }
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            // names are zero-padded first record numbers, so name order is append order
+            return files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long millis, long satoshis);
+    }
+
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    private static class Segment {
+        private static final int RECOVERY_CHUNK_RECORDS = 4096;
+
+        Path file;
+        FileChannel channel;
+        long firstRecord;
+        int capacity;
+        TreeMap<Long, Integer> hourIndex = new TreeMap<>();
+        @NonFinal
+        MappedByteBuffer buffer;
+        @NonFinal
+        int count;
+        @NonFinal
+        boolean ordered = true;
+        @NonFinal
+        long minMillis = Long.MAX_VALUE;
+        @NonFinal
+        long maxMillis = Long.MIN_VALUE;
+
+        private Segment(Path file, FileChannel channel, long firstRecord, int capacity) {
+            this.file = file;
+            this.channel = channel;
+            this.firstRecord = firstRecord;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Recovered before mapping: a mapped file can't be cut.
+         */
+        static Segment open(Path file, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            String name = file.getFileName().toString();
+            Segment segment = new Segment(file, channel,
+                Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), capacity);
+            segment.recover();
+            segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_BYTES);
+            return segment;
+        }
+
+        boolean isFull() {
+            return count == capacity;
+        }
+
+        void append(long millis, long satoshis) {
+            int offset = count * RECORD_BYTES;
+            buffer.putLong(offset, millis);
+            buffer.putLong(offset + 8, satoshis);
+            // last, so a record is valid only when everything before is written
+            buffer.putLong(offset + 16, checksum(firstRecord + count, millis, satoshis));
+            indexRecord(count, millis);
+            count++;
+        }
+
+        void scan(long fromMillis, long toMillisExclusive, RecordConsumer consumer) {
+            if (count == 0 || maxMillis < fromMillis || minMillis >= toMillisExclusive) {
+                return;
+            }
+            int first = 0;
+            if (ordered) {
+                Map.Entry<Long, Integer> start = hourIndex.floorEntry(Math.floorDiv(fromMillis, HOUR_MILLIS));
+                first = start == null ? 0 : start.getValue();
+            }
+            for (int i = first; i < count; i++) {
+                long millis = buffer.getLong(i * RECORD_BYTES);
+                if (millis >= toMillisExclusive && ordered) {
+                    return;
+                }
+                if (millis >= fromMillis && millis < toMillisExclusive) {
+                    consumer.accept(millis, buffer.getLong(i * RECORD_BYTES + 8));
+                }
+            }
+        }
+
+        void scanFrom(long first, RecordConsumer consumer) {
+            for (long i = first; i < count; i++) {
+                int offset = (int) i * RECORD_BYTES;
+                consumer.accept(buffer.getLong(offset), buffer.getLong(offset + 8));
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Can't close ledger segment {}", file, e);
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't delete ledger segment " + file, e);
+            }
+        }
+
+        /**
+         * Counts records up to the first one with a wrong checksum and cuts the file right there.
+         * Records after a torn one may be stale or half-flushed (pages are not written in order), and left
+         * in place they would become valid again once the gap is written over and the process crashes again.
+         */
+        private void recover() throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(RECOVERY_CHUNK_RECORDS * RECORD_BYTES);
+            long end = Math.min(channel.size(), (long) capacity * RECORD_BYTES);
+            boolean torn = false;
+            scan:
+            while ((long) (count + 1) * RECORD_BYTES <= end) {
+                long position = (long) count * RECORD_BYTES;
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), (end - position) / RECORD_BYTES * RECORD_BYTES));
+                while (chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) > 0) {
+                    // read until the chunk is full
+                }
+                chunk.flip();
+                if (chunk.remaining() < RECORD_BYTES) {
+                    break;
+                }
+                while (chunk.remaining() >= RECORD_BYTES) {
+                    long millis = chunk.getLong();
+                    long satoshis = chunk.getLong();
+                    long sum = chunk.getLong();
+                    if (sum != checksum(firstRecord + count, millis, satoshis)) {
+                        torn = (millis | satoshis | sum) != 0;
+                        break scan;
+                    }
+                    indexRecord(count, millis);
+                    count++;
+                }
+            }
+            if (channel.size() > (long) count * RECORD_BYTES) {
+                if (torn) {
+                    log.warn("Truncating torn record {} and everything after it in ledger segment {}", count, file);
+                }
+                channel.truncate((long) count * RECORD_BYTES);
+                channel.force(true);
+            }
+        }
+
+        /**
+         * Never zero, so a zeroed record is never valid, and depends on the record number,
+         * so a record is not valid at another position.
+         */
+        static long checksum(long record, long millis, long satoshis) {
+            return mix(mix(mix(record) ^ millis) ^ satoshis) | 1;
+        }
+
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+        private void indexRecord(int record, long millis) {
+            long hour = Math.floorDiv(millis, HOUR_MILLIS);
+            if (record > 0 && millis < maxMillis) {
+                ordered = false;
+            }
+            if (ordered && !hourIndex.containsKey(hour)) {
+                hourIndex.put(hour, record);
+            }
+            minMillis = Math.min(minMillis, millis);
+            maxMillis = Math.max(maxMillis, millis);
+        }
+    }
+}
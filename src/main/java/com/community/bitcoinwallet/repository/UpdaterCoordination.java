@@ -0,0 +1,57 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.RecomputeRange;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Lets nodes sharing one database run a single balance updater and share its recompute work.
+ * <p>
+ * The updater runs under a lease. Every time the lease goes to a new owner its fencing token is incremented,
+ * and work under the lease checks the token in its own transaction, so a node which lost the lease
+ * (paused by GC, cut off from the database) can't commit anything once another node took over.
+ */
+public interface UpdaterCoordination {
+
+    /**
+     * Takes the lease if it is free or expired, renews it if the owner holds it.
+     *
+     * @return fencing token if the owner holds the lease until now + ttl
+     */
+    OptionalLong acquireLease(String owner, Instant now, Duration ttl);
+
+    void releaseLease(String owner);
+
+    /**
+     * Runs the work in an updater transaction which first checks and locks the lease,
+     * so the lease can't be taken over until the work commits.
+     *
+     * @return false if the owner doesn't hold the lease with the token anymore, the work is not run then
+     */
+    boolean runFenced(String owner, long token, Instant now, Runnable work);
+
+    /**
+     * Publishes ranges for any node to recompute. Hours of a range which are already in a range offered
+     * and not claimed yet are not offered again: that range is recomputed after this call anyway,
+     * so a burst of backdated entries into the same hours costs one recompute.
+     */
+    void offerRanges(List<RecomputeRange> ranges);
+
+    /**
+     * Claims the oldest range which doesn't overlap a range claimed by someone else,
+     * so the same hours are never recomputed concurrently and an older result can't overwrite a newer one.
+     * A claim which is not completed within ttl can be claimed again.
+     */
+    Optional<RecomputeRange> claimRange(String owner, Instant now, Duration ttl);
+
+    void completeRange(RecomputeRange range);
+
+    /**
+     * Gives a claimed range back, so it can be claimed again right away, e.g. after its recompute failed.
+     */
+    void releaseRange(RecomputeRange range);
+}
@@ -0,0 +1,32 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Gets notified about changes in WALLET and BALANCE once they are committed.
+ */
+public interface WalletChangeListener {
+
+    void onEntryAdded(WalletEntry entry);
+
+    void onCleared();
+
+    /**
+     * Called when materialized balances are updated, most listeners care only about WALLET itself.
+     */
+    default void onBalancesMerged(List<WalletEntry> balances) {
+    }
+
+    /**
+     * Called when another node cleared the shared database, or this node may have missed changes of other nodes:
+     * everything derived from the repository is stale, though the repository itself is up to date.
+     *
+     * @param total balance after all entries at the moment of the resync, changes after it are notified as usual
+     */
+    default void onResync(Optional<WalletEntry> total) {
+        onCleared();
+    }
+}
@@ -0,0 +1,57 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class WalletChangeNotifier {
+
+    List<WalletChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(WalletChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void entryAdded(WalletEntry entry) {
+        afterCommit(() -> listeners.forEach(listener -> listener.onEntryAdded(entry)));
+    }
+
+    public void cleared() {
+        afterCommit(() -> listeners.forEach(WalletChangeListener::onCleared));
+    }
+
+    public void balancesMerged(List<WalletEntry> balances) {
+        if (balances.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> listeners.forEach(listener -> listener.onBalancesMerged(balances)));
+    }
+
+    public void resynced(Optional<WalletEntry> total) {
+        afterCommit(() -> listeners.forEach(listener -> listener.onResync(total)));
+    }
+
+    /**
+     * Listeners should see the change only when other connections see it too,
+     * otherwise they can re-read old rows right after the notification.
+     */
+    private void afterCommit(Runnable notification) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    notification.run();
+                }
+            });
+        } else {
+            notification.run();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+
+/**
+ * Storage of wallet entries, materialized hourly balances and the queue of entries
+ * which balances are not yet recomputed for.
+ * Listeners are notified about a change only when it is visible to readers.
+ */
+public interface WalletRepository {
+
+    void addChangeListener(WalletChangeListener listener);
+
+    /**
+     * Stores the entry and puts it into the balance update queue.
+     */
+    void addEntry(WalletEntry entry);
+
+    /**
+     * Stores the entry like {@link #addEntry(WalletEntry)} and the key with the payload hash, unless an entry
+     * with the same idempotency key was stored before.
+     *
+     * @return payload hash stored with the key before, nothing is stored then; empty if the entry is stored
+     */
+    OptionalLong addEntry(WalletEntry entry, String idempotencyKey, long payloadHash);
+
+    /**
+     * Forgets idempotency keys stored before the instant, an entry with such a key is stored again.
+     *
+     * @return number of keys forgotten
+     */
+    long expireEntryKeys(Instant createdBefore);
+
+    void clear();
+
+    /**
+     * Notifies listeners of this node about changes made by other nodes sharing the storage since the previous
+     * call, as if they were made here. Engines which are never shared have nothing to notify.
+     */
+    default void pollRemoteChanges() {
+    }
+
+    /**
+     * @return sums of entries with ts in [fromAtStart, toAtStart) by start of hour, only for hours with entries
+     */
+    List<WalletEntry> getWalletSumInRangeByHour(Instant fromAtStart, Instant toAtStart);
+
+    /**
+     * @return sum of entries with ts in [fromAtStart, toAtStart), datetime is not set, empty if there are none
+     */
+    default Optional<WalletEntry> getWalletSumInRange(Instant fromAtStart, Instant toAtStart) {
+        return getWalletSumInRangeByHour(fromAtStart, toAtStart).stream()
+            .map(WalletEntry::getAmount)
+            .reduce(BigDecimal::add)
+            .map(sum -> new WalletEntry(null, sum));
+    }
+
+    /**
+     * @return numbers of entries with ts in [fromAtStart, toAtStart) by start of hour, only for hours with entries.
+     * Engines which keep only hourly sums count an hour with entries once.
+     */
+    default NavigableMap<Instant, Long> getEntryCountsByHour(Instant fromAtStart, Instant toAtStart) {
+        NavigableMap<Instant, Long> res = new TreeMap<>();
+        getWalletSumInRangeByHour(fromAtStart, toAtStart).forEach(sum -> res.put(sum.getDatetime(), 1L));
+        return res;
+    }
+
+    /**
+     * @return sum of entries with ts before fromAtStart, datetime is not set
+     */
+    Optional<WalletEntry> getWalletSumBeforeFrom(Instant fromAtStart);
+
+    /**
+     * Balance at hourAtStart straight from entries, same as {@link #getWalletSumBeforeFrom} but dated.
+     */
+    default WalletEntry getWalletBalanceAt(Instant hourAtStart) {
+        return new WalletEntry(hourAtStart, getWalletSumBeforeFrom(hourAtStart)
+            .map(WalletEntry::getAmount)
+            .orElse(DateAndAmountUtils.toBigDecimal(0.0)));
+    }
+
+    /**
+     * Running balances straight from entries: the balance at fromAtStart followed by
+     * balances at the end of every hour with entries in [fromAtStart, toAtStart).
+     */
+    default List<WalletEntry> getWalletBalancesByHour(Instant fromAtStart, Instant toAtStart) {
+        BigDecimal current = getWalletSumBeforeFrom(fromAtStart)
+            .map(WalletEntry::getAmount)
+            .orElse(DateAndAmountUtils.toBigDecimal(0.0));
+        List<WalletEntry> sums = getWalletSumInRangeByHour(fromAtStart, toAtStart);
+        List<WalletEntry> res = new ArrayList<>(sums.size() + 1);
+        res.add(new WalletEntry(fromAtStart, current));
+        for (WalletEntry sum : sums) {
+            current = current.add(sum.getAmount());
+            res.add(new WalletEntry(sum.getDatetime().plus(1, ChronoUnit.HOURS), current));
+        }
+        return res;
+    }
+
+    /**
+     * Same as {@link #getWalletBalancesByHour}, read on behalf of the balance updater,
+     * so engines with separate connection pools don't take recompute reads out of the pool of user reads.
+     */
+    default List<WalletEntry> getWalletBalancesByHourToRecompute(Instant fromAtStart, Instant toAtStart) {
+        return getWalletBalancesByHour(fromAtStart, toAtStart);
+    }
+
+    /**
+     * Recomputes and merges balances at the end of the first hour and of every hour
+     * with entries in [fromAtStart, toAtStart).
+     *
+     * @return merged balances in time order
+     */
+    default List<WalletEntry> recomputeBalances(Instant fromAtStart, Instant toAtStart) {
+        List<WalletEntry> balances = getWalletBalancesByHour(fromAtStart, toAtStart);
+        Instant firstHourEnd = fromAtStart.plus(1, ChronoUnit.HOURS);
+        List<WalletEntry> res = new ArrayList<>(balances.subList(1, balances.size()));
+        if (res.isEmpty() || !res.get(0).getDatetime().equals(firstHourEnd)) {
+            res.add(0, new WalletEntry(firstHourEnd, balances.get(0).getAmount()));
+        }
+        mergeIntoBalances(res);
+        return res;
+    }
+
+    /**
+     * @return materialized balances with ts in (fromExclusive, toInclusive]
+     */
+    List<WalletEntry> getBalancesWithinRange(Instant fromExclusive, Instant toInclusive);
+
+    /**
+     * @return latest materialized balance with ts not after from
+     */
+    Optional<WalletEntry> getBalanceBeforeRange(Instant from);
+
+    /**
+     * @return earliest queued entry, queue is cleared
+     */
+    Optional<WalletEntry> getFirstEventAndClearQueue();
+
+    /**
+     * Inserts or replaces materialized balances.
+     */
+    void mergeIntoBalances(List<WalletEntry> balancesToUpdate);
+
+    /**
+     * @return sum of all entries with the timestamp of the latest one
+     */
+    Optional<WalletEntry> getWalletTotal();
+
+    Optional<Instant> getLastBalanceTs();
+
+    /**
+     * @return ts of the earliest entry not before from, empty also if entries themselves are not kept
+     */
+    default Optional<Instant> getFirstEntryTs(Instant from) {
+        return Optional.empty();
+    }
+
+    /**
+     * @return number of stored entry rows, -1 if entries themselves are not kept
+     */
+    default long getEntryCount() {
+        return -1;
+    }
+
+    /**
+     * Replaces entries with ts in [fromAtStart, toAtStart) with one entry per hour at its start,
+     * which has the sum of the hour, so all balances stay the same. Engines which keep only hourly sums
+     * have nothing to compact.
+     *
+     * @return number of entry rows reclaimed
+     */
+    default long rollUpEntries(Instant fromAtStart, Instant toAtStart) {
+        return 0;
+    }
+}
@@ -24,9 +24,10 @@ public class WalletRepositoryMappersConstants {
     // yeah :-/, we really should switch to something:-)
     public static final String TS_AT_START_OF_HOUR =
         "FORMATDATETIME(DATEADD('MILLISECOND', ts, DATE '1970-01-01'),'YYYY-MM-dd HH:00:00+00:00')";
-    public static final String WALLET = "WALLET";
-    public static final String BALANCE = "BALANCE";
+    // floor to the hour in millis, keeps window ordering and grouping numeric
+    public static final String TS_MILLIS_AT_START_OF_HOUR = "(ts - MOD(MOD(ts, 3600000) + 3600000, 3600000))";
     public static final String BALANCE_QUEUE = "BALANCE_UPDATE_QUEUE";
+    public static final String ENTRY_KEY = "ENTRY_KEY";
 
     public static final String INSERT = "insert into %s(ts,bitcoins) values(:ts, :bitcoins)";
     public static final String CLEAR = "delete from %s where 1=1";
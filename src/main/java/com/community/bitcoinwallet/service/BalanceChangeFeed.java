@@ -0,0 +1,214 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.BalanceChange;
+import com.community.bitcoinwallet.model.BalanceChanges;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.ChangeFeedStore;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Change feed for consumers which keep their own copy of balances: every committed updater run is a record
+ * with a sequence number, so a consumer remembers the last one it applied and reads only what came after it.
+ * <p>
+ * A consumer with nothing new to read may wait for the next record. Waiters are woken right away by updates
+ * of this node and within pollMillis by updates of other nodes sharing the database.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BalanceChangeFeed implements WalletChangeListener, MeterBinder {
+
+    ChangeFeedStore store;
+    boolean recordValues;
+    int maxPageSize;
+    Duration maxWait;
+    ScheduledExecutorService scheduler;
+    Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    LongAdder records = new LongAdder();
+
+    public BalanceChangeFeed(ChangeFeedStore store, boolean recordValues, int maxPageSize, Duration maxWait,
+                             ScheduledExecutorService scheduler, long pollMillis) {
+        this.store = store;
+        this.recordValues = recordValues;
+        this.maxPageSize = maxPageSize;
+        this.maxWait = maxWait;
+        this.scheduler = scheduler;
+        scheduler.scheduleWithFixedDelay(this::wakeQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Should be called in the transaction which merged the balances, so the record commits with them.
+     *
+     * @return sequence number of the record
+     */
+    public long record(Instant fromAtStart, Instant toAtStart, List<WalletEntry> balances) {
+        long sequence = store.append(fromAtStart, toAtStart, recordValues ? lastByHour(balances) : List.of());
+        records.increment();
+        return sequence;
+    }
+
+    /**
+     * @return up to limit records after afterSequence, or resync without records if some of them
+     * are not kept anymore or the feed started over
+     */
+    public BalanceChanges getChanges(long afterSequence, int limit) {
+        List<BalanceChange> changes = store.getChanges(afterSequence, limit);
+        long last = store.getLastSequence();
+        if (changes.isEmpty() ? afterSequence > last : changes.get(0).getSequence() > afterSequence + 1) {
+            return new BalanceChanges(last, true, Collections.emptyList());
+        }
+        long lastRead = changes.isEmpty() ? afterSequence : changes.get(changes.size() - 1).getSequence();
+        return new BalanceChanges(Math.max(last, lastRead), false, changes);
+    }
+
+    /**
+     * Same as {@link #getChanges(long, int)}, but if there is nothing to read yet, completes with the first
+     * records after afterSequence or with an empty page once wait is over.
+     * Limit and wait are cut down to maxPageSize and maxWait.
+     */
+    public CompletableFuture<BalanceChanges> getChanges(long afterSequence, int limit, Duration wait) {
+        if (afterSequence < 0 || limit <= 0 || wait.isNegative()) {
+            throw new IllegalArgumentException("Sequence should not be negative, limit should be positive");
+        }
+        return getChangesOrWait(afterSequence, Math.min(limit, maxPageSize),
+            wait.compareTo(maxWait) > 0 ? maxWait : wait);
+    }
+
+    private CompletableFuture<BalanceChanges> getChangesOrWait(long afterSequence, int limit, Duration wait) {
+        BalanceChanges changes = getChanges(afterSequence, limit);
+        if (!changes.getChanges().isEmpty() || changes.isResync() || wait.isZero()) {
+            return CompletableFuture.completedFuture(changes);
+        }
+        Waiter waiter = new Waiter(afterSequence, limit, new CompletableFuture<>());
+        waiters.add(waiter);
+        try {
+            scheduler.schedule(() -> {
+                if (waiters.remove(waiter)) {
+                    waiter.future.complete(changes);
+                }
+            }, wait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            waiters.remove(waiter);
+            return CompletableFuture.completedFuture(changes);
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Completes waiters which have something to read now.
+     */
+    public synchronized void wake() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        long last = store.getLastSequence();
+        for (Waiter waiter : waiters) {
+            // newer records or the feed started over
+            if (waiter.afterSequence != last && waiters.remove(waiter)) {
+                try {
+                    waiter.future.complete(getChanges(waiter.afterSequence, waiter.limit));
+                } catch (Exception e) {
+                    waiter.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    public int getWaiterCount() {
+        return waiters.size();
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+    }
+
+    @Override
+    public void onCleared() {
+        store.clear();
+        wakeSoon();
+    }
+
+    @Override
+    public void onBalancesMerged(List<WalletEntry> balances) {
+        wakeSoon();
+    }
+
+    /**
+     * The store is shared, the node which cleared the database has cleared it too.
+     */
+    @Override
+    public void onResync(Optional<WalletEntry> total) {
+        wakeSoon();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.change-feed.records", records, LongAdder::doubleValue)
+            .description("Balance updates recorded into the change feed by this node")
+            .register(registry);
+        Gauge.builder("wallet.change-feed.waiters", this, BalanceChangeFeed::getWaiterCount)
+            .description("Consumers waiting for the next change")
+            .register(registry);
+    }
+
+    /**
+     * Listeners are called on the updater thread, waiters are served on the scheduler.
+     */
+    private void wakeSoon() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        try {
+            scheduler.execute(this::wakeQuietly);
+        } catch (RejectedExecutionException e) {
+            log.debug("Change feed scheduler is shut down", e);
+        }
+    }
+
+    private void wakeQuietly() {
+        try {
+            wake();
+        } catch (Exception e) {
+            log.error("Can't wake change feed waiters", e);
+        }
+    }
+
+    /**
+     * Ranges of one run follow each other, still a repeated hour is kept once with its latest balance.
+     */
+    private static List<WalletEntry> lastByHour(List<WalletEntry> balances) {
+        Map<Instant, WalletEntry> byHour = new TreeMap<>();
+        balances.forEach(balance -> byHour.put(balance.getDatetime(), balance));
+        return new ArrayList<>(byHour.values());
+    }
+
+    @AllArgsConstructor
+    private static class Waiter {
+        long afterSequence;
+        int limit;
+        CompletableFuture<BalanceChanges> future;
+    }
+}
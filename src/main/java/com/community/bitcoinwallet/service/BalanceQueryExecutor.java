@@ -0,0 +1,114 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.BalanceWindow;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs balance queries off the request threads, so heavy readers can't take all of them from add-entry calls.
+ * Every query has an estimated cost: hours it spans, multiplied by syncCostFactor for sync queries,
+ * which are computed from entries. Queries are admitted while total cost in flight fits into maxInFlightCost,
+ * others are rejected with {@link QueryRejectedException}.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BalanceQueryExecutor implements MeterBinder {
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+
+    Executor executor;
+    long maxInFlightCost;
+    int syncCostFactor;
+    long retryAfterSeconds;
+    AtomicLong inFlightCost = new AtomicLong();
+    LongAdder admitted = new LongAdder();
+    LongAdder rejected = new LongAdder();
+
+    public BalanceQueryExecutor(Executor executor, long maxInFlightCost, int syncCostFactor,
+                                long retryAfterSeconds) {
+        this.executor = executor;
+        this.maxInFlightCost = maxInFlightCost;
+        this.syncCostFactor = syncCostFactor;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long estimateCost(Instant from, Instant to, boolean sync) {
+        long hours = Math.max(1, (to.toEpochMilli() - from.toEpochMilli()) / HOUR_MILLIS + 1);
+        return sync ? hours * syncCostFactor : hours;
+    }
+
+    public long estimateCost(List<BalanceWindow> windows, boolean sync) {
+        long cost = 0;
+        for (BalanceWindow window : windows) {
+            cost += estimateCost(window.getFrom(), window.getTo(), sync);
+        }
+        return Math.max(1, cost);
+    }
+
+    /**
+     * @throws QueryRejectedException if the query is not admitted or the executor queue is full
+     */
+    public <T> CompletableFuture<T> submit(long cost, Supplier<T> query) {
+        if (!tryAcquire(cost)) {
+            rejected.increment();
+            throw new QueryRejectedException(retryAfterSeconds);
+        }
+        try {
+            CompletableFuture<T> result = CompletableFuture.supplyAsync(query, executor)
+                .whenComplete((value, e) -> inFlightCost.addAndGet(-cost));
+            admitted.increment();
+            return result;
+        } catch (RejectedExecutionException e) {
+            inFlightCost.addAndGet(-cost);
+            rejected.increment();
+            throw new QueryRejectedException(retryAfterSeconds);
+        }
+    }
+
+    public long getInFlightCost() {
+        return inFlightCost.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private boolean tryAcquire(long cost) {
+        while (true) {
+            long current = inFlightCost.get();
+            // a query costing more than the whole budget is still admitted, but only alone
+            if (current > 0 && current + cost > maxInFlightCost) {
+                return false;
+            }
+            if (inFlightCost.compareAndSet(current, current + cost)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.balance.query.admission", admitted, LongAdder::doubleValue)
+            .tag("result", "admitted")
+            .description("Balance queries admitted for execution")
+            .register(registry);
+        FunctionCounter.builder("wallet.balance.query.admission", rejected, LongAdder::doubleValue)
+            .tag("result", "rejected")
+            .description("Balance queries rejected because too much work is in flight")
+            .register(registry);
+        Gauge.builder("wallet.balance.query.in-flight-cost", this, BalanceQueryExecutor::getInFlightCost)
+            .description("Estimated cost of balance queries in flight")
+            .register(registry);
+    }
+}
@@ -0,0 +1,49 @@
+package com.community.bitcoinwallet.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+
+/**
+ * Splits a dirty window into ranges of about equal recompute work: an hour costs one for its balance
+ * and one more for every entry in it, so a busy trading day gets a range of its own and quiet weeks go together.
+ * Ranges are at least minHours long, so a small window is not spread over more workers than it is worth.
+ */
+public final class BalanceRangeSplitter {
+
+    private BalanceRangeSplitter() {
+    }
+
+    /**
+     * @param entryCounts numbers of entries by start of hour, hours without entries may be missing
+     * @return bounds of at most parts consecutive ranges, from fromAtStart to toAtStart
+     */
+    public static List<Instant> split(Instant fromAtStart, Instant toAtStart, NavigableMap<Instant, Long> entryCounts,
+                                      int parts, int minHours) {
+        long hours = Duration.between(fromAtStart, toAtStart).toHours();
+        long minRangeHours = Math.max(1, minHours);
+        long ranges = Math.max(1, Math.min(parts, hours / minRangeHours));
+        long total = hours + entryCounts.values().stream().mapToLong(Long::longValue).sum();
+        List<Instant> bounds = new ArrayList<>();
+        bounds.add(fromAtStart);
+        long work = 0;
+        long rangeHours = 0;
+        Instant hour = fromAtStart;
+        for (long done = 1; done <= hours; done++) {
+            work += 1 + entryCounts.getOrDefault(hour, 0L);
+            rangeHours++;
+            hour = hour.plus(1, ChronoUnit.HOURS);
+            // cut once the work so far is the share of the ranges so far
+            if (bounds.size() < ranges && work * ranges >= total * bounds.size()
+                && rangeHours >= minRangeHours && hours - done >= minRangeHours) {
+                bounds.add(hour);
+                rangeHours = 0;
+            }
+        }
+        bounds.add(toAtStart);
+        return bounds;
+    }
+}
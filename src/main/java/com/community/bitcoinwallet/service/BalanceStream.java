@@ -0,0 +1,236 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans out hourly balances merged by the updater to live subscribers.
+ * Every subscriber has its own bounded buffer of pending hours: a newer balance of a pending hour replaces
+ * the older one, so a slow subscriber gets fewer, bigger updates. If it falls behind by more than maxPendingHours
+ * distinct hours, it is dropped and should re-read balances before subscribing again.
+ * <p>
+ * Buffers are drained by a small shared pool, but sends block on the client connection, so they run
+ * on the send executor and a drain waits for one at most sendTimeoutMillis. A subscriber whose send
+ * takes longer is dropped too, so a stalled client can't hold up the others.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BalanceStream implements WalletChangeListener, MeterBinder {
+
+    int maxPendingHours;
+    long sendTimeoutMillis;
+    long subscriptionTimeoutMillis;
+    Executor dispatchExecutor;
+    Executor sendExecutor;
+    Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    LongAdder published = new LongAdder();
+    LongAdder dropped = new LongAdder();
+
+    public BalanceStream(int maxPendingHours, long sendTimeoutMillis, long subscriptionTimeoutMillis,
+                         Executor dispatchExecutor, Executor sendExecutor) {
+        this.maxPendingHours = maxPendingHours;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+        this.subscriptionTimeoutMillis = subscriptionTimeoutMillis;
+        this.dispatchExecutor = dispatchExecutor;
+        this.sendExecutor = sendExecutor;
+    }
+
+    public Subscription subscribe(BalanceSink sink) {
+        Subscription subscription = new Subscription(sink);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    @Override
+    public void onBalancesMerged(List<WalletEntry> balances) {
+        published.increment();
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(balances);
+        }
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+    }
+
+    /**
+     * Balances subscribers have seen are gone, so they are dropped and re-read balances.
+     */
+    @Override
+    public void onCleared() {
+        for (Subscription subscription : subscriptions) {
+            subscription.drop();
+        }
+    }
+
+    /**
+     * Subscriptions are closed after it, clients reconnect and re-read balances.
+     */
+    public long getSubscriptionTimeoutMillis() {
+        return subscriptionTimeoutMillis;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.balance.stream.published", published, LongAdder::doubleValue)
+            .description("Balance updates fanned out to subscribers")
+            .register(registry);
+        FunctionCounter.builder("wallet.balance.stream.dropped", dropped, LongAdder::doubleValue)
+            .description("Subscribers dropped because they fell behind or stalled")
+            .register(registry);
+        Gauge.builder("wallet.balance.stream.subscribers", this, BalanceStream::getSubscriberCount)
+            .description("Live balance subscribers")
+            .register(registry);
+    }
+
+    public interface BalanceSink {
+        /**
+         * Called from the send executor, never concurrently for the same subscriber.
+         */
+        void send(List<WalletEntry> balances) throws Exception;
+
+        /**
+         * Called from the send executor once the subscriber is dropped by the stream,
+         * possibly while a send which timed out is still blocked.
+         */
+        void close();
+    }
+
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    public class Subscription {
+        BalanceSink sink;
+        TreeMap<Instant, BigDecimal> pending = new TreeMap<>();
+        @NonFinal
+        boolean scheduled;
+        @NonFinal
+        boolean cancelled;
+
+        private Subscription(BalanceSink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * Stops delivery, nothing is sent after it returns except the batch being sent right now.
+         */
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        private void offer(List<WalletEntry> balances) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                for (WalletEntry balance : balances) {
+                    pending.put(balance.getDatetime(), balance.getAmount());
+                }
+                if (pending.size() <= maxPendingHours && (scheduled || schedule())) {
+                    return;
+                }
+            }
+            drop();
+        }
+
+        private void drop() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+            dropped.increment();
+            try {
+                sendExecutor.execute(sink::close);
+            } catch (RejectedExecutionException e) {
+                log.debug("Dropped balance subscriber is not closed", e);
+            }
+        }
+
+        private boolean schedule() {
+            scheduled = true;
+            try {
+                dispatchExecutor.execute(this::drain);
+                return true;
+            } catch (RejectedExecutionException e) {
+                scheduled = false;
+                return false;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                List<WalletEntry> batch;
+                synchronized (this) {
+                    if (cancelled || pending.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    batch = new ArrayList<>(pending.size());
+                    for (Map.Entry<Instant, BigDecimal> entry : pending.entrySet()) {
+                        batch.add(new WalletEntry(entry.getKey(), entry.getValue()));
+                    }
+                    pending.clear();
+                }
+                CompletableFuture<Void> sent = new CompletableFuture<>();
+                try {
+                    sendExecutor.execute(() -> {
+                        try {
+                            sink.send(batch);
+                            sent.complete(null);
+                        } catch (Exception e) {
+                            sent.completeExceptionally(e);
+                        }
+                    });
+                    sent.get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | RejectedExecutionException e) {
+                    log.debug("Balance subscriber is too slow", e);
+                    drop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                } catch (ExecutionException e) {
+                    log.debug("Balance subscriber is gone", e.getCause());
+                    cancel();
+                }
+            }
+        }
+    }
+}
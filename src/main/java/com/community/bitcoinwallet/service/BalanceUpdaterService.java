@@ -1,17 +1,22 @@
 package com.community.bitcoinwallet.service;
 
 
+import com.community.bitcoinwallet.model.RecomputeRange;
 import com.community.bitcoinwallet.model.WalletEntry;
-import com.community.bitcoinwallet.repository.H2WalletRepository;
+import com.community.bitcoinwallet.repository.UpdaterCoordination;
+import com.community.bitcoinwallet.repository.WalletRepository;
 import com.community.bitcoinwallet.util.DateAndAmountUtils;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -23,33 +28,124 @@ import java.util.concurrent.*;
 import static com.community.bitcoinwallet.util.DateAndAmountUtils.atStartOfHour;
 
 
+/**
+ * Only the node holding the updater lease takes the dirty window from the queue. With rangeHours > 0 it offers
+ * the window as ranges of rangeHours, which every node claims and recomputes, otherwise it recomputes the window
+ * itself. Every committed recompute is recorded into the change feed.
+ * <p>
+ * With recentHours > 0 only the last recentHours of a longer window are recomputed right away, older hours
+ * are offered as backfill ranges, newest first, and recomputed after fresh work, at most backfillHoursPerWindow
+ * every backfillWindowMillis. So balances on the hot end are fresh no matter how far back an entry goes.
+ */
 @Log4j2
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 public class BalanceUpdaterService {
 
-    H2WalletRepository repository;
-    WalletService walletService;
+    WalletRepository repository;
     ScheduledExecutorService updateBalanceTaskScheduler;
     ExecutorService parallelBalanceUpdateExecutor;
     int threadCount;
+    int minRangeHours;
+    boolean setBasedRecompute;
+    UpdaterLeadership leadership;
+    UpdaterCoordination coordination;
+    int rangeHours;
+    Duration rangeClaimTtl;
+    int recentHours;
+    int backfillHoursPerWindow;
+    long backfillWindowMillis;
+    BalanceChangeFeed changeFeed;
+    TransactionTemplate updaterTransactions;
+    @NonFinal
+    long backfillWindowStartMillis;
+    @NonFinal
+    long backfillWindowHours;
 
-
-    public BalanceUpdaterService(H2WalletRepository repository, WalletService walletService,
-                                 long scheduledUpdatePeriodMillis,
+    public BalanceUpdaterService(WalletRepository repository, long scheduledUpdatePeriodMillis,
                                  ScheduledExecutorService updateBalanceTaskSheduler,
-                                 ExecutorService parallelBalanceUpdateExecutor, int threadCount) {
+                                 ExecutorService parallelBalanceUpdateExecutor, int threadCount, int minRangeHours,
+                                 boolean setBasedRecompute, UpdaterLeadership leadership,
+                                 UpdaterCoordination coordination, int rangeHours, Duration rangeClaimTtl,
+                                 int recentHours, int backfillHoursPerWindow, long backfillWindowMillis,
+                                 BalanceChangeFeed changeFeed, PlatformTransactionManager updaterTransactionManager) {
+        if (recentHours > 0 && (backfillHoursPerWindow <= 0 || backfillWindowMillis <= 0)) {
+            throw new IllegalArgumentException("Backfill hours and window should be positive");
+        }
         this.repository = repository;
-        this.walletService = walletService;
         this.updateBalanceTaskScheduler = updateBalanceTaskSheduler;
         this.parallelBalanceUpdateExecutor = parallelBalanceUpdateExecutor;
         this.threadCount = threadCount;
-        updateBalanceTaskSheduler.scheduleAtFixedRate(() -> updateBalances(true),
+        this.minRangeHours = minRangeHours;
+        this.setBasedRecompute = setBasedRecompute;
+        this.leadership = leadership;
+        this.coordination = coordination;
+        this.rangeHours = rangeHours;
+        this.rangeClaimTtl = rangeClaimTtl;
+        this.recentHours = recentHours;
+        this.backfillHoursPerWindow = backfillHoursPerWindow;
+        this.backfillWindowMillis = backfillWindowMillis;
+        this.changeFeed = changeFeed;
+        this.updaterTransactions = new TransactionTemplate(updaterTransactionManager);
+        updateBalanceTaskSheduler.scheduleAtFixedRate(this::scheduledUpdate,
             scheduledUpdatePeriodMillis, scheduledUpdatePeriodMillis, TimeUnit.MILLISECONDS);
     }
 
+    private void scheduledUpdate() {
+        try {
+            Instant now = Instant.now();
+            if (leadership.renew(now)) {
+                leadership.runFenced(now, () -> updateBalances(true));
+            }
+            if (rangeHours > 0 || recentHours > 0) {
+                recomputeOfferedRanges(now);
+            }
+        } catch (Exception e) {
+            log.error("Balance update failed", e);
+        }
+    }
+
+    /**
+     * Claims ranges one by one, at most threadCount per run and backfillHoursPerWindow hours per window,
+     * so every node takes its share and fresh updates, which run every few milliseconds, are not held up.
+     * Each range is recomputed in its own updater transaction. A range whose recompute failed is released,
+     * so it is recomputed again.
+     */
+    public synchronized void recomputeOfferedRanges(Instant now) {
+        if (now.toEpochMilli() - backfillWindowStartMillis >= backfillWindowMillis) {
+            backfillWindowStartMillis = now.toEpochMilli();
+            backfillWindowHours = 0;
+        }
+        for (int i = 0; i < threadCount && backfillWindowHours < backfillHoursPerWindow; i++) {
+            Optional<RecomputeRange> range = coordination.claimRange(leadership.getNodeId(), now, rangeClaimTtl);
+            if (range.isEmpty()) {
+                return;
+            }
+            RecomputeRange claimed = range.get();
+            try {
+                // the record and the completion commit with the recompute or not at all
+                updaterTransactions.executeWithoutResult(status -> {
+                    changeFeed.record(claimed.getFrom(), claimed.getTo(),
+                        repository.recomputeBalances(claimed.getFrom(), claimed.getTo()));
+                    coordination.completeRange(claimed);
+                });
+            } catch (RuntimeException e) {
+                coordination.releaseRange(claimed);
+                throw e;
+            }
+            backfillWindowHours += Duration.between(claimed.getFrom(), claimed.getTo()).toHours();
+        }
+    }
 
-    @Transactional
+
+    /**
+     * Runs in one updater transaction, joining the fenced one of the leader: dequeuing, merges and the change
+     * feed record commit together. Parallel workers only read, their balances are merged by this thread.
+     */
     public void updateBalances(boolean parallel) {
+        updaterTransactions.executeWithoutResult(status -> updateBalances(parallel, status));
+    }
+
+    private void updateBalances(boolean parallel, TransactionStatus status) {
         // 1) extract and delete all events from queue
         // 2) split into ranges, if parallel - split between workers
         // 3) call service.getBalanceInRange();
@@ -66,66 +162,109 @@ public class BalanceUpdaterService {
         if (!to.isAfter(from)) {
             to = from.plus(1, ChronoUnit.HOURS);
         }
-        long wholeHours = countHoursBetweenFromAndTo(from, to);
-        List<Range> ranges = new ArrayList<>();
-        long step = wholeHours / threadCount <= 1 ? 1 : wholeHours / threadCount;
-        Instant start = from;
-        for (int i = 0; i < wholeHours; i += step) {
-            Instant end = start.plus(step, ChronoUnit.HOURS);
-            ranges.add(new Range(start, end));
-            start = end;
+        if (recentHours > 0 && to.isAfter(from.plus(recentHours, ChronoUnit.HOURS))) {
+            Instant hotFrom = to.minus(recentHours, ChronoUnit.HOURS);
+            // opening balance of the hot end is summed up from entries, it doesn't wait for older hours
+            recompute(event, hotFrom, to, parallel, status);
+            coordination.offerRanges(splitNewestFirst(from, hotFrom));
+            log.info("Deferred backfill of {} - {} for event {}", from, hotFrom, event);
+            return;
+        }
+        recompute(event, from, to, parallel, status);
+    }
+
+    private void recompute(WalletEntry event, Instant from, Instant to, boolean parallel, TransactionStatus status) {
+        if (rangeHours > 0) {
+            coordination.offerRanges(split(from, to));
+            log.info("Offered ranges for event {}", event);
+            return;
+        }
+        if (setBasedRecompute) {
+            // the whole dirty window in one statement, ranges and workers are not needed
+            changeFeed.record(from, to, repository.recomputeBalances(from, to));
+            log.info("Finished processing event {}", event);
+            return;
         }
-        if (wholeHours > threadCount && wholeHours % threadCount > 1) {
-            ranges.add(new Range(start, start.plus(wholeHours % threadCount, ChronoUnit.HOURS)));
+        // ranges of about equal work by entries per hour, not of equal hours
+        List<Instant> bounds = BalanceRangeSplitter.split(from, to, repository.getEntryCountsByHour(from, to),
+            threadCount, minRangeHours);
+        List<Range> ranges = new ArrayList<>(bounds.size() - 1);
+        for (int i = 1; i < bounds.size(); i++) {
+            ranges.add(new Range(bounds.get(i - 1), bounds.get(i)));
         }
         if (parallel) {
             try {
-                processRangesInParallel(ranges);
+                changeFeed.record(from, to, processRangesInParallel(ranges));
             } catch (Exception e) {
-                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                status.setRollbackOnly();
             }
         } else {
-            processRangesSequentially(ranges);
+            changeFeed.record(from, to, processRangesSequentially(ranges));
         }
         log.info("Finished processing event {}", event);
     }
 
-    private void processRangesSequentially(List<Range> ranges) {
+    private List<WalletEntry> processRangesSequentially(List<Range> ranges) {
+        List<WalletEntry> merged = new ArrayList<>();
         for (int i = 0; i < ranges.size(); i++) {
-            repository.mergeIntoBalances(
-                getBalancesToMerge(ranges.get(i).fromExclusive, ranges.get(i).toInclusive, i == 0));
+            List<WalletEntry> balances =
+                getBalancesToMerge(ranges.get(i).fromExclusive, ranges.get(i).toInclusive, i == 0);
+            repository.mergeIntoBalances(balances);
+            merged.addAll(balances);
         }
+        return merged;
     }
 
-    private void processRangesInParallel(List<Range> ranges) {
+    private List<WalletEntry> processRangesInParallel(List<Range> ranges) {
 
-        List<Future<?>> futures = new ArrayList<>(ranges.size());
+        List<Future<List<WalletEntry>>> futures = new ArrayList<>(ranges.size());
         for (int i = 0; i < ranges.size(); i++) {
             Instant fromExclusive = ranges.get(i).fromExclusive;
             Instant toInclusive = ranges.get(i).toInclusive;
             boolean addNewBalance = i == 0;
             futures.add(parallelBalanceUpdateExecutor.submit(() ->
-                repository.mergeIntoBalances(
-                    getBalancesToMerge(fromExclusive, toInclusive, addNewBalance))));
+                getBalancesToMerge(fromExclusive, toInclusive, addNewBalance)));
         }
+        List<WalletEntry> merged = new ArrayList<>();
         try {
-            for (Future f : futures) {
-                f.get();
+            for (Future<List<WalletEntry>> f : futures) {
+                List<WalletEntry> balances = f.get();
+                repository.mergeIntoBalances(balances);
+                merged.addAll(balances);
             }
+            return merged;
         } catch (Exception e) {
             log.error("Problem occurred on balance update", e);
             throw new RuntimeException(e);
         }
     }
 
-    private long countHoursBetweenFromAndTo(Instant from, Instant to) {
-        return (to.toEpochMilli() - from.toEpochMilli()) / 1000 / 3600;
+    /**
+     * Ranges are claimed in the order they are offered, so the newest hours are backfilled first.
+     */
+    private List<RecomputeRange> splitNewestFirst(Instant from, Instant to) {
+        List<RecomputeRange> ranges = new ArrayList<>();
+        for (Instant end = to; end.isAfter(from); end = end.minus(backfillHoursPerWindow, ChronoUnit.HOURS)) {
+            Instant start = end.minus(backfillHoursPerWindow, ChronoUnit.HOURS);
+            ranges.add(new RecomputeRange(0, start.isBefore(from) ? from : start, end));
+        }
+        return ranges;
+    }
+
+    private List<RecomputeRange> split(Instant from, Instant to) {
+        List<RecomputeRange> ranges = new ArrayList<>();
+        for (Instant start = from; start.isBefore(to); start = start.plus(rangeHours, ChronoUnit.HOURS)) {
+            Instant end = start.plus(rangeHours, ChronoUnit.HOURS);
+            ranges.add(new RecomputeRange(0, start, end.isAfter(to) ? to : end));
+        }
+        return ranges;
     }
 
     private List<WalletEntry> getBalancesToMerge(Instant fromExclusive, Instant toInclusive,
                                                  boolean addNewBalance) {
-        List<WalletEntry> result = new LinkedList<>(
-            walletService.getBalancesWithHoles(fromExclusive, toInclusive, true));
+        // straight from entries through the updater pool, not through caches and connections of user reads
+        List<WalletEntry> result = new LinkedList<>(repository.getWalletBalancesByHourToRecompute(
+            atStartOfHour(fromExclusive), atStartOfHour(toInclusive)));
         WalletEntry first = result.get(0);
         if (addNewBalance) {
             result.set(0, new WalletEntry(first.getDatetime().plus(1, ChronoUnit.HOURS),
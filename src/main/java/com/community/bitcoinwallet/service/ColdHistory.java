@@ -0,0 +1,370 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.ColdSegment;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.fromSatoshis;
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.toSatoshis;
+
+/**
+ * Cold tier of history: closed months, from the month of the first entry on, frozen into immutable
+ * {@link ColdSegment} files. Sync range reads take the frozen part from segments and ask the repository
+ * only for hourly sums of the hot tail, its opening balance is the closing balance of the last segment.
+ * <p>
+ * An entry added into a frozen month drops segments from that month on, they are frozen again later.
+ * Amounts are never negative, so on start segments are trusted only if the balance after the last one
+ * is still the sum of all entries before its end.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class ColdHistory implements WalletChangeListener, MeterBinder {
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+    private static final long NOT_FREEZING = Long.MIN_VALUE;
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    WalletRepository repository;
+    Path dir;
+    Duration minAge;
+    AtomicReference<Frozen> frozen = new AtomicReference<>(Frozen.EMPTY);
+    LongAdder invalidations = new LongAdder();
+    LongAdder coldHours = new LongAdder();
+    // end of months being frozen right now, entries before it invalidate the freeze in progress
+    @NonFinal
+    volatile long freezingUntilMillis = NOT_FREEZING;
+
+    public ColdHistory(WalletRepository repository, Path dir, Duration minAge,
+                       ScheduledExecutorService scheduler, long periodMillis) {
+        this.repository = repository;
+        this.dir = dir;
+        this.minAge = minAge;
+        load();
+        scheduler.scheduleWithFixedDelay(this::freezeQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link WalletRepository#getWalletBalancesByHour}.
+     */
+    public List<WalletEntry> getBalancesByHour(Instant fromAtStart, Instant toAtStart) {
+        Frozen state = frozen.get();
+        long from = fromAtStart.toEpochMilli();
+        long to = toAtStart.toEpochMilli();
+        if (state.segments.isEmpty() || from < state.segments.firstKey()) {
+            // nothing before the first segment, so the opening balance doesn't cost a scan either
+            return repository.getWalletBalancesByHour(fromAtStart, toAtStart);
+        }
+        if (from >= state.untilMillis) {
+            return getHotBalancesByHour(state, fromAtStart, toAtStart);
+        }
+        long coldEnd = Math.min(to, state.untilMillis);
+        NavigableMap<Long, ColdSegment> segments = state.segments.subMap(state.segments.floorKey(from), true,
+            coldEnd, false);
+        List<WalletEntry> res = new ArrayList<>();
+        long balance = segments.firstEntry().getValue().getOpeningSatoshis();
+        long hours = 0;
+        boolean openingAdded = false;
+        for (ColdSegment segment : segments.values()) {
+            ColdSegment.Cursor cursor = segment.cursor();
+            while (cursor.next() && cursor.getHourMillis() < coldEnd) {
+                if (!openingAdded && cursor.getHourMillis() >= from) {
+                    res.add(new WalletEntry(fromAtStart, fromSatoshis(balance)));
+                    openingAdded = true;
+                }
+                balance += cursor.getSumSatoshis();
+                if (openingAdded) {
+                    res.add(new WalletEntry(Instant.ofEpochMilli(cursor.getHourMillis() + HOUR_MILLIS),
+                        fromSatoshis(balance)));
+                }
+                hours++;
+            }
+        }
+        if (!openingAdded) {
+            res.add(0, new WalletEntry(fromAtStart, fromSatoshis(balance)));
+        }
+        coldHours.add(hours);
+        if (to > state.untilMillis) {
+            List<WalletEntry> hot = getHotBalancesByHour(state, Instant.ofEpochMilli(state.untilMillis), toAtStart);
+            // the first one is the balance at the end of cold history
+            res.addAll(hot.subList(1, hot.size()));
+        }
+        return res;
+    }
+
+    /**
+     * Balances of a range which starts at or after the end of cold history: the opening balance is the closing
+     * one of the last segment plus hot entries before the range, so entries of frozen months are not read.
+     */
+    private List<WalletEntry> getHotBalancesByHour(Frozen state, Instant fromAtStart, Instant toAtStart) {
+        long balance = state.segments.lastEntry().getValue().getClosingSatoshis();
+        Instant coldEnd = Instant.ofEpochMilli(state.untilMillis);
+        if (fromAtStart.isAfter(coldEnd)) {
+            balance += repository.getWalletSumInRange(coldEnd, fromAtStart)
+                .map(sum -> toSatoshis(sum.getAmount()))
+                .orElse(0L);
+        }
+        List<WalletEntry> sums = repository.getWalletSumInRangeByHour(fromAtStart, toAtStart);
+        List<WalletEntry> res = new ArrayList<>(sums.size() + 1);
+        res.add(new WalletEntry(fromAtStart, fromSatoshis(balance)));
+        for (WalletEntry sum : sums) {
+            balance += toSatoshis(sum.getAmount());
+            res.add(new WalletEntry(Instant.ofEpochMilli(sum.getDatetime().toEpochMilli() + HOUR_MILLIS),
+                fromSatoshis(balance)));
+        }
+        return res;
+    }
+
+    /**
+     * Freezes closed months which ended at least minAge ago.
+     *
+     * @return number of months frozen
+     */
+    public synchronized int freeze(Instant now) {
+        Frozen current = frozen.get();
+        YearMonth month;
+        long opening;
+        if (current.segments.isEmpty()) {
+            Instant first = repository.getFirstEntryTs(Instant.ofEpochMilli(Long.MIN_VALUE)).orElse(null);
+            if (first == null) {
+                return 0;
+            }
+            month = YearMonth.from(first.atZone(ZoneOffset.UTC));
+            opening = 0;
+        } else {
+            month = YearMonth.from(Instant.ofEpochMilli(current.untilMillis).atZone(ZoneOffset.UTC));
+            opening = current.segments.lastEntry().getValue().getClosingSatoshis();
+        }
+        long untilMillis = monthStart(YearMonth.from(now.minus(minAge).atZone(ZoneOffset.UTC)));
+        if (monthStart(month) >= untilMillis) {
+            return 0;
+        }
+        long invalidationsBefore = invalidations.sum();
+        freezingUntilMillis = untilMillis;
+        try {
+            TreeMap<Long, ColdSegment> segments = new TreeMap<>(current.segments);
+            for (; monthStart(month) < untilMillis; month = month.plusMonths(1)) {
+                ColdSegment segment = freezeMonth(month, opening);
+                segments.put(segment.getMonthStartMillis(), segment);
+                opening = segment.getClosingSatoshis();
+            }
+            Frozen next = new Frozen(Collections.unmodifiableNavigableMap(segments), untilMillis);
+            if (invalidations.sum() != invalidationsBefore || !frozen.compareAndSet(current, next)) {
+                log.info("Entries were added into months being frozen, will freeze them later");
+                return 0;
+            }
+            return segments.size() - current.segments.size();
+        } finally {
+            freezingUntilMillis = NOT_FREEZING;
+            deleteStaleFiles();
+        }
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+        long millis = entry.getDatetime().toEpochMilli();
+        if (millis >= Math.max(frozen.get().untilMillis, freezingUntilMillis)) {
+            return;
+        }
+        invalidations.increment();
+        long monthStart = monthStart(YearMonth.from(entry.getDatetime().atZone(ZoneOffset.UTC)));
+        frozen.updateAndGet(state -> state.truncate(monthStart));
+    }
+
+    @Override
+    public void onCleared() {
+        invalidations.increment();
+        frozen.set(Frozen.EMPTY);
+    }
+
+    /**
+     * Missed entries of other nodes may be in frozen months. Amounts are never negative,
+     * so segments stay only if the balance after the last one is still the sum of entries before its end.
+     */
+    @Override
+    public void onResync(Optional<WalletEntry> total) {
+        Frozen state = frozen.get();
+        if (state.segments.isEmpty()) {
+            return;
+        }
+        long closing = state.segments.lastEntry().getValue().getClosingSatoshis();
+        long actual = repository.getWalletSumBeforeFrom(Instant.ofEpochMilli(state.untilMillis))
+            .map(sum -> toSatoshis(sum.getAmount()))
+            .orElse(0L);
+        if (closing != actual) {
+            invalidations.increment();
+            frozen.compareAndSet(state, Frozen.EMPTY);
+            log.warn("Cold segments don't match entries after resync, dropping them");
+        }
+    }
+
+    public int getSegmentCount() {
+        return frozen.get().segments.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("wallet.cold.segments", this, ColdHistory::getSegmentCount)
+            .description("Frozen months of history")
+            .register(registry);
+        FunctionCounter.builder("wallet.cold.hours-read", coldHours, LongAdder::doubleValue)
+            .description("Hours of history read from cold segments instead of the repository")
+            .register(registry);
+        FunctionCounter.builder("wallet.cold.invalidations", invalidations, LongAdder::doubleValue)
+            .description("Entries added into frozen months")
+            .register(registry);
+    }
+
+    private ColdSegment freezeMonth(YearMonth month, long opening) {
+        Instant start = Instant.ofEpochMilli(monthStart(month));
+        Instant end = Instant.ofEpochMilli(monthStart(month.plusMonths(1)));
+        List<WalletEntry> sums = repository.getWalletSumInRangeByHour(start, end);
+        long[] hours = new long[sums.size()];
+        long[] satoshis = new long[sums.size()];
+        for (int i = 0; i < sums.size(); i++) {
+            hours[i] = sums.get(i).getDatetime().toEpochMilli();
+            satoshis[i] = toSatoshis(sums.get(i).getAmount());
+        }
+        byte[] data = ColdSegment.encode(start.toEpochMilli(), opening, hours, satoshis);
+        try {
+            Files.createDirectories(dir);
+            Path file = dir.resolve(month + SEGMENT_SUFFIX);
+            Path tmp = dir.resolve(month + SEGMENT_SUFFIX + ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write cold segment of " + month, e);
+        }
+        return ColdSegment.decode(data);
+    }
+
+    private void freezeQuietly() {
+        try {
+            int months = freeze(Instant.now());
+            if (months > 0) {
+                log.info("Froze {} months of history", months);
+            }
+        } catch (Exception e) {
+            log.error("Can't freeze history", e);
+        }
+    }
+
+    /**
+     * Takes segments in month order while they follow each other and are readable.
+     */
+    private void load() {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        TreeMap<Long, ColdSegment> segments = new TreeMap<>();
+        long untilMillis = Long.MIN_VALUE;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted().collect(Collectors.toList())) {
+                ColdSegment segment = ColdSegment.decode(Files.readAllBytes(file));
+                long previousClosing = segments.isEmpty() ? 0 : segments.lastEntry().getValue().getClosingSatoshis();
+                if (!segments.isEmpty() && (segment.getMonthStartMillis() != untilMillis ||
+                    segment.getOpeningSatoshis() != previousClosing)) {
+                    break;
+                }
+                segments.put(segment.getMonthStartMillis(), segment);
+                untilMillis = monthStart(YearMonth.from(
+                    Instant.ofEpochMilli(segment.getMonthStartMillis()).atZone(ZoneOffset.UTC)).plusMonths(1));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Stopped loading cold segments at a broken one", e);
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        long closing = segments.lastEntry().getValue().getClosingSatoshis();
+        long actual = repository.getWalletSumBeforeFrom(Instant.ofEpochMilli(untilMillis))
+            .map(sum -> toSatoshis(sum.getAmount()))
+            .orElse(0L);
+        if (closing != actual || segments.firstEntry().getValue().getOpeningSatoshis() != 0) {
+            log.warn("Cold segments don't match entries, dropping them");
+            deleteStaleFiles();
+            return;
+        }
+        frozen.set(new Frozen(Collections.unmodifiableNavigableMap(segments), untilMillis));
+        log.info("Loaded {} cold segments until {}", segments.size(), Instant.ofEpochMilli(untilMillis));
+    }
+
+    private void deleteStaleFiles() {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Set<String> live = frozen.get().segments.values().stream()
+            .map(segment -> YearMonth.from(Instant.ofEpochMilli(segment.getMonthStartMillis())
+                .atZone(ZoneOffset.UTC)) + SEGMENT_SUFFIX)
+            .collect(Collectors.toSet());
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX) && !live.contains(name)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Can't delete stale cold segments", e);
+        }
+    }
+
+    private static long monthStart(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Segments of months [first segment month, untilMillis), without gaps.
+     */
+    private static final class Frozen {
+        static final Frozen EMPTY = new Frozen(Collections.emptyNavigableMap(), Long.MIN_VALUE);
+
+        final NavigableMap<Long, ColdSegment> segments;
+        final long untilMillis;
+
+        Frozen(NavigableMap<Long, ColdSegment> segments, long untilMillis) {
+            this.segments = segments;
+            this.untilMillis = untilMillis;
+        }
+
+        Frozen truncate(long monthStartMillis) {
+            if (monthStartMillis >= untilMillis) {
+                return this;
+            }
+            NavigableMap<Long, ColdSegment> kept = segments.headMap(monthStartMillis, false);
+            return kept.isEmpty() ? EMPTY : new Frozen(kept, monthStartMillis);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.Value;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.toEpochDay;
+
+/**
+ * LRU cache of per-day blocks of hourly balances.
+ * Block of a day holds balance at the start of the day and balances at the end of every hour
+ * of that day which had entries. Block of a day changes only if an entry is added at that day or before,
+ * so adding an entry at T drops blocks from T onward.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class HourlyBalanceCache implements WalletChangeListener, MeterBinder {
+
+    int maxBlocks;
+    LinkedHashMap<Long, DayBlock> blocks;
+    List<PendingLoad> pendingLoads = new ArrayList<>();
+    LongAdder hits = new LongAdder();
+    LongAdder misses = new LongAdder();
+    LongAdder evictions = new LongAdder();
+    @NonFinal
+    long maxCachedDay = Long.MIN_VALUE;
+
+    public HourlyBalanceCache(int maxBlocks) {
+        this.maxBlocks = maxBlocks;
+        this.blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, DayBlock> eldest) {
+                if (size() > HourlyBalanceCache.this.maxBlocks) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Ranges wider than the cache itself would just wipe it out, so they should go directly to repository.
+     */
+    public boolean isCacheable(long firstDay, long lastDay) {
+        return maxBlocks > 0 && lastDay - firstDay < maxBlocks;
+    }
+
+    /**
+     * Returns blocks for every day in [firstDay, lastDay].
+     * Every run of consecutive missing days is loaded with a single loader call.
+     */
+    public List<DayBlock> getBlocks(long firstDay, long lastDay, BlockLoader loader) {
+        int size = Math.toIntExact(lastDay - firstDay + 1);
+        DayBlock[] result = new DayBlock[size];
+        PendingLoad pendingLoad = new PendingLoad();
+        int missing = 0;
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                result[i] = blocks.get(firstDay + i);
+                if (result[i] == null) {
+                    missing++;
+                }
+            }
+            if (missing > 0) {
+                pendingLoads.add(pendingLoad);
+            }
+        }
+        hits.add(size - missing);
+        misses.add(missing);
+        if (missing == 0) {
+            return Arrays.asList(result);
+        }
+
+        List<DayBlock> loaded = new ArrayList<>(missing);
+        try {
+            int i = 0;
+            while (i < size) {
+                if (result[i] != null) {
+                    i++;
+                    continue;
+                }
+                int runEnd = i;
+                while (runEnd < size && result[runEnd] == null) {
+                    runEnd++;
+                }
+                for (DayBlock block : loader.load(firstDay + i, firstDay + runEnd)) {
+                    result[(int) (block.getEpochDay() - firstDay)] = block;
+                    loaded.add(block);
+                }
+                i = runEnd;
+            }
+        } finally {
+            synchronized (this) {
+                pendingLoads.remove(pendingLoad);
+                // blocks invalidated while we were loading can be already outdated
+                for (DayBlock block : loaded) {
+                    if (block.getEpochDay() < pendingLoad.invalidatedFromDay) {
+                        blocks.put(block.getEpochDay(), block);
+                        maxCachedDay = Math.max(maxCachedDay, block.getEpochDay());
+                    }
+                }
+            }
+        }
+        return Arrays.asList(result);
+    }
+
+    public synchronized void invalidateFrom(Instant instant) {
+        long fromDay = toEpochDay(instant);
+        for (PendingLoad pendingLoad : pendingLoads) {
+            pendingLoad.invalidatedFromDay = Math.min(pendingLoad.invalidatedFromDay, fromDay);
+        }
+        if (fromDay > maxCachedDay) {
+            return;
+        }
+        blocks.keySet().removeIf(day -> day >= fromDay);
+        maxCachedDay = fromDay - 1;
+    }
+
+    public synchronized void invalidateAll() {
+        for (PendingLoad pendingLoad : pendingLoads) {
+            pendingLoad.invalidatedFromDay = Long.MIN_VALUE;
+        }
+        blocks.clear();
+        maxCachedDay = Long.MIN_VALUE;
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+        invalidateFrom(entry.getDatetime());
+    }
+
+    @Override
+    public void onCleared() {
+        invalidateAll();
+    }
+
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.balance.cache.requests", hits, LongAdder::doubleValue)
+            .tag("result", "hit")
+            .description("Day blocks served from the cache")
+            .register(registry);
+        FunctionCounter.builder("wallet.balance.cache.requests", misses, LongAdder::doubleValue)
+            .tag("result", "miss")
+            .description("Day blocks loaded from the repository")
+            .register(registry);
+        FunctionCounter.builder("wallet.balance.cache.evictions", evictions, LongAdder::doubleValue)
+            .description("Day blocks evicted because the cache is full")
+            .register(registry);
+        Gauge.builder("wallet.balance.cache.size", this, HourlyBalanceCache::size)
+            .description("Day blocks currently cached")
+            .register(registry);
+    }
+
+    @FunctionalInterface
+    public interface BlockLoader {
+        /**
+         * Should return blocks for every day in [fromDay, toDayExclusive).
+         */
+        List<DayBlock> load(long fromDay, long toDayExclusive);
+    }
+
+    @Value
+    public static class DayBlock {
+        long epochDay;
+        BigDecimal opening;
+        /**
+         * Balances at the end of hours with entries, ordered by time.
+         */
+        List<WalletEntry> changes;
+    }
+
+    private static class PendingLoad {
+        long invalidatedFromDay = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,11 @@
+package com.community.bitcoinwallet.service;
+
+/**
+ * Thrown when an idempotency key which is already stored comes with another entry.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException(String idempotencyKey) {
+        super("Idempotency key " + idempotencyKey + " was already used for another entry");
+    }
+}
@@ -0,0 +1,100 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.atStartOfHour;
+
+/**
+ * Monotonically increasing version of the ledger.
+ * Every change bumps the version and remembers the earliest hour it affected,
+ * so we can tell which version last touched balances up to a given hour.
+ * Keeps only "steps": start of hour -> highest version which touched this hour or the hours before.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class LedgerVersion implements WalletChangeListener {
+
+    int maxSteps;
+    // versions start from zero after restart, so tags from the previous run should not match
+    String instanceId = Long.toString(System.currentTimeMillis(), 36);
+    TreeMap<Long, Long> steps = new TreeMap<>();
+    @NonFinal
+    long version;
+
+    public LedgerVersion(int maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return latest version which changed any entry before the given instant
+     */
+    public synchronized long getVersionBefore(Instant instant) {
+        Map.Entry<Long, Long> step = steps.lowerEntry(instant.toEpochMilli());
+        return step == null ? 0 : step.getValue();
+    }
+
+    /**
+     * Opaque tag of balances returned for a given range, changes when any of them can change.
+     */
+    public String getBalanceTag(Instant from, Instant to, boolean sync) {
+        Instant toAtStart = atStartOfHour(to);
+        return instanceId + "-" + Long.toString(getVersionBefore(toAtStart), 36) +
+            (sync ? "-s-" : "-a-") +
+            Long.toString(atStartOfHour(from).toEpochMilli(), 36) + "-" +
+            Long.toString(toAtStart.toEpochMilli(), 36);
+    }
+
+    public synchronized void bump(Instant earliestAffected) {
+        version++;
+        long hour = atStartOfHour(earliestAffected).toEpochMilli();
+        // later steps are covered by this one, since it has the highest version
+        steps.tailMap(hour, true).clear();
+        steps.put(hour, version);
+        if (steps.size() > maxSteps) {
+            // merging two oldest steps with the higher version can only produce false changes, never miss one
+            long firstHour = steps.pollFirstEntry().getKey();
+            steps.put(firstHour, steps.pollFirstEntry().getValue());
+        }
+    }
+
+    public synchronized void bumpAll() {
+        version++;
+        steps.clear();
+        steps.put(Long.MIN_VALUE, version);
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+        bump(entry.getDatetime());
+    }
+
+    @Override
+    public void onCleared() {
+        bumpAll();
+    }
+
+    @Override
+    public void onBalancesMerged(List<WalletEntry> balances) {
+        Instant earliest = balances.get(0).getDatetime();
+        for (WalletEntry balance : balances) {
+            if (balance.getDatetime().isBefore(earliest)) {
+                earliest = balance.getDatetime();
+            }
+        }
+        // balance at the start of an hour is made by the entries of the previous one
+        bump(earliest.minus(1, ChronoUnit.HOURS));
+    }
+}
@@ -0,0 +1,33 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.repository.WalletRepository;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps caches of this node in step with other nodes sharing the database: changes of other nodes are polled
+ * every pollMillis and notified to listeners of this node, see {@link WalletRepository#pollRemoteChanges()}.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class NodeSync {
+
+    WalletRepository repository;
+
+    public NodeSync(WalletRepository repository, ScheduledExecutorService scheduler, long pollMillis) {
+        this.repository = repository;
+        scheduler.scheduleWithFixedDelay(this::pollQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void pollQuietly() {
+        try {
+            repository.pollRemoteChanges();
+        } catch (Exception e) {
+            log.error("Can't apply changes of other nodes", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.community.bitcoinwallet.service;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a query is not admitted because too much work is already in flight.
+ */
+@Getter
+public class QueryRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public QueryRejectedException(long retryAfterSeconds) {
+        super("Too many balance queries in flight, retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,21 @@
+package com.community.bitcoinwallet.service;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a client has used up its rate limit.
+ */
+@Getter
+public class RateLimitedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public RateLimitedException(long retryAfterSeconds) {
+        super("Rate limit exceeded, retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public static RateLimitedException afterNanos(long waitNanos) {
+        return new RateLimitedException(Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L));
+    }
+}
@@ -0,0 +1,147 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.atStartOfHour;
+
+/**
+ * Compacts entries older than maxAge into one entry per hour, so WALLET and its ts index stop growing
+ * with history. Every chunk of hours is compacted in its own short transaction on the updater pool,
+ * empty stretches of history are skipped.
+ * <p>
+ * History before the watermark (the cutoff of the previous run) is compacted already, so a run walks only
+ * from the watermark to the new cutoff, plus hours before the watermark which got backdated entries since.
+ * The watermark is not persisted, the first run after start walks all history.
+ * <p>
+ * Every run also forgets idempotency keys older than keyTtl, a retry after that stores the entry again.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class RetentionRollup implements WalletChangeListener, MeterBinder {
+
+    WalletRepository repository;
+    Duration maxAge;
+    int chunkHours;
+    Duration keyTtl;
+    NavigableSet<Instant> dirtyHours = new ConcurrentSkipListSet<>();
+    LongAdder reclaimed = new LongAdder();
+    LongAdder expiredKeys = new LongAdder();
+    AtomicLong entryCount = new AtomicLong(-1);
+    @NonFinal
+    volatile Instant watermark;
+
+    public RetentionRollup(WalletRepository repository, Duration maxAge, int chunkHours, Duration keyTtl,
+                           ScheduledExecutorService scheduler, long periodMillis) {
+        this.repository = repository;
+        this.maxAge = maxAge;
+        this.chunkHours = chunkHours;
+        this.keyTtl = keyTtl;
+        scheduler.scheduleWithFixedDelay(this::rollUpQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of entry rows reclaimed
+     */
+    public synchronized long rollUp(Instant now) {
+        Instant cutoff = atStartOfHour(now.minus(maxAge));
+        long before = repository.getEntryCount();
+        Instant compacted = watermark;
+        // moved first, so an entry committed during the walk is either seen by it or marked dirty
+        if (compacted == null || cutoff.isAfter(compacted)) {
+            watermark = cutoff;
+        }
+        long rows = rollUpDirtyHours();
+        Optional<Instant> next = repository.getFirstEntryTs(compacted == null ?
+            Instant.ofEpochMilli(Long.MIN_VALUE) : compacted);
+        while (next.isPresent() && next.get().isBefore(cutoff)) {
+            Instant from = atStartOfHour(next.get());
+            Instant to = from.plus(chunkHours, ChronoUnit.HOURS);
+            if (to.isAfter(cutoff)) {
+                to = cutoff;
+            }
+            rows += repository.rollUpEntries(from, to);
+            next = repository.getFirstEntryTs(to);
+        }
+        long after = repository.getEntryCount();
+        reclaimed.add(rows);
+        entryCount.set(after);
+        long keys = repository.expireEntryKeys(now.minus(keyTtl));
+        expiredKeys.add(keys);
+        log.info("Rolled up entries before {}: {} rows reclaimed, {} rows before, {} after, {} keys expired",
+            cutoff, rows, before, after, keys);
+        return rows;
+    }
+
+    /**
+     * Adjacent dirty hours go in one chunk, but not more than chunkHours.
+     */
+    private long rollUpDirtyHours() {
+        long rows = 0;
+        Instant hour;
+        while ((hour = dirtyHours.pollFirst()) != null) {
+            Instant from = hour;
+            Instant to = hour.plus(1, ChronoUnit.HOURS);
+            while (ChronoUnit.HOURS.between(from, to) < chunkHours && dirtyHours.remove(to)) {
+                to = to.plus(1, ChronoUnit.HOURS);
+            }
+            rows += repository.rollUpEntries(from, to);
+        }
+        return rows;
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+        Instant compacted = watermark;
+        if (compacted != null && entry.getDatetime().isBefore(compacted)) {
+            dirtyHours.add(atStartOfHour(entry.getDatetime()));
+        }
+    }
+
+    @Override
+    public void onCleared() {
+        watermark = null;
+        dirtyHours.clear();
+    }
+
+    private void rollUpQuietly() {
+        try {
+            rollUp(Instant.now());
+        } catch (Exception e) {
+            log.error("Retention rollup failed", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.retention.reclaimed", reclaimed, LongAdder::doubleValue)
+            .description("Entry rows replaced by hourly aggregates")
+            .register(registry);
+        FunctionCounter.builder("wallet.retention.expired-keys", expiredKeys, LongAdder::doubleValue)
+            .description("Idempotency keys forgotten after their ttl")
+            .register(registry);
+        Gauge.builder("wallet.retention.entries", entryCount, AtomicLong::doubleValue)
+            .description("Entry rows after the last rollup, index entries grow with them")
+            .register(registry);
+    }
+}
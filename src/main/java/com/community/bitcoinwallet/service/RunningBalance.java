@@ -0,0 +1,63 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletChangeListener;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.*;
+
+/**
+ * Total of all entries, kept up to date by committed entries, so the latest balance is never queried.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class RunningBalance implements WalletChangeListener {
+
+    private static final Total EMPTY = new Total(0, Long.MIN_VALUE);
+
+    AtomicReference<Total> total = new AtomicReference<>(EMPTY);
+
+    public void reset(WalletEntry walletTotal) {
+        total.set(new Total(toSatoshis(walletTotal.getAmount()), walletTotal.getDatetime().toEpochMilli()));
+    }
+
+    /**
+     * @return balance after all entries, at the end of the hour of the latest entry
+     * (or at the start of the current hour, if there are no entries)
+     */
+    public WalletEntry getLatest() {
+        Total current = total.get();
+        Instant datetime = current.lastEntryMillis == Long.MIN_VALUE ? atStartOfHour(Instant.now()) :
+            atEndOfHour(Instant.ofEpochMilli(current.lastEntryMillis));
+        return new WalletEntry(datetime, fromSatoshis(current.satoshis));
+    }
+
+    @Override
+    public void onEntryAdded(WalletEntry entry) {
+        long satoshis = toSatoshis(entry.getAmount());
+        long entryMillis = entry.getDatetime().toEpochMilli();
+        total.updateAndGet(current -> new Total(current.satoshis + satoshis,
+            Math.max(current.lastEntryMillis, entryMillis)));
+    }
+
+    @Override
+    public void onCleared() {
+        total.set(EMPTY);
+    }
+
+    @Override
+    public void onResync(Optional<WalletEntry> walletTotal) {
+        walletTotal.ifPresentOrElse(this::reset, this::onCleared);
+    }
+
+    @AllArgsConstructor
+    private static class Total {
+        final long satoshis;
+        final long lastEntryMillis;
+    }
+}
@@ -0,0 +1,74 @@
+package com.community.bitcoinwallet.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one computation per key at a time: callers coming with the same key while it runs
+ * wait for it and get the same result (or exception). Nothing is kept after the computation completes,
+ * so results can't be staler than the key says. Results are shared, so they should be immutable.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class SingleFlight<K, V> implements MeterBinder {
+
+    String name;
+    Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    LongAdder executed = new LongAdder();
+    LongAdder shared = new LongAdder();
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    public V execute(K key, Supplier<V> computation) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            shared.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        executed.increment();
+        try {
+            V result = computation.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public long getSharedCount() {
+        return shared.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.single-flight.calls", executed, LongAdder::doubleValue)
+            .tag("name", name)
+            .tag("result", "executed")
+            .description("Calls which ran the computation")
+            .register(registry);
+        FunctionCounter.builder("wallet.single-flight.calls", shared, LongAdder::doubleValue)
+            .tag("name", name)
+            .tag("result", "shared")
+            .description("Calls which got the result of a computation already in flight")
+            .register(registry);
+    }
+}
@@ -0,0 +1,124 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.model.response.WalletEntryResponse;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.atEndOfHour;
+import static com.community.bitcoinwallet.util.DateAndAmountUtils.toUTCZonedDate;
+
+/**
+ * Runs synthetic balance queries over the most recent days of history before the app reports ready,
+ * so first real queries after a deploy don't pay for cold JIT, cold pages, caches and serializers.
+ * Reported as "warmUp" health, which is a part of the readiness group.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class StartupWarmUp implements HealthIndicator, MeterBinder {
+
+    WalletService walletService;
+    WalletRepository repository;
+    ObjectMapper objectMapper;
+    boolean enabled;
+    int days;
+    long budgetMillis;
+    int maxQueries;
+    LongAdder queries = new LongAdder();
+    @NonFinal
+    volatile boolean finished;
+    @NonFinal
+    volatile long durationNanos;
+
+    public StartupWarmUp(WalletService walletService, WalletRepository repository, ObjectMapper objectMapper,
+                         boolean enabled, int days, long budgetMillis, int maxQueries) {
+        this.walletService = walletService;
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.days = days;
+        this.budgetMillis = budgetMillis;
+        this.maxQueries = maxQueries;
+    }
+
+    /**
+     * Runs until the budget or the number of queries is used up. Failures are logged, warm-up is never
+     * a reason for the app not to become ready.
+     */
+    public void run() {
+        if (!enabled) {
+            finished = true;
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        try {
+            Instant to = atEndOfHour(repository.getLastBalanceTs().orElse(Instant.now()));
+            Instant from = to.minus(days, ChronoUnit.DAYS);
+            // pages of recent entries and balances
+            repository.getWalletBalancesByHour(from, to);
+            repository.getBalancesWithinRange(from, to);
+
+            long hours = ChronoUnit.HOURS.between(from, to);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < maxQueries && System.nanoTime() < deadline; i++) {
+                long firstHour = random.nextLong(hours);
+                Instant queryFrom = from.plus(firstHour, ChronoUnit.HOURS).plusSeconds(random.nextInt(3600));
+                Instant queryTo = from.plus(random.nextLong(firstHour + 1, hours + 1), ChronoUnit.HOURS);
+                List<WalletEntry> balances = walletService.getBalanceFull(queryFrom, queryTo, i % 2 == 0);
+                objectMapper.writeValueAsBytes(balances.stream()
+                    .map(balance -> new WalletEntryResponse(toUTCZonedDate(balance.getDatetime()),
+                        balance.getAmount().doubleValue()))
+                    .collect(Collectors.toList()));
+                queries.increment();
+            }
+        } catch (Exception e) {
+            log.warn("Warm-up failed", e);
+        } finally {
+            durationNanos = System.nanoTime() - start;
+            finished = true;
+            log.info("Warm-up finished in {} ms, {} queries", TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                queries.sum());
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder health = finished ? Health.up() : Health.outOfService();
+        return health.withDetail("queries", queries.sum())
+            .withDetail("durationMillis", TimeUnit.NANOSECONDS.toMillis(durationNanos))
+            .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("wallet.warm-up.duration", this, TimeUnit.NANOSECONDS, warmUp -> warmUp.durationNanos)
+            .description("Time spent on warm-up before reporting ready")
+            .register(registry);
+        FunctionCounter.builder("wallet.warm-up.queries", queries, LongAdder::doubleValue)
+            .description("Synthetic balance queries run by warm-up")
+            .register(registry);
+    }
+}
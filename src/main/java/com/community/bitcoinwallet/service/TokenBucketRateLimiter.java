@@ -0,0 +1,162 @@
+package com.community.bitcoinwallet.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-client token buckets, stored as a single "theoretical arrival time" per client (GCRA):
+ * every permit moves it forward by the emission interval, and a request is allowed
+ * while it stays within burst intervals from now. So a check is a map lookup and a CAS, without locks.
+ * A client whose arrival time is in the past has a full bucket, so it carries no state and can be evicted.
+ * <p>
+ * At most maxClients are tracked (give or take concurrent registrations). A new client over that evicts
+ * idle ones by a bounded sweep step, and if none are found, shares a single overflow bucket with other
+ * such clients, so neither the map nor the cost of a check grows with the number of clients.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class TokenBucketRateLimiter implements MeterBinder {
+    private static final int SWEEP_STEP = 16;
+
+    String name;
+    long emissionIntervalNanos;
+    long burst;
+    long toleranceNanos;
+    int maxClients;
+    LongSupplier nanoClock;
+    Map<String, AtomicLong> arrivalTimes = new ConcurrentHashMap<>();
+    AtomicLong overflow;
+    Lock sweepLock = new ReentrantLock();
+    LongAdder allowed = new LongAdder();
+    LongAdder rejected = new LongAdder();
+    LongAdder overflowed = new LongAdder();
+    // guarded by sweepLock
+    @NonFinal
+    Iterator<AtomicLong> sweepCursor = Collections.emptyIterator();
+
+    public TokenBucketRateLimiter(String name, double permitsPerSecond, long burst, int maxClients) {
+        this(name, permitsPerSecond, burst, maxClients, System::nanoTime);
+    }
+
+    TokenBucketRateLimiter(String name, double permitsPerSecond, long burst, int maxClients,
+                           LongSupplier nanoClock) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst should be positive");
+        }
+        this.name = name;
+        this.emissionIntervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+        this.burst = burst;
+        this.toleranceNanos = emissionIntervalNanos * burst;
+        this.maxClients = maxClients;
+        this.nanoClock = nanoClock;
+        this.overflow = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    /**
+     * Requests heavier than the whole burst are charged as the burst, so they are limited, not banned.
+     *
+     * @return 0 if permits are acquired, otherwise nanos until they can be
+     */
+    public long tryAcquire(String client, long permits) {
+        long now = nanoClock.getAsLong();
+        AtomicLong arrivalTime = arrivalTimes.get(client);
+        if (arrivalTime == null) {
+            arrivalTime = register(client, now);
+        }
+        long increment = Math.min(Math.max(permits, 1), burst) * emissionIntervalNanos;
+        while (true) {
+            long current = arrivalTime.get();
+            long next = (current - now > 0 ? current : now) + increment;
+            long wait = next - now - toleranceNanos;
+            if (wait > 0) {
+                rejected.increment();
+                return wait;
+            }
+            if (arrivalTime.compareAndSet(current, next)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong register(String client, long now) {
+        if (arrivalTimes.size() >= maxClients) {
+            sweep(now);
+            if (arrivalTimes.size() >= maxClients) {
+                overflowed.increment();
+                return overflow;
+            }
+        }
+        return arrivalTimes.computeIfAbsent(client, c -> new AtomicLong(now));
+    }
+
+    /**
+     * Visits SWEEP_STEP clients from where the previous sweep stopped, so every idle client is evicted
+     * sooner or later, but a single request never walks the whole map. A concurrent request of an evicted
+     * client can be lost, which only makes the limit a bit softer.
+     */
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_STEP; i++) {
+                if (!sweepCursor.hasNext()) {
+                    sweepCursor = arrivalTimes.values().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                if (sweepCursor.next().get() - now <= 0) {
+                    sweepCursor.remove();
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    public int getClientCount() {
+        return arrivalTimes.size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.rate-limit.requests", allowed, LongAdder::doubleValue)
+            .tag("limiter", name)
+            .tag("result", "allowed")
+            .description("Requests allowed by the rate limiter")
+            .register(registry);
+        FunctionCounter.builder("wallet.rate-limit.requests", rejected, LongAdder::doubleValue)
+            .tag("limiter", name)
+            .tag("result", "rejected")
+            .description("Requests rejected by the rate limiter")
+            .register(registry);
+        FunctionCounter.builder("wallet.rate-limit.overflowed", overflowed, LongAdder::doubleValue)
+            .tag("limiter", name)
+            .description("New clients which were put on the shared overflow bucket, since all slots were busy")
+            .register(registry);
+        Gauge.builder("wallet.rate-limit.clients", this, TokenBucketRateLimiter::getClientCount)
+            .tag("limiter", name)
+            .description("Clients with partially used buckets")
+            .register(registry);
+    }
+}
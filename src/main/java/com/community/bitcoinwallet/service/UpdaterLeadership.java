@@ -0,0 +1,122 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.repository.UpdaterCoordination;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.log4j.Log4j2;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This node's view of the balance updater lease. The leader renews it in the second half of the ttl,
+ * others try to take it every quarter of the ttl, so a dead leader is replaced within 1.25 ttl.
+ * The local view may be stale, work is fenced by the token in the database anyway.
+ */
+@Log4j2
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class UpdaterLeadership implements MeterBinder {
+    private static final long NO_TOKEN = -1;
+
+    UpdaterCoordination coordination;
+    String nodeId;
+    Duration ttl;
+    LongAdder acquired = new LongAdder();
+    @NonFinal
+    volatile long token = NO_TOKEN;
+    @NonFinal
+    volatile long leaseUntilMillis;
+    @NonFinal
+    volatile long nextAttemptMillis;
+
+    public UpdaterLeadership(UpdaterCoordination coordination, String nodeId, Duration ttl) {
+        this.coordination = coordination;
+        this.nodeId = nodeId;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return whether this node holds the lease, as far as it knows
+     */
+    public boolean renew(Instant now) {
+        long millis = now.toEpochMilli();
+        if (token != NO_TOKEN && millis < leaseUntilMillis - ttl.toMillis() / 2) {
+            return true;
+        }
+        if (token == NO_TOKEN && millis < nextAttemptMillis) {
+            return false;
+        }
+        OptionalLong lease = coordination.acquireLease(nodeId, now, ttl);
+        if (lease.isPresent()) {
+            if (lease.getAsLong() != token) {
+                acquired.increment();
+                log.info("Node {} runs the balance updater, fencing token {}", nodeId, lease.getAsLong());
+            }
+            token = lease.getAsLong();
+            leaseUntilMillis = millis + ttl.toMillis();
+            return true;
+        }
+        if (token != NO_TOKEN) {
+            log.warn("Node {} lost the balance updater lease", nodeId);
+        }
+        token = NO_TOKEN;
+        nextAttemptMillis = millis + ttl.toMillis() / 4;
+        return false;
+    }
+
+    /**
+     * Runs the work in a transaction which holds the lease with our token.
+     *
+     * @return false if the lease was taken over, the work is not run then
+     */
+    public boolean runFenced(Instant now, Runnable work) {
+        long current = token;
+        if (current == NO_TOKEN) {
+            return false;
+        }
+        if (!coordination.runFenced(nodeId, current, now, work)) {
+            log.warn("Node {} lost the balance updater lease with token {}", nodeId, current);
+            token = NO_TOKEN;
+            nextAttemptMillis = now.toEpochMilli() + ttl.toMillis() / 4;
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isLeader() {
+        return token != NO_TOKEN;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Lets another node take over right away instead of waiting for the lease to expire.
+     */
+    @PreDestroy
+    public void release() {
+        if (token != NO_TOKEN) {
+            token = NO_TOKEN;
+            coordination.releaseLease(nodeId);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("wallet.updater.leader", this, leadership -> leadership.isLeader() ? 1 : 0)
+            .description("1 if this node runs the balance updater")
+            .register(registry);
+        FunctionCounter.builder("wallet.updater.lease-acquired", acquired, LongAdder::doubleValue)
+            .description("Times this node took over the balance updater lease")
+            .register(registry);
+    }
+}
@@ -1,62 +1,269 @@
 package com.community.bitcoinwallet.service;
 
 
+import com.community.bitcoinwallet.model.BalanceSeries;
+import com.community.bitcoinwallet.model.BalanceWindow;
 import com.community.bitcoinwallet.model.WalletEntry;
-import com.community.bitcoinwallet.repository.H2WalletRepository;
-import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.service.HourlyBalanceCache.DayBlock;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.experimental.FieldDefaults;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static com.community.bitcoinwallet.util.DateAndAmountUtils.*;
 
 @RequiredArgsConstructor
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 public class WalletService {
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+    public static final int MAX_BATCH_WINDOWS = 1000;
+    public static final int MAX_KEY_LENGTH = 255;
 
-    H2WalletRepository repository;
+    WalletRepository repository;
+    HourlyBalanceCache balanceCache;
+    RunningBalance runningBalance;
+    LedgerVersion ledgerVersion;
+    SingleFlight<BalanceQueryKey, List<WalletEntry>> balanceQueries;
+    ColdHistory coldHistory;
 
     public void addEntry(WalletEntry entry) {
         validateWalletEntry(entry);
         repository.addEntry(entry);
     }
 
+    /**
+     * The unique key of the repository decides: the key is stored first, so a duplicate costs one failed insert.
+     * The key is stored with a hash of the entry, so a key reused for another entry is told from a retry.
+     *
+     * @param idempotencyKey null to add the entry unconditionally
+     * @return false if the same entry with the same key was added before, it is not added again then
+     * @throws IdempotencyKeyReusedException if another entry was added with the key
+     */
+    public boolean addEntry(WalletEntry entry, String idempotencyKey) {
+        validateWalletEntry(entry);
+        if (idempotencyKey == null) {
+            repository.addEntry(entry);
+            return true;
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key should not be blank or longer than " +
+                MAX_KEY_LENGTH + " characters");
+        }
+        long payloadHash = payloadHash(entry);
+        OptionalLong stored = repository.addEntry(entry, idempotencyKey, payloadHash);
+        if (stored.isEmpty()) {
+            return true;
+        }
+        if (stored.getAsLong() != payloadHash) {
+            throw new IdempotencyKeyReusedException(idempotencyKey);
+        }
+        return false;
+    }
+
+    /**
+     * First 8 bytes of SHA-256 over ts and amount, amount without trailing zeros so 1.5 and 1.50 match.
+     */
+    static long payloadHash(WalletEntry entry) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest((entry.getDatetime().toEpochMilli() + ":" +
+                entry.getAmount().stripTrailingZeros().toPlainString()).getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Identical concurrent queries share one computation. Version is read before the computation,
+     * so a shared result is never older than the ledger version the caller has seen.
+     *
+     * @return unmodifiable list of balances
+     */
     public List<WalletEntry> getBalanceFull(Instant from, Instant to, boolean sync) {
         validateInstants(from, to);
-        return fillMissingStartOfHours(getBalancesWithHoles(from, to, sync),
-            atEndOfHour(from), atStartOfHour(to));
+        Instant firstHour = atEndOfHour(from);
+        Instant lastHour = atStartOfHour(to);
+        BalanceQueryKey key = new BalanceQueryKey(firstHour, lastHour, sync, ledgerVersion.getVersionBefore(lastHour));
+        return balanceQueries.execute(key, () -> Collections.unmodifiableList(
+            fillMissingStartOfHours(getBalancesWithHoles(from, to, sync), firstHour, lastHour)));
+    }
+
+    /**
+     * @return balance at the start of the hour of a given instant, same as {@link #getBalanceFull} reports it
+     */
+    public WalletEntry getBalanceAt(Instant instant, boolean sync) {
+        if (instant == null) {
+            throw new IllegalArgumentException("Instant should not be null");
+        }
+        Instant hour = atStartOfHour(instant);
+        if (sync) {
+            // a floor seek of a materialized balance, not a scan of history
+            return repository.getWalletBalanceAt(hour);
+        }
+        BigDecimal amount = repository.getBalanceBeforeRange(hour)
+            .map(WalletEntry::getAmount)
+            .orElse(toBigDecimal("0.0"));
+        return new WalletEntry(hour, amount);
+    }
+
+    public WalletEntry getLatestBalance() {
+        return runningBalance.getLatest();
+    }
+
+    /**
+     * Same as calling {@link #getBalanceFull} for every window, but with a single range scan:
+     * windows are sorted and merged, then balances for all of them are computed in one pass.
+     *
+     * @return balances for every window in the order of windows
+     */
+    public List<List<WalletEntry>> getBalanceFullBatch(List<BalanceWindow> windows, boolean sync) {
+        if (windows == null || windows.isEmpty() || windows.size() > MAX_BATCH_WINDOWS) {
+            throw new IllegalArgumentException(
+                String.format("Number of windows should be between 1 and %d", MAX_BATCH_WINDOWS));
+        }
+        for (BalanceWindow window : windows) {
+            if (window == null) {
+                throw new IllegalArgumentException("Windows should not be null");
+            }
+            validateInstants(window.getFrom(), window.getTo());
+        }
+        Integer[] order = new Integer[windows.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> windows.get(i).getFrom()));
+        Instant unionFrom = windows.get(order[0]).getFrom();
+        Instant unionTo = windows.stream().map(BalanceWindow::getTo).max(Comparator.naturalOrder()).get();
+
+        Iterator<WalletEntry> diffs = getBalancesWithHoles(unionFrom, unionTo, sync).iterator();
+        BigDecimal current = diffs.next().getAmount();
+        WalletEntry next = diffs.hasNext() ? diffs.next() : null;
+
+        List<List<WalletEntry>> res = new ArrayList<>(Collections.nCopies(windows.size(), null));
+        int i = 0;
+        while (i < order.length) {
+            // merge overlapping and adjacent windows, so every hour is computed only once
+            Instant mergedFirstHour = atEndOfHour(windows.get(order[i]).getFrom());
+            Instant mergedLastHour = atStartOfHour(windows.get(order[i]).getTo());
+            int mergedEnd = i + 1;
+            while (mergedEnd < order.length &&
+                !atEndOfHour(windows.get(order[mergedEnd]).getFrom()).isAfter(mergedLastHour.plus(1, ChronoUnit.HOURS))) {
+                Instant lastHour = atStartOfHour(windows.get(order[mergedEnd]).getTo());
+                if (lastHour.isAfter(mergedLastHour)) {
+                    mergedLastHour = lastHour;
+                }
+                mergedEnd++;
+            }
+
+            List<WalletEntry> merged = new ArrayList<>();
+            for (Instant hour = mergedFirstHour; !hour.isAfter(mergedLastHour); hour = hour.plus(1, ChronoUnit.HOURS)) {
+                while (next != null && !next.getDatetime().isAfter(hour)) {
+                    current = next.getAmount();
+                    next = diffs.hasNext() ? diffs.next() : null;
+                }
+                merged.add(new WalletEntry(hour, current));
+            }
+            for (; i < mergedEnd; i++) {
+                BalanceWindow window = windows.get(order[i]);
+                int fromIndex = (int) ChronoUnit.HOURS.between(mergedFirstHour, atEndOfHour(window.getFrom()));
+                int toIndex = (int) ChronoUnit.HOURS.between(mergedFirstHour, atStartOfHour(window.getTo())) + 1;
+                res.set(order[i], Collections.unmodifiableList(merged.subList(fromIndex, toIndex)));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Same balances as {@link #getBalanceFull}, but without creating an entry for every hour.
+     */
+    public BalanceSeries getBalanceSeries(Instant from, Instant to, boolean sync) {
+        validateInstants(from, to);
+        Instant firstHour = atEndOfHour(from);
+        int count = Math.toIntExact(
+            ChronoUnit.HOURS.between(firstHour, atStartOfHour(to)) + 1);
+        long[] satoshis = new long[count];
+        Iterator<WalletEntry> diffs = getBalancesWithHoles(from, to, sync).iterator();
+        long current = toSatoshis(diffs.next().getAmount());
+        WalletEntry next = diffs.hasNext() ? diffs.next() : null;
+        long hour = firstHour.toEpochMilli();
+        for (int i = 0; i < count; i++, hour += HOUR_MILLIS) {
+            while (next != null && next.getDatetime().toEpochMilli() <= hour) {
+                current = toSatoshis(next.getAmount());
+                next = diffs.hasNext() ? diffs.next() : null;
+            }
+            satoshis[i] = current;
+        }
+        return new BalanceSeries(firstHour.toEpochMilli(), HOUR_MILLIS, satoshis);
     }
 
     public List<WalletEntry> getBalancesWithHoles(Instant from, Instant to, boolean sync) {
-        return sync ? getBalancesByHourSync(from, to) : getBalancesByHourAsync(from, to);
+        return sync ? getBalancesByHourSyncCached(from, to) : getBalancesByHourAsync(from, to);
     }
 
-    private List<WalletEntry> getBalancesByHourSync(Instant from, Instant to) {
+    private List<WalletEntry> getBalancesByHourSyncCached(Instant from, Instant to) {
         Instant fromAtStart = atStartOfHour(from);
         Instant toStart = atStartOfHour(to);
-        WalletEntry beforeFrom = repository.getWalletSumBeforeFrom(fromAtStart)
-            .map(w -> new WalletEntry(fromAtStart, w.getAmount()))
-            .orElse(new WalletEntry(fromAtStart, DateAndAmountUtils.toBigDecimal(0.0)));
-        BigDecimal[] incrementHolder = new BigDecimal[]{beforeFrom.getAmount()};
-        List<WalletEntry> balanceByHour = repository.getWalletSumInRangeByHour(fromAtStart, toStart)
-            .stream()
-            .map(e -> {
-                BigDecimal increment = incrementHolder[0];
-                BigDecimal amount = e.getAmount().add(increment);
-                incrementHolder[0] = increment.add(e.getAmount());
-                return new WalletEntry(e.getDatetime().plus(1, ChronoUnit.HOURS), amount);
-            })
-            .collect(Collectors.toCollection(LinkedList::new));
-        balanceByHour.add(0, beforeFrom);
+        long firstDay = toEpochDay(fromAtStart);
+        // entries of the hour right before toStart are the last ones we need
+        long lastDay = toStart.isAfter(fromAtStart) ? toEpochDay(toStart.minusMillis(1)) : firstDay;
+        if (!balanceCache.isCacheable(firstDay, lastDay)) {
+            return getBalancesByHourSync(from, to);
+        }
+        List<DayBlock> blocks = balanceCache.getBlocks(firstDay, lastDay, this::loadDayBlocks);
+
+        BigDecimal beforeFrom = blocks.get(0).getOpening();
+        for (WalletEntry change : blocks.get(0).getChanges()) {
+            if (change.getDatetime().isAfter(fromAtStart)) {
+                break;
+            }
+            beforeFrom = change.getAmount();
+        }
+        List<WalletEntry> balanceByHour = new LinkedList<>();
+        balanceByHour.add(new WalletEntry(fromAtStart, beforeFrom));
+        for (DayBlock block : blocks) {
+            for (WalletEntry change : block.getChanges()) {
+                if (change.getDatetime().isAfter(fromAtStart) && !change.getDatetime().isAfter(toStart)) {
+                    balanceByHour.add(new WalletEntry(change.getDatetime(), change.getAmount()));
+                }
+            }
+        }
         return balanceByHour;
     }
 
+    private List<DayBlock> loadDayBlocks(long fromDay, long toDayExclusive) {
+        Iterator<WalletEntry> balances = getBalancesByHourSync(atStartOfDay(fromDay),
+            atStartOfDay(toDayExclusive)).iterator();
+        BigDecimal current = balances.next().getAmount();
+        WalletEntry next = balances.hasNext() ? balances.next() : null;
+        List<DayBlock> res = new ArrayList<>();
+        for (long day = fromDay; day < toDayExclusive; day++) {
+            Instant dayEnd = atStartOfDay(day + 1);
+            BigDecimal opening = current;
+            List<WalletEntry> changes = new ArrayList<>();
+            while (next != null && !next.getDatetime().isAfter(dayEnd)) {
+                changes.add(next);
+                current = next.getAmount();
+                next = balances.hasNext() ? balances.next() : null;
+            }
+            res.add(new DayBlock(day, opening, Collections.unmodifiableList(changes)));
+        }
+        return res;
+    }
+
+    private List<WalletEntry> getBalancesByHourSync(Instant from, Instant to) {
+        return coldHistory.getBalancesByHour(atStartOfHour(from), atStartOfHour(to));
+    }
+
     protected List<WalletEntry> getBalancesByHourAsync(Instant from, Instant to) {
         List<WalletEntry> res = new LinkedList<>(repository.getBalancesWithinRange(from, to));
         Instant fromAtStartOfHour = atStartOfHour(from);
@@ -133,4 +340,11 @@ public class WalletService {
         }
     }
 
+    @Value
+    public static class BalanceQueryKey {
+        Instant firstHour;
+        Instant lastHour;
+        boolean sync;
+        long version;
+    }
 }
@@ -0,0 +1,124 @@
+package com.community.bitcoinwallet.util;
+
+import com.community.bitcoinwallet.model.BalanceSeries;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Binary format of {@link BalanceSeries}:
+ * format version (1 byte), values encoding (1 byte), first hour epoch millis (8 bytes, big-endian),
+ * step millis (varint), count (varint), values.
+ * Values are either raw 8-byte longs or zigzag varints of deltas between neighbours.
+ * Balances rarely change between hours, so deltas usually take a single byte.
+ */
+public final class BalanceSeriesCodec {
+    public static final byte FORMAT_VERSION = 1;
+    public static final byte RAW = 0;
+    public static final byte DELTA_VARINT = 1;
+
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final int HEADER_BYTES = 2 + 8 + 2 * MAX_VARINT_BYTES;
+
+    private BalanceSeriesCodec() {
+    }
+
+    public static void encode(BalanceSeries series, OutputStream out) throws IOException {
+        long[] values = series.getSatoshis();
+        byte[] buf = new byte[HEADER_BYTES + values.length * MAX_VARINT_BYTES];
+        int pos = 0;
+        buf[pos++] = FORMAT_VERSION;
+        buf[pos++] = DELTA_VARINT;
+        pos = writeLong(buf, pos, series.getFirstHourMillis());
+        pos = writeVarint(buf, pos, series.getStepMillis());
+        pos = writeVarint(buf, pos, values.length);
+        long previous = 0;
+        for (long value : values) {
+            pos = writeVarint(buf, pos, zigzag(value - previous));
+            previous = value;
+        }
+        out.write(buf, 0, pos);
+    }
+
+    public static BalanceSeries decode(InputStream in) throws IOException {
+        byte[] buf = in.readAllBytes();
+        int[] pos = new int[]{0};
+        if (buf.length < 10 || buf[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported balance series format");
+        }
+        byte encoding = buf[1];
+        pos[0] = 2;
+        long firstHour = readLong(buf, pos);
+        long step = readVarint(buf, pos);
+        int count = Math.toIntExact(readVarint(buf, pos));
+        if (count < 0 || count > buf.length) {
+            throw new IllegalArgumentException("Wrong values count: " + count);
+        }
+        long[] values = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            if (encoding == RAW) {
+                values[i] = readLong(buf, pos);
+            } else if (encoding == DELTA_VARINT) {
+                previous += unzigzag(readVarint(buf, pos));
+                values[i] = previous;
+            } else {
+                throw new IllegalArgumentException("Unknown values encoding: " + encoding);
+            }
+        }
+        return new BalanceSeries(firstHour, step, values);
+    }
+
+    static int writeLong(byte[] buf, int pos, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (value >>> shift);
+        }
+        return pos;
+    }
+
+    static int writeVarint(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    static long readLong(byte[] buf, int[] pos) {
+        checkAvailable(buf, pos[0], 8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buf[pos[0]++] & 0xFF);
+        }
+        return value;
+    }
+
+    static long readVarint(byte[] buf, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkAvailable(buf, pos[0], 1);
+            byte b = buf[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static void checkAvailable(byte[] buf, int pos, int bytes) {
+        if (pos + bytes > buf.length) {
+            throw new IllegalArgumentException("Unexpected end of balance series");
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
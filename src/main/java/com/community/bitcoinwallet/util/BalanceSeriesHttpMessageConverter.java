@@ -0,0 +1,39 @@
+package com.community.bitcoinwallet.util;
+
+import com.community.bitcoinwallet.model.BalanceSeries;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+public class BalanceSeriesHttpMessageConverter extends AbstractHttpMessageConverter<BalanceSeries> {
+    public static final String BALANCE_SERIES_VALUE = "application/vnd.wallet.balance-series";
+    public static final MediaType BALANCE_SERIES = MediaType.valueOf(BALANCE_SERIES_VALUE);
+
+    public BalanceSeriesHttpMessageConverter() {
+        super(BALANCE_SERIES);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return BalanceSeries.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected BalanceSeries readInternal(Class<? extends BalanceSeries> clazz, HttpInputMessage inputMessage)
+        throws IOException {
+        try {
+            return BalanceSeriesCodec.decode(inputMessage.getBody());
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new HttpMessageNotReadableException(e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(BalanceSeries series, HttpOutputMessage outputMessage) throws IOException {
+        BalanceSeriesCodec.encode(series, outputMessage.getBody());
+    }
+}
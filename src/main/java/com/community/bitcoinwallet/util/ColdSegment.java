@@ -0,0 +1,192 @@
+package com.community.bitcoinwallet.util;
+
+import java.util.zip.CRC32;
+
+import static com.community.bitcoinwallet.util.BalanceSeriesCodec.readLong;
+import static com.community.bitcoinwallet.util.BalanceSeriesCodec.readVarint;
+import static com.community.bitcoinwallet.util.BalanceSeriesCodec.unzigzag;
+import static com.community.bitcoinwallet.util.BalanceSeriesCodec.writeLong;
+import static com.community.bitcoinwallet.util.BalanceSeriesCodec.writeVarint;
+import static com.community.bitcoinwallet.util.BalanceSeriesCodec.zigzag;
+
+/**
+ * Immutable hourly sums of entries of one closed month, in columns:
+ * magic (4 bytes), format version (1 byte), month start epoch millis (8 bytes), opening balance satoshis (8 bytes),
+ * hour count (varint), byte length of the hours column (varint),
+ * hours column: varint deltas between hours with entries (the first one is from the month start),
+ * sums column: zigzag varint satoshi sums of these hours, then CRC32 of everything before (4 bytes).
+ * Decoding is a sequential pass over two byte runs, a month takes a few kilobytes.
+ */
+public final class ColdSegment {
+    public static final byte FORMAT_VERSION = 1;
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+    private static final int MAGIC = 0x57435347;
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 8 + 2 * MAX_VARINT_BYTES;
+
+    private final byte[] data;
+    private final long monthStartMillis;
+    private final long openingSatoshis;
+    private final long closingSatoshis;
+    private final int hourCount;
+    private final int hoursOffset;
+    private final int sumsOffset;
+
+    private ColdSegment(byte[] data, long monthStartMillis, long openingSatoshis, long closingSatoshis,
+                        int hourCount, int hoursOffset, int sumsOffset) {
+        this.data = data;
+        this.monthStartMillis = monthStartMillis;
+        this.openingSatoshis = openingSatoshis;
+        this.closingSatoshis = closingSatoshis;
+        this.hourCount = hourCount;
+        this.hoursOffset = hoursOffset;
+        this.sumsOffset = sumsOffset;
+    }
+
+    /**
+     * @param hourMillis start of every hour with entries, ascending, not before the month start
+     * @param sums       satoshi sums of these hours
+     */
+    public static byte[] encode(long monthStartMillis, long openingSatoshis, long[] hourMillis, long[] sums) {
+        byte[] hours = new byte[hourMillis.length * MAX_VARINT_BYTES];
+        int hoursLength = 0;
+        long previous = monthStartMillis / HOUR_MILLIS;
+        for (long millis : hourMillis) {
+            long hour = Math.floorDiv(millis, HOUR_MILLIS);
+            hoursLength = writeVarint(hours, hoursLength, hour - previous);
+            previous = hour;
+        }
+        byte[] buf = new byte[HEADER_BYTES + hoursLength + sums.length * MAX_VARINT_BYTES + 4];
+        int pos = writeInt(buf, 0, MAGIC);
+        buf[pos++] = FORMAT_VERSION;
+        pos = writeLong(buf, pos, monthStartMillis);
+        pos = writeLong(buf, pos, openingSatoshis);
+        pos = writeVarint(buf, pos, hourMillis.length);
+        pos = writeVarint(buf, pos, hoursLength);
+        System.arraycopy(hours, 0, buf, pos, hoursLength);
+        pos += hoursLength;
+        for (long sum : sums) {
+            pos = writeVarint(buf, pos, zigzag(sum));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf, 0, pos);
+        pos = writeInt(buf, pos, (int) crc.getValue());
+        byte[] res = new byte[pos];
+        System.arraycopy(buf, 0, res, 0, pos);
+        return res;
+    }
+
+    /**
+     * Checks the checksum and sums up the month, values are decoded again on every read.
+     */
+    public static ColdSegment decode(byte[] data) {
+        if (data.length < 4 + 1 + 8 + 8 + 2 + 4) {
+            throw new IllegalArgumentException("Cold segment is too short");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int[] pos = new int[]{data.length - 4};
+        if ((int) crc.getValue() != readInt(data, pos)) {
+            throw new IllegalArgumentException("Cold segment checksum mismatch");
+        }
+        pos[0] = 0;
+        if (readInt(data, pos) != MAGIC || data[pos[0]++] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported cold segment format");
+        }
+        long monthStartMillis = readLong(data, pos);
+        long openingSatoshis = readLong(data, pos);
+        int hourCount = Math.toIntExact(readVarint(data, pos));
+        int hoursLength = Math.toIntExact(readVarint(data, pos));
+        int hoursOffset = pos[0];
+        int sumsOffset = hoursOffset + hoursLength;
+        if (hourCount < 0 || hoursLength < 0 || sumsOffset > data.length - 4) {
+            throw new IllegalArgumentException("Wrong cold segment columns");
+        }
+        ColdSegment segment = new ColdSegment(data, monthStartMillis, openingSatoshis, openingSatoshis,
+            hourCount, hoursOffset, sumsOffset);
+        long closing = openingSatoshis;
+        Cursor cursor = segment.cursor();
+        while (cursor.next()) {
+            closing += cursor.getSumSatoshis();
+        }
+        return new ColdSegment(data, monthStartMillis, openingSatoshis, closing, hourCount, hoursOffset,
+            sumsOffset);
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getMonthStartMillis() {
+        return monthStartMillis;
+    }
+
+    /**
+     * @return balance before the month
+     */
+    public long getOpeningSatoshis() {
+        return openingSatoshis;
+    }
+
+    /**
+     * @return balance after the month
+     */
+    public long getClosingSatoshis() {
+        return closingSatoshis;
+    }
+
+    public int getHourCount() {
+        return hourCount;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks hours with entries in time order.
+     */
+    public final class Cursor {
+        private final int[] hoursPos = new int[]{hoursOffset};
+        private final int[] sumsPos = new int[]{sumsOffset};
+        private int read;
+        private long hour = monthStartMillis / HOUR_MILLIS;
+        private long sum;
+
+        private Cursor() {
+        }
+
+        public boolean next() {
+            if (read == hourCount) {
+                return false;
+            }
+            hour += readVarint(data, hoursPos);
+            sum = unzigzag(readVarint(data, sumsPos));
+            read++;
+            return true;
+        }
+
+        public long getHourMillis() {
+            return hour * HOUR_MILLIS;
+        }
+
+        public long getSumSatoshis() {
+            return sum;
+        }
+    }
+
+    private static int writeInt(byte[] buf, int pos, int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (value >>> shift);
+        }
+        return pos;
+    }
+
+    private static int readInt(byte[] buf, int[] pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (buf[pos[0]++] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -5,6 +5,8 @@ import java.math.RoundingMode;
 import java.time.*;
 
 public final class DateAndAmountUtils {
+    private static final long MILLIS_IN_DAY = 24 * 3600 * 1000L;
+
     private DateAndAmountUtils() {
     }
 
@@ -19,6 +21,14 @@ public final class DateAndAmountUtils {
         return atStartOfHour(instant).plusSeconds(3600);
     }
 
+    public static long toEpochDay(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), MILLIS_IN_DAY);
+    }
+
+    public static Instant atStartOfDay(long epochDay) {
+        return Instant.ofEpochMilli(epochDay * MILLIS_IN_DAY);
+    }
+
     public static ZonedDateTime toUTCZonedDate(Instant instant) {
         return instant.atZone(ZoneOffset.UTC);
     }
@@ -31,5 +41,13 @@ public final class DateAndAmountUtils {
         return new BigDecimal(amount).setScale(8, RoundingMode.HALF_UP);
     }
 
+    public static long toSatoshis(BigDecimal amount) {
+        return amount.setScale(8, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromSatoshis(long satoshis) {
+        return BigDecimal.valueOf(satoshis, 8);
+    }
+
 
 }
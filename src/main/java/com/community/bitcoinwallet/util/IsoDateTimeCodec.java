@@ -0,0 +1,206 @@
+package com.community.bitcoinwallet.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Formats and parses the API datetime format (yyyy-MM-dd'T'HH:mm:ssXXX, UTC is written as +00:00)
+ * without formatters and intermediate strings.
+ * Balances go hour by hour, so the yyyy-MM-dd'T' prefix is cached per thread and reused within a day.
+ */
+public final class IsoDateTimeCodec {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
+    private static final DateTimeFormatter FORMATTER_FOR_UTC = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final char[] UTC_SUFFIX = "+00:00".toCharArray();
+    private static final char[] HOUR_ALIGNED_UTC_SUFFIX = ":00:00+00:00".toCharArray();
+    private static final int DATE_PREFIX_LENGTH = 11;
+    private static final int MAX_LENGTH = 25;
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private IsoDateTimeCodec() {
+    }
+
+    public static void write(ZonedDateTime ts, JsonGenerator gen) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        int length = format(ts, buffer);
+        if (length < 0) {
+            gen.writeString(slowFormat(ts));
+        } else {
+            gen.writeString(buffer.chars, 0, length);
+        }
+    }
+
+    public static String format(ZonedDateTime ts) {
+        if (ts == null) {
+            return null;
+        }
+        Buffer buffer = BUFFERS.get();
+        int length = format(ts, buffer);
+        return length < 0 ? slowFormat(ts) : new String(buffer.chars, 0, length);
+    }
+
+    /**
+     * Parses ISO datetime with offset, UTC values don't go through the formatter.
+     */
+    public static ZonedDateTime parse(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Datetime should not be null");
+        }
+        char[] chars = text.toCharArray();
+        ZonedDateTime parsed = parseUtc(chars, 0, chars.length);
+        if (parsed != null) {
+            return parsed;
+        }
+        try {
+            return ZonedDateTime.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Wrong datetime: " + text);
+        }
+    }
+
+    /**
+     * Parses yyyy-MM-dd'T'HH:mm:ss[.fraction] followed by Z or +00:00.
+     *
+     * @return parsed value in UTC or null, if text is in any other format
+     */
+    public static ZonedDateTime parseUtc(char[] text, int offset, int length) {
+        if (length < 20 || text[offset + 4] != '-' || text[offset + 7] != '-' || text[offset + 10] != 'T' ||
+            text[offset + 13] != ':' || text[offset + 16] != ':') {
+            return null;
+        }
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset + 5, 2);
+        int day = digits(text, offset + 8, 2);
+        int hour = digits(text, offset + 11, 2);
+        int minute = digits(text, offset + 14, 2);
+        int second = digits(text, offset + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+        int pos = offset + 19;
+        int end = offset + length;
+        int nanos = 0;
+        if (text[pos] == '.') {
+            pos++;
+            int fractionDigits = 0;
+            while (pos < end && text[pos] >= '0' && text[pos] <= '9') {
+                if (++fractionDigits > 9) {
+                    return null;
+                }
+                nanos = nanos * 10 + (text[pos++] - '0');
+            }
+            if (fractionDigits == 0) {
+                return null;
+            }
+            for (int i = fractionDigits; i < 9; i++) {
+                nanos *= 10;
+            }
+        }
+        if (!isUtcSuffix(text, pos, end)) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.of(LocalDateTime.of(year, month, day, hour, minute, second, nanos), ZoneOffset.UTC);
+        } catch (DateTimeException e) {
+            // let the generic parser report it
+            return null;
+        }
+    }
+
+    private static boolean isUtcSuffix(char[] text, int pos, int end) {
+        if (end - pos == 1) {
+            return text[pos] == 'Z';
+        }
+        if (end - pos != UTC_SUFFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < UTC_SUFFIX.length; i++) {
+            if (text[pos + i] != UTC_SUFFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(char[] text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = text[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return length of formatted value or -1 if it can't be formatted without formatter
+     */
+    private static int format(ZonedDateTime ts, Buffer buffer) {
+        LocalDateTime local = ts.toLocalDateTime();
+        int offsetSeconds = ts.getOffset().getTotalSeconds();
+        if (local.getYear() < 1 || local.getYear() > 9999 || offsetSeconds % 60 != 0) {
+            return -1;
+        }
+        char[] chars = buffer.chars;
+        long epochDay = local.toLocalDate().toEpochDay();
+        if (buffer.epochDay != epochDay) {
+            writeDigits(chars, 0, local.getYear(), 4);
+            chars[4] = '-';
+            writeDigits(chars, 5, local.getMonthValue(), 2);
+            chars[7] = '-';
+            writeDigits(chars, 8, local.getDayOfMonth(), 2);
+            chars[10] = 'T';
+            buffer.epochDay = epochDay;
+        }
+        writeDigits(chars, DATE_PREFIX_LENGTH, local.getHour(), 2);
+        boolean utc = ts.getZone().equals(ZoneOffset.UTC);
+        if (utc && local.getMinute() == 0 && local.getSecond() == 0) {
+            System.arraycopy(HOUR_ALIGNED_UTC_SUFFIX, 0, chars, 13, HOUR_ALIGNED_UTC_SUFFIX.length);
+            return MAX_LENGTH;
+        }
+        chars[13] = ':';
+        writeDigits(chars, 14, local.getMinute(), 2);
+        chars[16] = ':';
+        writeDigits(chars, 17, local.getSecond(), 2);
+        if (utc) {
+            System.arraycopy(UTC_SUFFIX, 0, chars, 19, UTC_SUFFIX.length);
+            return MAX_LENGTH;
+        }
+        if (offsetSeconds == 0) {
+            chars[19] = 'Z';
+            return 20;
+        }
+        int offsetMinutes = Math.abs(offsetSeconds) / 60;
+        chars[19] = offsetSeconds < 0 ? '-' : '+';
+        writeDigits(chars, 20, offsetMinutes / 60, 2);
+        chars[22] = ':';
+        writeDigits(chars, 23, offsetMinutes % 60, 2);
+        return MAX_LENGTH;
+    }
+
+    private static void writeDigits(char[] chars, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static String slowFormat(ZonedDateTime ts) {
+        return ts.getZone().equals(ZoneOffset.UTC) ?
+            FORMATTER_FOR_UTC.format(ts) + "+00:00" : FORMATTER.format(ts);
+    }
+
+    private static class Buffer {
+        long epochDay = Long.MIN_VALUE;
+        char[] chars = new char[MAX_LENGTH];
+    }
+}
@@ -0,0 +1,36 @@
+package com.community.bitcoinwallet.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.datatype.jsr310.deser.InstantDeserializer;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+
+/**
+ * Parses UTC datetimes (Z or +00:00) directly from parser buffer,
+ * everything else goes to the default jsr310 deserializer.
+ */
+public class ZonedDateTimeDeserializer extends StdDeserializer<ZonedDateTime> {
+
+    public ZonedDateTimeDeserializer() {
+        super(ZonedDateTime.class);
+    }
+
+    @Override
+    public ZonedDateTime deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.hasToken(JsonToken.VALUE_STRING)) {
+            ZonedDateTime parsed = IsoDateTimeCodec.parseUtc(p.getTextCharacters(), p.getTextOffset(),
+                p.getTextLength());
+            if (parsed != null) {
+                // same as the default deserializer does
+                return ctxt.isEnabled(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE) ?
+                    parsed.withZoneSameInstant(ctxt.getTimeZone().toZoneId()) : parsed;
+            }
+        }
+        return InstantDeserializer.ZONED_DATE_TIME.deserialize(p, ctxt);
+    }
+}
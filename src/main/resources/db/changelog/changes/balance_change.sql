@@ -0,0 +1,14 @@
+--liquibase formatted sql
+
+--changeset prediger:create_balance_change
+CREATE TABLE PUBLIC.BALANCE_CHANGE(
+   SEQ bigint not null primary key,
+   FROM_TS bigint not null,
+   TO_TS bigint not null
+);
+CREATE TABLE PUBLIC.BALANCE_CHANGE_VALUE(
+   SEQ bigint not null,
+   TS bigint not null,
+   BITCOINS DECIMAL(15,8) not null,
+   primary key(SEQ, TS)
+);
@@ -0,0 +1,14 @@
+--liquibase formatted sql
+
+--changeset prediger:create_entry_key
+-- primary key is the unique index which makes add-entry with a key idempotent
+CREATE TABLE PUBLIC.ENTRY_KEY(
+   IDEMPOTENCY_KEY varchar(255) not null primary key,
+   -- hash of the entry which brought the key, a retry with another entry is rejected
+   PAYLOAD_HASH bigint not null,
+   CREATED bigint not null
+);
+
+--changeset prediger:index_entry_key_created
+-- keys are expired by creation time
+CREATE INDEX ENTRY_KEY_BY_CREATED_IDX ON PUBLIC.ENTRY_KEY(CREATED);
@@ -0,0 +1,25 @@
+--liquibase formatted sql
+
+--changeset prediger:create_updater_lease
+CREATE TABLE PUBLIC.UPDATER_LEASE(
+   NAME varchar(64) not null primary key,
+   OWNER varchar(128) not null,
+   EXPIRES bigint not null,
+   TOKEN bigint not null
+);
+INSERT INTO PUBLIC.UPDATER_LEASE(NAME, OWNER, EXPIRES, TOKEN) VALUES ('balance-updater', '', 0, 0);
+-- never leased, its row lock serializes claims of recompute ranges
+INSERT INTO PUBLIC.UPDATER_LEASE(NAME, OWNER, EXPIRES, TOKEN) VALUES ('recompute-ranges', '', 0, 0);
+
+--changeset prediger:create_recompute_range
+CREATE TABLE PUBLIC.RECOMPUTE_RANGE(
+   ID bigint auto_increment primary key,
+   FROM_TS bigint not null,
+   TO_TS bigint not null,
+   OWNER varchar(128),
+   CLAIMED_UNTIL bigint not null default 0
+);
+
+--changeset prediger:create_change_feed_lease
+-- never leased, its token is the last sequence number of BALANCE_CHANGE and its row lock orders appends
+INSERT INTO PUBLIC.UPDATER_LEASE(NAME, OWNER, EXPIRES, TOKEN) VALUES ('change-feed', '', 0, 0);
@@ -0,0 +1,16 @@
+--liquibase formatted sql
+
+--changeset prediger:create_node_change
+-- changes of every node sharing the database, other nodes apply them to their caches
+CREATE TABLE PUBLIC.NODE_CHANGE(
+   SEQ bigint auto_increment primary key,
+   NODE varchar(128) not null,
+   KIND char(1) not null,
+   FROM_TS bigint not null,
+   TO_TS bigint not null,
+   BITCOINS DECIMAL(15,8) not null,
+   CREATED bigint not null
+);
+CREATE INDEX NODE_CHANGE_BY_CREATED_IDX ON NODE_CHANGE(CREATED);
+-- never leased, its token is the last pruned sequence number of NODE_CHANGE (after updater_lease.sql)
+INSERT INTO PUBLIC.UPDATER_LEASE(NAME, OWNER, EXPIRES, TOKEN) VALUES ('node-changes', '', 0, 0);
@@ -21,4 +21,34 @@ public class ExecutrorsTestConfiguration {
     public ExecutorService parallelUpdateExecutorService() {
         return Mockito.mock(ExecutorService.class);
     }
+
+    @Bean
+    public ScheduledExecutorService retentionScheduler() {
+        return Mockito.mock(ScheduledExecutorService.class);
+    }
+
+    @Bean
+    public ScheduledExecutorService coldHistoryScheduler() {
+        return Mockito.mock(ScheduledExecutorService.class);
+    }
+
+    @Bean
+    public ScheduledExecutorService nodeSyncScheduler() {
+        return Mockito.mock(ScheduledExecutorService.class);
+    }
+
+    @Bean
+    public ScheduledExecutorService changeFeedScheduler() {
+        return Mockito.mock(ScheduledExecutorService.class);
+    }
+
+    @Bean
+    public ExecutorService balanceStreamExecutor() {
+        return Mockito.mock(ExecutorService.class);
+    }
+
+    @Bean
+    public ExecutorService balanceStreamSendExecutor() {
+        return Mockito.mock(ExecutorService.class);
+    }
 }
@@ -1,14 +1,19 @@
 package com.community.bitcoinwallet.controller;
 
 import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.BalanceSeries;
 import com.community.bitcoinwallet.model.WalletEntry;
 import com.community.bitcoinwallet.model.requests.AddWalletEntryRequest;
 import com.community.bitcoinwallet.model.requests.BalanceRequest;
 import com.community.bitcoinwallet.model.response.GeneralResponseData;
 import com.community.bitcoinwallet.model.response.Status;
 import com.community.bitcoinwallet.model.response.WalletEntryResponse;
-import com.community.bitcoinwallet.repository.H2WalletRepository;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.service.BalanceQueryExecutor;
+import com.community.bitcoinwallet.service.TokenBucketRateLimiter;
 import com.community.bitcoinwallet.service.WalletService;
+import com.community.bitcoinwallet.util.BalanceSeriesCodec;
+import com.community.bitcoinwallet.util.BalanceSeriesHttpMessageConverter;
 import com.community.bitcoinwallet.util.DateAndAmountUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -16,12 +21,19 @@ import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -29,15 +41,23 @@ import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.community.bitcoinwallet.controller.AbstractController.INTERNAL_ERROR_RESPONSE;
+import static com.community.bitcoinwallet.controller.AbstractController.RATE_LIMITED_RESPONSE;
 import static com.community.bitcoinwallet.controller.WalletController.OK_RESPONSE;
 import static com.community.bitcoinwallet.controller.WalletController.WRONG_JSON_RESPONSE;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
 @AutoConfigureMockMvc
+// slow refill, so a drained bucket stays drained for the whole request
+@TestPropertySource(properties = {"wallet.rate-limit.api-keys=test-key",
+    "wallet.rate-limit.add-entry.per-second=1", "wallet.rate-limit.balance.per-second=1"})
 class WalletControllerTest extends SpringTest {
     private final static String ENTRY = "/api/wallet/add-entry";
     private final static String BALANCE = "/api/wallet/balance";
@@ -51,12 +71,18 @@ class WalletControllerTest extends SpringTest {
     @Autowired
     private WalletService service;
     @Autowired
-    private H2WalletRepository repository;
+    private WalletRepository repository;
+    @Autowired
+    private BalanceQueryExecutor balanceQueryExecutor;
+    @Autowired
+    @Qualifier("addEntryRateLimiter")
+    private TokenBucketRateLimiter addEntryRateLimiter;
 
     @BeforeEach
     public void setUp() {
         repository.clear();
         ReflectionTestUtils.setField(controller, "walletService", service);
+        ReflectionTestUtils.setField(controller, "balanceQueryExecutor", balanceQueryExecutor);
     }
 
 
@@ -69,6 +95,49 @@ class WalletControllerTest extends SpringTest {
             .isEqualTo(OK_RESPONSE);
     }
 
+    @Test
+    public void addEntryShouldNotAddEntryTwiceWithSameIdempotencyKey() throws Exception {
+        AddWalletEntryRequest request = new AddWalletEntryRequest(Instant.parse("2020-10-20T12:00:00Z")
+            .atZone(ZoneOffset.UTC), 10.1);
+        for (int i = 0; i < 3; i++) {
+            MvcResult mvcResult = perform(post(ENTRY)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(WalletController.IDEMPOTENCY_KEY, "producer-1:42")
+                .content(objectMapper.writeValueAsBytes(request)))
+                .andExpect(status().isOk())
+                .andReturn();
+            Assertions.assertThat(readJson(mvcResult, GeneralResponseData.class)).isEqualTo(OK_RESPONSE);
+            Assertions.assertThat(mvcResult.getResponse().getHeader(WalletController.IDEMPOTENT_REPLAYED))
+                .isEqualTo(i == 0 ? null : "true");
+        }
+        postJsonSuccess(ENTRY, request);
+
+        Assertions.assertThat(repository.getWalletTotal().map(WalletEntry::getAmount))
+            .contains(DateAndAmountUtils.toBigDecimal("20.2"));
+    }
+
+    @Test
+    public void addEntryShouldRejectIdempotencyKeyReusedForAnotherEntry() throws Exception {
+        perform(post(ENTRY)
+            .contentType(MediaType.APPLICATION_JSON)
+            .header(WalletController.IDEMPOTENCY_KEY, "producer-1:43")
+            .content(objectMapper.writeValueAsBytes(new AddWalletEntryRequest(
+                Instant.parse("2020-10-20T12:00:00Z").atZone(ZoneOffset.UTC), 10.1))))
+            .andExpect(status().isOk());
+        MvcResult mvcResult = perform(post(ENTRY)
+            .contentType(MediaType.APPLICATION_JSON)
+            .header(WalletController.IDEMPOTENCY_KEY, "producer-1:43")
+            .content(objectMapper.writeValueAsBytes(new AddWalletEntryRequest(
+                Instant.parse("2020-10-20T12:00:00Z").atZone(ZoneOffset.UTC), 5.0))))
+            .andExpect(status().isUnprocessableEntity())
+            .andReturn();
+
+        Assertions.assertThat(readJson(mvcResult, GeneralResponseData.class))
+            .isEqualTo(AbstractController.KEY_REUSED_RESPONSE);
+        Assertions.assertThat(repository.getWalletTotal().map(WalletEntry::getAmount))
+            .contains(DateAndAmountUtils.toBigDecimal("10.1"));
+    }
+
     @Test
     public void addEntryShouldReturnErrorIfIncorrectDataPassed() throws Exception {
         MvcResult mvcResult = postJsonClientError(ENTRY, "this is not a json!");
@@ -179,6 +248,89 @@ class WalletControllerTest extends SpringTest {
     }
 
 
+    @Test
+    public void balanceShouldReturnNotModifiedUntilRangeIsChanged() throws Exception {
+        BalanceRequest request = new BalanceRequest(Instant.parse("2020-10-20T12:30:00Z").atZone(ZoneOffset.UTC),
+            Instant.parse("2020-10-20T15:30:00Z").atZone(ZoneOffset.UTC));
+        String eTag = postJsonSuccess(BALANCE, request).getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertThat(eTag).isNotNull();
+
+        postJsonWithETag(BALANCE, request, eTag)
+            .andExpect(status().isNotModified())
+            .andExpect(header().string(HttpHeaders.ETAG, eTag))
+            .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+
+        // after the range, should not change anything
+        service.addEntry(new WalletEntry(Instant.parse("2020-10-20T15:10:00Z"),
+            DateAndAmountUtils.toBigDecimal("10.1")));
+        postJsonWithETag(BALANCE, request, eTag)
+            .andExpect(status().isNotModified());
+
+        service.addEntry(new WalletEntry(Instant.parse("2020-10-20T14:10:00Z"),
+            DateAndAmountUtils.toBigDecimal("10.1")));
+        MvcResult mvcResult = postJsonWithETag(BALANCE, request, eTag)
+            .andExpect(status().isOk())
+            .andReturn();
+        Assertions.assertThat(mvcResult.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(eTag);
+        Assertions.assertThat(readJson(mvcResult, new TypeReference<List<WalletEntryResponse>>() {
+        })).isEqualTo(Arrays.asList(
+            new WalletEntryResponse(Instant.parse("2020-10-20T13:00:00Z").atZone(ZoneId.of("UTC")), 0.0),
+            new WalletEntryResponse(Instant.parse("2020-10-20T14:00:00Z").atZone(ZoneId.of("UTC")), 0.0),
+            new WalletEntryResponse(Instant.parse("2020-10-20T15:00:00Z").atZone(ZoneId.of("UTC")), 10.1)));
+    }
+
+    @Test
+    public void balanceShouldReturnBinarySeriesIfRequested() throws Exception {
+        repository.addEntry(new WalletEntry(Instant.parse("2020-10-20T12:10:00Z"),
+            DateAndAmountUtils.toBigDecimal("10.1")));
+        repository.addEntry(new WalletEntry(Instant.parse("2020-10-20T14:15:00Z"),
+            DateAndAmountUtils.toBigDecimal("11.2")));
+
+        MvcResult mvcResult = perform(
+            post(BALANCE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(BalanceSeriesHttpMessageConverter.BALANCE_SERIES)
+                .content(objectMapper.writeValueAsBytes(
+                    new BalanceRequest(Instant.parse("2020-10-20T11:30:00Z").atZone(ZoneOffset.UTC),
+                        Instant.parse("2020-10-20T15:30:00Z").atZone(ZoneOffset.UTC)))))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CONTENT_TYPE, BalanceSeriesHttpMessageConverter.BALANCE_SERIES_VALUE))
+            .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+            .andReturn();
+        Assertions.assertThat(BalanceSeriesCodec.decode(
+            new ByteArrayInputStream(mvcResult.getResponse().getContentAsByteArray())))
+            .isEqualTo(new BalanceSeries(Instant.parse("2020-10-20T12:00:00Z").toEpochMilli(), 3600_000L,
+                new long[]{0, 1_010_000_000L, 1_010_000_000L, 2_130_000_000L}));
+    }
+
+    @Test
+    public void balanceAtAndLatestShouldReturnSingleEntry() throws Exception {
+        repository.addEntry(new WalletEntry(Instant.parse("2020-10-20T12:10:00Z"),
+            DateAndAmountUtils.toBigDecimal("10.1")));
+        repository.addEntry(new WalletEntry(Instant.parse("2020-10-20T13:15:00Z"),
+            DateAndAmountUtils.toBigDecimal("11.2")));
+
+        MvcResult mvcResult = mvc.perform(get(BALANCE + "/at").param("ts", "2020-10-20T15:30:00+02:00"))
+            .andExpect(status().is2xxSuccessful())
+            .andReturn();
+        Assertions.assertThat(readJson(mvcResult, WalletEntryResponse.class)).isEqualTo(
+            new WalletEntryResponse(Instant.parse("2020-10-20T13:00:00Z").atZone(ZoneId.of("UTC")), 10.1));
+
+        mvcResult = mvc.perform(get(BALANCE + "/latest"))
+            .andExpect(status().is2xxSuccessful())
+            .andReturn();
+        Assertions.assertThat(readJson(mvcResult, WalletEntryResponse.class)).isEqualTo(
+            new WalletEntryResponse(Instant.parse("2020-10-20T14:00:00Z").atZone(ZoneId.of("UTC")), 21.3));
+
+        mvc.perform(get(BALANCE + "/at").param("ts", "yesterday"))
+            .andExpect(status().is4xxClientError());
+        mvcResult = mvc.perform(get(BALANCE + "/at"))
+            .andExpect(status().is4xxClientError())
+            .andReturn();
+        Assertions.assertThat(readJson(mvcResult, GeneralResponseData.class))
+            .isEqualTo(AbstractController.WRONG_PARAMETERS_RESPONSE);
+    }
+
     @Test
     public void balanceShouldReturnErrorIfIncorrectDataPassed() throws Exception {
         MvcResult mvcResult = postJsonClientError(BALANCE, "this is not a json!");
@@ -225,8 +377,79 @@ class WalletControllerTest extends SpringTest {
             .isEqualTo(INTERNAL_ERROR_RESPONSE);
     }
 
+    @Test
+    public void balanceShouldReturnServiceUnavailableIfQueryIsNotAdmitted() throws Exception {
+        ReflectionTestUtils.setField(controller, "balanceQueryExecutor", new BalanceQueryExecutor(task -> {
+            throw new RejectedExecutionException("Queue is full");
+        }, 1, 1, 7));
+        MvcResult mvcResult = perform(
+            post(BALANCE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(
+                    new BalanceRequest(Instant.parse("2020-10-11T10:30:00Z").atZone(ZoneOffset.UTC),
+                        Instant.parse("2020-10-11T11:45:00Z").atZone(ZoneOffset.UTC)))))
+            .andExpect(status().isServiceUnavailable())
+            .andExpect(header().string(HttpHeaders.RETRY_AFTER, "7"))
+            .andReturn();
+        Assertions.assertThat(readJson(mvcResult, GeneralResponseData.class))
+            .isEqualTo(AbstractController.BUSY_RESPONSE);
+    }
+
+    @Test
+    public void addEntryShouldAnswerTooManyRequestsOnceClientIpRunsOutOfPermits() throws Exception {
+        addEntryRateLimiter.tryAcquire("ip:10.0.0.1", 2000);
+        byte[] body = objectMapper.writeValueAsBytes(new AddWalletEntryRequest(
+            Instant.parse("2020-10-11T10:30:00Z").atZone(ZoneOffset.UTC), 10.0));
+
+        MvcResult mvcResult = perform(post(ENTRY)
+            .with(remoteAddr("10.0.0.1"))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body))
+            .andExpect(status().isTooManyRequests())
+            .andExpect(header().exists(HttpHeaders.RETRY_AFTER))
+            .andReturn();
+        Assertions.assertThat(readJson(mvcResult, GeneralResponseData.class)).isEqualTo(RATE_LIMITED_RESPONSE);
+
+        // unknown key doesn't get a bucket of its own
+        perform(post(ENTRY)
+            .with(remoteAddr("10.0.0.1"))
+            .header(RateLimitInterceptor.API_KEY_HEADER, "made-up-key")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body))
+            .andExpect(status().isTooManyRequests());
+        perform(post(ENTRY)
+            .with(remoteAddr("10.0.0.1"))
+            .header(RateLimitInterceptor.API_KEY_HEADER, "test-key")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body))
+            .andExpect(status().isOk());
+    }
+
+    @Test
+    public void balanceShouldChargeLongSyncRangesExtraPermits() throws Exception {
+        // ~24000 hours, times 4 for sync, is over the whole burst of 100 permits of 720
+        MvcResult mvcResult = perform(post(BALANCE)
+            .with(remoteAddr("10.0.0.2"))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsBytes(new BalanceRequest(
+                Instant.parse("2018-01-01T00:00:00Z").atZone(ZoneOffset.UTC),
+                Instant.parse("2020-10-11T00:00:00Z").atZone(ZoneOffset.UTC)))))
+            .andExpect(status().isTooManyRequests())
+            .andExpect(header().exists(HttpHeaders.RETRY_AFTER))
+            .andReturn();
+        Assertions.assertThat(readJson(mvcResult, GeneralResponseData.class)).isEqualTo(RATE_LIMITED_RESPONSE);
+
+        perform(post(BALANCE)
+            .with(remoteAddr("10.0.0.3"))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsBytes(new BalanceRequest(
+                Instant.parse("2020-10-11T00:00:00Z").atZone(ZoneOffset.UTC),
+                Instant.parse("2020-10-11T12:00:00Z").atZone(ZoneOffset.UTC)))))
+            .andExpect(status().isOk());
+    }
+
     private MvcResult postJsonSuccess(String url, Object body) throws Exception {
-        return mvc.perform(
+        return perform(
             post(url)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsBytes(body)))
@@ -234,8 +457,16 @@ class WalletControllerTest extends SpringTest {
             .andReturn();
     }
 
+    private ResultActions postJsonWithETag(String url, Object body, String eTag) throws Exception {
+        return perform(
+            post(url)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .content(objectMapper.writeValueAsBytes(body)));
+    }
+
     private MvcResult postJsonClientError(String url, Object body) throws Exception {
-        return mvc.perform(
+        return perform(
             post(url)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsBytes(body)))
@@ -244,7 +475,7 @@ class WalletControllerTest extends SpringTest {
     }
 
     private MvcResult postJsonServerError(String url, Object body) throws Exception {
-        return mvc.perform(
+        return perform(
             post(url)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsBytes(body)))
@@ -252,6 +483,22 @@ class WalletControllerTest extends SpringTest {
             .andReturn();
     }
 
+    /**
+     * Balance queries are answered asynchronously, so their result is dispatched once it is ready.
+     */
+    private ResultActions perform(MockHttpServletRequestBuilder request) throws Exception {
+        ResultActions actions = mvc.perform(request);
+        MvcResult mvcResult = actions.andReturn();
+        return mvcResult.getRequest().isAsyncStarted() ? mvc.perform(asyncDispatch(mvcResult)) : actions;
+    }
+
+    private static RequestPostProcessor remoteAddr(String addr) {
+        return request -> {
+            request.setRemoteAddr(addr);
+            return request;
+        };
+    }
+
     protected <T> T readJson(MvcResult content, Class<T> cls) throws IOException {
         return objectMapper.readValue(content.getResponse().getContentAsString(), cls);
     }
@@ -0,0 +1,146 @@
+package com.community.bitcoinwallet.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of every endpoint of a load run, written as load-report.json and index.html.
+ */
+class LoadReport {
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+    private volatile long startNanos;
+    private volatile long stopNanos;
+
+    void start() {
+        recorders.clear();
+        startNanos = System.nanoTime();
+        recording = true;
+    }
+
+    void stop() {
+        stopNanos = System.nanoTime();
+        recording = false;
+    }
+
+    void record(String endpoint, long latencyNanos) {
+        if (recording) {
+            recorders.computeIfAbsent(endpoint, name -> new Recorder()).add(latencyNanos);
+        }
+    }
+
+    void error(String endpoint) {
+        if (recording) {
+            recorders.computeIfAbsent(endpoint, name -> new Recorder()).errors.increment();
+        }
+    }
+
+    double getSeconds() {
+        return (stopNanos - startNanos) / 1e9;
+    }
+
+    /**
+     * @return count, errors, throughput per second and latency percentiles in millis by endpoint
+     */
+    Map<String, Map<String, Object>> summarize() {
+        Map<String, Map<String, Object>> res = new LinkedHashMap<>();
+        recorders.keySet().stream().sorted().forEach(endpoint -> {
+            long[] latencies = recorders.get(endpoint).sorted();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", latencies.length);
+            summary.put("errors", recorders.get(endpoint).errors.sum());
+            summary.put("throughput", round(latencies.length / getSeconds()));
+            for (double percentile : PERCENTILES) {
+                summary.put(name(percentile), millis(latencies, percentile));
+            }
+            summary.put("max", latencies.length == 0 ? 0 : round(latencies[latencies.length - 1] / 1e6));
+            res.put(endpoint, summary);
+        });
+        return res;
+    }
+
+    void write(Path dir, Map<String, Object> settings, List<String> violations) throws IOException {
+        Files.createDirectories(dir);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("seconds", round(getSeconds()));
+        report.put("endpoints", summarize());
+        report.put("violations", violations);
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(dir.resolve("load-report.json").toFile(),
+            report);
+        Files.writeString(dir.resolve("index.html"), html(settings, violations));
+    }
+
+    static String name(double percentile) {
+        return "p" + (percentile == Math.rint(percentile) ? Long.toString((long) percentile) :
+            Double.toString(percentile).replace(".", ""));
+    }
+
+    private String html(Map<String, Object> settings, List<String> violations) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><meta charset=\"utf-8\">" +
+            "<title>Load test</title></head><body><h1>Load test</h1><p>");
+        settings.forEach((key, value) -> html.append(key).append(": ").append(value).append("<br>"));
+        html.append("seconds: ").append(round(getSeconds())).append("</p><table border=\"1\"><tr><th>endpoint</th>");
+        List<String> columns = new ArrayList<>(List.of("count", "errors", "throughput"));
+        Arrays.stream(PERCENTILES).mapToObj(LoadReport::name).forEach(columns::add);
+        columns.add("max");
+        columns.forEach(column -> html.append("<th>").append(column).append("</th>"));
+        html.append("</tr>");
+        summarize().forEach((endpoint, summary) -> {
+            html.append("<tr><td>").append(endpoint).append("</td>");
+            columns.forEach(column -> html.append("<td>").append(summary.get(column)).append("</td>"));
+            html.append("</tr>");
+        });
+        html.append("</table><p>Latencies are in milliseconds, throughput is per second.</p>");
+        if (!violations.isEmpty()) {
+            html.append("<h2>Thresholds crossed</h2><ul>");
+            violations.forEach(violation -> html.append("<li>").append(violation).append("</li>"));
+            html.append("</ul>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        // nearest rank
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return round(sorted[Math.max(0, rank - 1)] / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static final class Recorder {
+        private final LongAdder errors = new LongAdder();
+        private long[] latencies = new long[1024];
+        private int size;
+
+        synchronized void add(long latencyNanos) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latencyNanos;
+        }
+
+        synchronized long[] sorted() {
+            long[] res = Arrays.copyOf(latencies, size);
+            Arrays.sort(res);
+            return res;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.community.bitcoinwallet.load;
+
+import com.community.bitcoinwallet.BitcoinWalletApplication;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end load test, run with "gradle loadTest": boots the app with in-memory H2 on a random port,
+ * drives a mix of add-entry and balance queries from many clients over HTTP and writes throughput,
+ * latency percentiles and updater lag into build/reports/load.
+ * <p>
+ * Everything is set with loadTest.* system properties, e.g. "gradle loadTest -DloadTest.clients=64".
+ * Latency and throughput thresholds (loadTest.maxP99Millis, loadTest.maxP99Millis.&lt;endpoint&gt;,
+ * loadTest.minThroughput) are off by default. The error rate of every endpoint is checked against
+ * loadTest.maxErrorRate (or loadTest.maxErrorRate.&lt;endpoint&gt;, 0.01 by default), and an endpoint of the mix
+ * without a single successful request always fails. A crossed threshold fails the run after the report is written.
+ */
+@Tag("load")
+@SpringBootTest(classes = BitcoinWalletApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+        "wallet.warm-up.enabled=false",
+        "wallet.rate-limit.enabled=false",
+        "wallet.cold.dir=build/load/cold",
+        "wallet.ledger.dir=build/load/ledger"})
+public class LoadTest {
+
+    private static final String ADD_ENTRY = "add-entry";
+    private static final String ADD_ENTRY_BACKDATED = "add-entry-backdated";
+    private static final String BALANCE_SYNC = "balance-sync";
+    private static final String BALANCE_ASYNC = "balance-async";
+    // from add-entry until the updater commits a run after it
+    private static final String UPDATER_LAG = "updater-lag";
+
+    private static final int CLIENTS = Integer.getInteger("loadTest.clients", 32);
+    private static final int WARM_UP_SECONDS = Integer.getInteger("loadTest.warmUpSeconds", 10);
+    private static final int DURATION_SECONDS = Integer.getInteger("loadTest.durationSeconds", 30);
+    private static final int HISTORY_DAYS = Integer.getInteger("loadTest.historyDays", 30);
+    private static final int HISTORY_ENTRIES = Integer.getInteger("loadTest.historyEntries", 20_000);
+    // shares in percent: of all requests, of add-entry requests, of balance queries
+    private static final int ADD_ENTRY_PERCENT = Integer.getInteger("loadTest.addEntryPercent", 30);
+    private static final int BACKDATED_PERCENT = Integer.getInteger("loadTest.backdatedPercent", 10);
+    private static final int SYNC_PERCENT = Integer.getInteger("loadTest.syncPercent", 50);
+    private static final List<Integer> SPAN_HOURS = Arrays.stream(
+        System.getProperty("loadTest.spanHours", "1,24,168,720").split(","))
+        .map(String::trim)
+        .map(Integer::valueOf)
+        .collect(Collectors.toList());
+    private static final String REPORT_DIR = System.getProperty("loadTest.reportDir", "build/reports/load");
+    private static final String MAX_ERROR_RATE = System.getProperty("loadTest.maxErrorRate", "0.01");
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+    private final LoadReport report = new LoadReport();
+    private volatile boolean running = true;
+
+    @Test
+    public void mixedLoad() throws Exception {
+        Instant now = Instant.now();
+        seedHistory(now);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS + 1);
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.execute(this::runClient);
+        }
+        clients.execute(this::probeUpdaterLag);
+        // history is recomputed and pools and JIT warm up meanwhile
+        TimeUnit.SECONDS.sleep(WARM_UP_SECONDS);
+        report.start();
+        TimeUnit.SECONDS.sleep(DURATION_SECONDS);
+        report.stop();
+        running = false;
+        clients.shutdown();
+        Assertions.assertThat(clients.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        List<String> violations = checkThresholds();
+        report.write(Paths.get(REPORT_DIR), settings(), violations);
+        report.summarize().forEach((endpoint, summary) -> System.out.println(endpoint + ": " + summary));
+        System.out.println("Report: " + Paths.get(REPORT_DIR, "index.html").toAbsolutePath());
+        Assertions.assertThat(violations).as("crossed thresholds").isEmpty();
+    }
+
+    private void seedHistory(Instant now) {
+        Random random = new Random(42);
+        long spanMillis = HISTORY_DAYS * 24 * 3600 * 1000L;
+        Instant from = now.minus(HISTORY_DAYS, ChronoUnit.DAYS);
+        for (int i = 0; i < HISTORY_ENTRIES; i++) {
+            repository.addEntry(new WalletEntry(from.plusMillis((long) (random.nextDouble() * spanMillis)),
+                DateAndAmountUtils.toBigDecimal(random.nextInt(10_000) / 100.0)));
+        }
+    }
+
+    private void runClient() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            if (random.nextInt(100) < ADD_ENTRY_PERCENT) {
+                boolean backdated = random.nextInt(100) < BACKDATED_PERCENT;
+                Instant ts = backdated ? randomPastInstant(random) : now();
+                send(backdated ? ADD_ENTRY_BACKDATED : ADD_ENTRY, post("/api/wallet/add-entry",
+                    "{\"amount\":" + (random.nextInt(1, 10_000) / 100.0) + ",\"datetime\":\"" + ts + "\"}"));
+            } else {
+                boolean sync = random.nextInt(100) < SYNC_PERCENT;
+                int span = Math.min(SPAN_HOURS.get(random.nextInt(SPAN_HOURS.size())), HISTORY_DAYS * 24);
+                Instant to = DateAndAmountUtils.atStartOfHour(Instant.now())
+                    .minus(random.nextInt(HISTORY_DAYS * 24 - span + 1), ChronoUnit.HOURS);
+                send(sync ? BALANCE_SYNC : BALANCE_ASYNC, post("/api/wallet/balance?sync=" + sync,
+                    "{\"from\":\"" + to.minus(span, ChronoUnit.HOURS) + "\",\"to\":\"" + to + "\"}"));
+            }
+        }
+    }
+
+    /**
+     * Adds an entry every 100 ms and follows the change feed until an updater run which recomputed the hour
+     * of the entry commits after it.
+     */
+    private void probeUpdaterLag() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+                long start = System.nanoTime();
+                Instant ts = now();
+                HttpResponse<Void> added = client.send(post("/api/wallet/add-entry",
+                    "{\"amount\":0.01,\"datetime\":\"" + ts + "\"}"), HttpResponse.BodyHandlers.discarding());
+                if (added.statusCode() != 200) {
+                    report.error(UPDATER_LAG);
+                    continue;
+                }
+                Instant hour = DateAndAmountUtils.atStartOfHour(ts);
+                // ahead of the feed, so it answers with its head right away
+                long after = getChanges(Long.MAX_VALUE, 0).get("lastSequence").asLong();
+                boolean covered = false;
+                while (running && !covered) {
+                    JsonNode next = getChanges(after, 5000);
+                    if (next.get("resync").asBoolean()) {
+                        // the record of the run may be gone already
+                        break;
+                    }
+                    for (JsonNode change : next.get("changes")) {
+                        covered |= covers(change, hour);
+                    }
+                    after = next.get("lastSequence").asLong();
+                }
+                if (covered) {
+                    report.record(UPDATER_LAG, System.nanoTime() - start);
+                } else if (running) {
+                    report.error(UPDATER_LAG);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                report.error(UPDATER_LAG);
+            }
+        }
+    }
+
+    /**
+     * A run recomputes balances at the end of hours in [from, to).
+     */
+    private static boolean covers(JsonNode change, Instant hour) {
+        Instant from = ZonedDateTime.parse(change.get("from").asText()).toInstant();
+        Instant to = ZonedDateTime.parse(change.get("to").asText()).toInstant();
+        return !from.isAfter(hour) && to.isAfter(hour);
+    }
+
+    private JsonNode getChanges(long after, long waitMillis) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri("/api/wallet/balance/changes?limit=100&after=" + after +
+            "&waitMillis=" + waitMillis))
+            .timeout(Duration.ofMillis(waitMillis + 5000))
+            .GET()
+            .build();
+        return objectMapper.readTree(client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    private void send(String endpoint, HttpRequest request) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 200) {
+                report.record(endpoint, System.nanoTime() - start);
+            } else {
+                report.error(endpoint);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } catch (Exception e) {
+            report.error(endpoint);
+        }
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(uri(path))
+            .timeout(Duration.ofSeconds(30))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    private static Instant randomPastInstant(ThreadLocalRandom random) {
+        return now().minusMillis(random.nextLong(HISTORY_DAYS * 24 * 3600 * 1000L));
+    }
+
+    private List<String> checkThresholds() {
+        List<String> violations = new ArrayList<>();
+        Map<String, Map<String, Object>> summary = report.summarize();
+        for (String endpoint : expectedEndpoints()) {
+            Map<String, Object> values = summary.get(endpoint);
+            if (values == null || ((Number) values.get("count")).longValue() == 0) {
+                violations.add(endpoint + " has no successful requests");
+            }
+        }
+        summary.forEach((endpoint, values) -> {
+            long count = ((Number) values.get("count")).longValue();
+            long errors = ((Number) values.get("errors")).longValue();
+            double maxErrorRate = Double.parseDouble(System.getProperty("loadTest.maxErrorRate." + endpoint,
+                MAX_ERROR_RATE));
+            if (errors > maxErrorRate * (count + errors)) {
+                violations.add(endpoint + " failed " + errors + " of " + (count + errors) + " requests, above " +
+                    maxErrorRate * 100 + "%");
+            }
+            Long maxP99 = Long.getLong("loadTest.maxP99Millis." + endpoint, Long.getLong("loadTest.maxP99Millis"));
+            double p99 = (Double) values.get("p99");
+            if (maxP99 != null && p99 > maxP99) {
+                violations.add(endpoint + " p99 " + p99 + " ms is above " + maxP99 + " ms");
+            }
+        });
+        String minThroughput = System.getProperty("loadTest.minThroughput");
+        if (minThroughput != null) {
+            double throughput = summary.entrySet().stream()
+                .filter(endpoint -> !endpoint.getKey().equals(UPDATER_LAG))
+                .mapToDouble(endpoint -> (Double) endpoint.getValue().get("throughput"))
+                .sum();
+            if (throughput < Double.parseDouble(minThroughput)) {
+                violations.add("throughput " + throughput + "/s is below " + minThroughput + "/s");
+            }
+        }
+        return violations;
+    }
+
+    private static List<String> expectedEndpoints() {
+        List<String> endpoints = new ArrayList<>();
+        if (ADD_ENTRY_PERCENT > 0 && BACKDATED_PERCENT < 100) {
+            endpoints.add(ADD_ENTRY);
+        }
+        if (ADD_ENTRY_PERCENT > 0 && BACKDATED_PERCENT > 0) {
+            endpoints.add(ADD_ENTRY_BACKDATED);
+        }
+        if (ADD_ENTRY_PERCENT < 100 && SYNC_PERCENT > 0) {
+            endpoints.add(BALANCE_SYNC);
+        }
+        if (ADD_ENTRY_PERCENT < 100 && SYNC_PERCENT < 100) {
+            endpoints.add(BALANCE_ASYNC);
+        }
+        endpoints.add(UPDATER_LAG);
+        return endpoints;
+    }
+
+    private static Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("clients", CLIENTS);
+        settings.put("durationSeconds", DURATION_SECONDS);
+        settings.put("historyDays", HISTORY_DAYS);
+        settings.put("historyEntries", HISTORY_ENTRIES);
+        settings.put("addEntryPercent", ADD_ENTRY_PERCENT);
+        settings.put("backdatedPercent", BACKDATED_PERCENT);
+        settings.put("syncPercent", SYNC_PERCENT);
+        settings.put("spanHours", SPAN_HOURS);
+        return settings;
+    }
+}
@@ -0,0 +1,98 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.config.H2JdbcConfig;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class H2NodeChangesTest extends SpringTest {
+
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    private H2JdbcConfig h2JdbcConfig;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+    }
+
+    @Test
+    public void shouldApplyChangesOfOtherNodesOnce() {
+        H2WalletRepository nodeA = node("node-a");
+        H2WalletRepository nodeB = node("node-b");
+        RecordingListener listener = new RecordingListener();
+        nodeA.addChangeListener(listener);
+
+        // the first poll starts from a snapshot, the entry is in its total
+        nodeB.addEntry(entry("2020-09-01T10:30:00Z", "1.0"));
+        nodeA.pollRemoteChanges();
+        Assertions.assertThat(listener.resyncs).containsExactly(Optional.of(entry("2020-09-01T10:30:00Z", "1.0")));
+        Assertions.assertThat(listener.entries).isEmpty();
+
+        nodeB.addEntry(entry("2020-09-01T11:30:00Z", "2.0"));
+        nodeA.addEntry(entry("2020-09-01T12:30:00Z", "4.0"));
+        nodeA.pollRemoteChanges();
+        nodeA.pollRemoteChanges();
+        Assertions.assertThat(listener.entries).containsExactly(
+            entry("2020-09-01T12:30:00Z", "4.0"),
+            entry("2020-09-01T11:30:00Z", "2.0"));
+
+        nodeB.recomputeBalances(Instant.parse("2020-09-01T10:00:00Z"), Instant.parse("2020-09-01T12:00:00Z"));
+        nodeA.pollRemoteChanges();
+        Assertions.assertThat(listener.merges).containsExactly(List.of(
+            entry("2020-09-01T11:00:00Z", "1.0"),
+            entry("2020-09-01T12:00:00Z", "3.0")));
+
+        nodeB.clear();
+        nodeA.pollRemoteChanges();
+        Assertions.assertThat(listener.resyncs).hasSize(2).endsWith(Optional.empty());
+        Assertions.assertThat(listener.entries).hasSize(2);
+    }
+
+    private H2WalletRepository node(String nodeId) {
+        return new H2WalletRepository(h2JdbcConfig.ingestJdbcTemplate(), h2JdbcConfig.readJdbcTemplate(),
+            h2JdbcConfig.updaterJdbcTemplate(), new H2Partitions(h2JdbcConfig.ddlDataSource(),
+            h2JdbcConfig.readJdbcTemplate().getJdbcTemplate()),
+            new H2NodeChanges(true, nodeId, h2JdbcConfig.readJdbcTemplate(), h2JdbcConfig.updaterJdbcTemplate(),
+                h2JdbcConfig.updaterTransactionManager(), 100, 60000, 3600000));
+    }
+
+    private static WalletEntry entry(String ts, String amount) {
+        return new WalletEntry(Instant.parse(ts), DateAndAmountUtils.toBigDecimal(amount));
+    }
+
+    private static class RecordingListener implements WalletChangeListener {
+        private final List<WalletEntry> entries = new ArrayList<>();
+        private final List<List<WalletEntry>> merges = new ArrayList<>();
+        private final List<Optional<WalletEntry>> resyncs = new ArrayList<>();
+
+        @Override
+        public void onEntryAdded(WalletEntry entry) {
+            entries.add(entry);
+        }
+
+        @Override
+        public void onCleared() {
+        }
+
+        @Override
+        public void onBalancesMerged(List<WalletEntry> balances) {
+            merges.add(balances);
+        }
+
+        @Override
+        public void onResync(Optional<WalletEntry> total) {
+            resyncs.add(total);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.RecomputeRange;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class H2UpdaterCoordinationTest extends SpringTest {
+
+    private static final Duration TTL = Duration.ofSeconds(5);
+    private static final Instant FIRST = Instant.parse("2020-10-01T00:00:00Z");
+
+    @Autowired
+    private UpdaterCoordination coordination;
+
+    @Test
+    public void shouldGiveLeaseToOneNodeAndFenceFormerLeader() {
+        Instant now = Instant.now();
+        OptionalLong tokenA = coordination.acquireLease("node-a", now, TTL);
+        Assertions.assertThat(tokenA).isPresent();
+        Assertions.assertThat(coordination.acquireLease("node-b", now, TTL)).isEmpty();
+        Assertions.assertThat(coordination.acquireLease("node-a", now.plusSeconds(1), TTL)).isEqualTo(tokenA);
+
+        AtomicInteger runs = new AtomicInteger();
+        Assertions.assertThat(coordination.runFenced("node-a", tokenA.getAsLong(), now, runs::incrementAndGet))
+            .isTrue();
+
+        // node-a stopped renewing
+        Instant later = now.plusSeconds(7);
+        OptionalLong tokenB = coordination.acquireLease("node-b", later, TTL);
+        Assertions.assertThat(tokenB).isPresent();
+        Assertions.assertThat(tokenB.getAsLong()).isGreaterThan(tokenA.getAsLong());
+        Assertions.assertThat(coordination.runFenced("node-a", tokenA.getAsLong(), later, runs::incrementAndGet))
+            .isFalse();
+        Assertions.assertThat(runs).hasValue(1);
+
+        coordination.releaseLease("node-b");
+        Assertions.assertThat(coordination.acquireLease("node-a", later, TTL)).isPresent();
+        coordination.releaseLease("node-a");
+    }
+
+    @Test
+    public void shouldNotClaimRangesOverlappingClaimedOnes() {
+        Instant now = Instant.now();
+        coordination.offerRanges(List.of(range(0, 10), range(20, 30)));
+
+        RecomputeRange first = coordination.claimRange("node-a", now, TTL).orElseThrow();
+        Assertions.assertThat(first.getFrom()).isEqualTo(hour(0));
+        // claimed hours may be recomputed without the new entry, so they are offered again
+        coordination.offerRanges(List.of(range(5, 15)));
+        RecomputeRange third = coordination.claimRange("node-b", now, TTL).orElseThrow();
+        Assertions.assertThat(third.getFrom()).isEqualTo(hour(20));
+        Assertions.assertThat(coordination.claimRange("node-c", now, TTL)).isEmpty();
+
+        coordination.completeRange(first);
+        RecomputeRange second = coordination.claimRange("node-c", now, TTL).orElseThrow();
+        Assertions.assertThat(second.getFrom()).isEqualTo(hour(5));
+        Assertions.assertThat(second.getTo()).isEqualTo(hour(15));
+
+        coordination.completeRange(second);
+
+        // claim of a dead node expires
+        Assertions.assertThat(coordination.claimRange("node-a", now.plus(TTL), TTL)).contains(third);
+        coordination.completeRange(third);
+        Assertions.assertThat(coordination.claimRange("node-a", now.plus(TTL), TTL)).isEmpty();
+    }
+
+    @Test
+    public void shouldLetReleasedRangeBeClaimedAgain() {
+        Instant now = Instant.now();
+        coordination.offerRanges(List.of(range(40, 50)));
+
+        RecomputeRange range = coordination.claimRange("node-a", now, TTL).orElseThrow();
+        Assertions.assertThat(coordination.claimRange("node-b", now, TTL)).isEmpty();
+        coordination.releaseRange(range);
+        Assertions.assertThat(coordination.claimRange("node-b", now, TTL)).contains(range);
+        coordination.completeRange(range);
+    }
+
+    @Test
+    public void shouldNotOfferHoursPendingInOfferedRanges() {
+        Instant now = Instant.now();
+        coordination.offerRanges(List.of(range(100, 110)));
+        coordination.offerRanges(List.of(range(100, 110), range(104, 108)));
+        coordination.offerRanges(List.of(range(96, 112)));
+
+        RecomputeRange first = coordination.claimRange("node-a", now, TTL).orElseThrow();
+        RecomputeRange second = coordination.claimRange("node-a", now, TTL).orElseThrow();
+        RecomputeRange third = coordination.claimRange("node-a", now, TTL).orElseThrow();
+        Assertions.assertThat(List.of(first.getFrom(), first.getTo(), second.getFrom(), second.getTo(),
+            third.getFrom(), third.getTo())).containsExactly(hour(100), hour(110), hour(96), hour(100),
+            hour(110), hour(112));
+        Assertions.assertThat(coordination.claimRange("node-a", now, TTL)).isEmpty();
+        coordination.completeRange(first);
+        coordination.completeRange(second);
+        coordination.completeRange(third);
+    }
+
+    private static RecomputeRange range(int fromHour, int toHour) {
+        return new RecomputeRange(0, hour(fromHour), hour(toHour));
+    }
+
+    private static Instant hour(int hour) {
+        return FIRST.plus(Duration.ofHours(hour));
+    }
+}
@@ -0,0 +1,124 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.Collections;
+
+public class H2WalletRepositoryTest extends SpringTest {
+
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    @Qualifier("readJdbcTemplate")
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Autowired
+    @Qualifier("ddlDataSource")
+    private DataSource ddlDataSource;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+    }
+
+    @Test
+    public void shouldKeepEntriesAndBalancesInMonthlyPartitions() {
+        addEntry("2020-01-31T23:30:00Z", "1.0");
+        addEntry("2020-02-01T00:10:00Z", "2.0");
+        addEntry("2020-03-15T12:00:00Z", "4.0");
+        repository.recomputeBalances(Instant.parse("2020-01-31T23:00:00Z"), Instant.parse("2020-03-15T13:00:00Z"));
+
+        Assertions.assertThat(count("WALLET_2020_01")).isEqualTo(1);
+        Assertions.assertThat(count("WALLET_2020_02")).isEqualTo(1);
+        Assertions.assertThat(count("WALLET_2020_03")).isEqualTo(1);
+        // balance at the end of the last hour of January is kept with January
+        Assertions.assertThat(count("BALANCE_2020_01")).isEqualTo(1);
+        Assertions.assertThat(count("BALANCE_2020_02")).isEqualTo(1);
+        Assertions.assertThat(count("BALANCE_2020_03")).isEqualTo(1);
+
+        Assertions.assertThat(repository.getBalancesWithinRange(Instant.parse("2020-01-31T23:00:00Z"),
+            Instant.parse("2020-03-15T13:00:00Z"))).containsExactly(
+            balance("2020-02-01T00:00:00Z", "1.0"),
+            balance("2020-02-01T01:00:00Z", "3.0"),
+            balance("2020-03-15T13:00:00Z", "7.0"));
+        Assertions.assertThat(repository.getBalancesWithinRange(Instant.parse("2020-03-15T13:00:00Z"),
+            Instant.parse("2020-03-15T13:00:00Z"))).containsExactly(balance("2020-03-15T13:00:00Z", "7.0"));
+        Assertions.assertThat(repository.getBalanceBeforeRange(Instant.parse("2020-03-15T12:59:00Z")))
+            .contains(balance("2020-02-01T01:00:00Z", "3.0"));
+        Assertions.assertThat(repository.getBalanceBeforeRange(Instant.parse("2020-02-01T00:00:00Z")))
+            .contains(balance("2020-02-01T00:00:00Z", "1.0"));
+    }
+
+    @Test
+    public void shouldReadAcrossPartitions() {
+        addEntry("2020-01-31T23:30:00Z", "1.0");
+        addEntry("2020-02-01T00:10:00Z", "2.0");
+        addEntry("2020-03-15T12:00:00Z", "4.0");
+
+        Assertions.assertThat(repository.getWalletBalancesByHour(Instant.parse("2020-02-01T00:00:00Z"),
+            Instant.parse("2020-04-01T00:00:00Z"))).containsExactly(
+            balance("2020-02-01T00:00:00Z", "1.0"),
+            balance("2020-02-01T01:00:00Z", "3.0"),
+            balance("2020-03-15T13:00:00Z", "7.0"));
+        Assertions.assertThat(repository.getWalletSumBeforeFrom(Instant.parse("2020-03-01T00:00:00Z")))
+            .map(WalletEntry::getAmount)
+            .contains(DateAndAmountUtils.toBigDecimal("3.0"));
+        Assertions.assertThat(repository.getWalletTotal())
+            .contains(balance("2020-03-15T12:00:00Z", "7.0"));
+        Assertions.assertThat(repository.getFirstEntryTs(Instant.parse("2020-02-01T00:10:00.001Z")))
+            .contains(Instant.parse("2020-03-15T12:00:00Z"));
+        Assertions.assertThat(repository.getLastBalanceTs()).contains(Instant.parse("2020-03-15T12:00:00Z"));
+        Assertions.assertThat(repository.getEntryCount()).isEqualTo(3);
+        Assertions.assertThat(repository.getWalletSumInRangeByHour(Instant.parse("2020-04-01T00:00:00Z"),
+            Instant.parse("2020-05-01T00:00:00Z"))).isEmpty();
+    }
+
+    @Test
+    public void partitionsShouldPickUpMonthsOfOtherNodesOnRefresh() {
+        H2Partitions thisNode = new H2Partitions(ddlDataSource, jdbcTemplate.getJdbcTemplate());
+        H2Partitions otherNode = new H2Partitions(ddlDataSource, jdbcTemplate.getJdbcTemplate());
+        otherNode.ensure(YearMonth.of(2020, 6));
+        Assertions.assertThat(thisNode.getMonths()).doesNotContain(YearMonth.of(2020, 6));
+
+        thisNode.refresh();
+
+        Assertions.assertThat(thisNode.getMonths()).contains(YearMonth.of(2020, 6));
+    }
+
+    @Test
+    public void partitionsShouldNotLookUpMissingMonthAgainUntilRefresh() {
+        H2Partitions thisNode = new H2Partitions(ddlDataSource, jdbcTemplate.getJdbcTemplate());
+        H2Partitions otherNode = new H2Partitions(ddlDataSource, jdbcTemplate.getJdbcTemplate());
+        thisNode.refreshIfUnknown(YearMonth.of(2020, 7));
+        otherNode.ensure(YearMonth.of(2020, 7));
+        otherNode.ensure(YearMonth.of(2020, 8));
+
+        thisNode.refreshIfUnknown(YearMonth.of(2020, 7));
+        Assertions.assertThat(thisNode.getMonths()).doesNotContain(YearMonth.of(2020, 7));
+        thisNode.refreshIfUnknown(YearMonth.of(2020, 8));
+        Assertions.assertThat(thisNode.getMonths()).contains(YearMonth.of(2020, 7), YearMonth.of(2020, 8));
+    }
+
+    private void addEntry(String ts, String amount) {
+        repository.addEntry(new WalletEntry(Instant.parse(ts), DateAndAmountUtils.toBigDecimal(amount)));
+    }
+
+    private static WalletEntry balance(String ts, String amount) {
+        return new WalletEntry(Instant.parse(ts), DateAndAmountUtils.toBigDecimal(amount));
+    }
+
+    private long count(String table) {
+        Long count = jdbcTemplate.queryForObject("select COUNT(*) from " + table, Collections.emptyMap(), Long.class);
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,78 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.RecomputeRange;
+import com.community.bitcoinwallet.service.BalanceChangeFeed;
+import com.community.bitcoinwallet.service.BalanceUpdaterService;
+import com.community.bitcoinwallet.service.UpdaterLeadership;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class LocalUpdaterCoordinationTest {
+
+    private static final Duration TTL = Duration.ofSeconds(5);
+    private static final Instant FIRST = Instant.parse("2020-10-01T00:00:00Z");
+
+    private final LocalUpdaterCoordination coordination = new LocalUpdaterCoordination();
+
+    @Test
+    public void shouldKeepRangesClaimedUntilCompletedOrExpired() {
+        Instant now = Instant.now();
+        coordination.offerRanges(List.of(range(0, 10), range(20, 30)));
+
+        RecomputeRange first = coordination.claimRange("node", now, TTL).orElseThrow();
+        Assertions.assertThat(first.getFrom()).isEqualTo(hour(0));
+        // claimed hours are offered again, pending ones are not
+        coordination.offerRanges(List.of(range(5, 15), range(25, 30)));
+        RecomputeRange third = coordination.claimRange("node", now, TTL).orElseThrow();
+        Assertions.assertThat(third.getFrom()).isEqualTo(hour(20));
+        Assertions.assertThat(coordination.claimRange("node", now, TTL)).isEmpty();
+
+        coordination.completeRange(first);
+        RecomputeRange second = coordination.claimRange("node", now, TTL).orElseThrow();
+        Assertions.assertThat(second.getFrom()).isEqualTo(hour(5));
+        coordination.completeRange(second);
+
+        Assertions.assertThat(coordination.claimRange("node", now.plus(TTL), TTL)).contains(third);
+        coordination.releaseRange(third);
+        Assertions.assertThat(coordination.claimRange("node", now.plus(TTL), TTL)).contains(third);
+        coordination.completeRange(third);
+        Assertions.assertThat(coordination.claimRange("node", now.plus(TTL), TTL)).isEmpty();
+    }
+
+    @Test
+    public void updaterShouldReleaseRangeOfFailedRecompute() {
+        WalletRepository repository = Mockito.mock(WalletRepository.class);
+        Mockito.when(repository.recomputeBalances(hour(0), hour(10)))
+            .thenThrow(new IllegalStateException("recompute failed"))
+            .thenReturn(List.of());
+        BalanceUpdaterService updater = new BalanceUpdaterService(repository, 10,
+            Mockito.mock(ScheduledExecutorService.class), Mockito.mock(ExecutorService.class), 1, 24, true,
+            new UpdaterLeadership(coordination, "node", TTL), coordination, 10, TTL, 0, 720, 1000,
+            Mockito.mock(BalanceChangeFeed.class), Mockito.mock(PlatformTransactionManager.class));
+        coordination.offerRanges(List.of(range(0, 10)));
+        Instant now = Instant.now();
+
+        Assertions.assertThatThrownBy(() -> updater.recomputeOfferedRanges(now))
+            .isInstanceOf(IllegalStateException.class);
+        updater.recomputeOfferedRanges(now);
+
+        Mockito.verify(repository, Mockito.times(2)).recomputeBalances(hour(0), hour(10));
+        Assertions.assertThat(coordination.claimRange("node", now, TTL)).isEmpty();
+    }
+
+    private static RecomputeRange range(int fromHour, int toHour) {
+        return new RecomputeRange(0, hour(fromHour), hour(toHour));
+    }
+
+    private static Instant hour(int hour) {
+        return FIRST.plus(Duration.ofHours(hour));
+    }
+}
@@ -0,0 +1,223 @@
+package com.community.bitcoinwallet.repository;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.MappedLedger.FsyncPolicy;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+class MappedLedgerTest {
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ledger");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldReadRecordsAfterReopenAcrossSegments() {
+        try (MappedLedger ledger = new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0)) {
+            for (long i = 0; i < 10; i++) {
+                ledger.append(i * HOUR_MILLIS, i * 100);
+            }
+            ledger.append(HOUR_MILLIS, 5);
+        }
+
+        try (MappedLedger ledger = new MappedLedger(dir, 4, FsyncPolicy.PERIODIC, 10)) {
+            Assertions.assertThat(ledger.size()).isEqualTo(11);
+            Assertions.assertThat(scan(ledger, 2 * HOUR_MILLIS, 4 * HOUR_MILLIS))
+                .containsExactly(new long[]{2 * HOUR_MILLIS, 200}, new long[]{3 * HOUR_MILLIS, 300});
+            Assertions.assertThat(scan(ledger, HOUR_MILLIS, 2 * HOUR_MILLIS))
+                .containsExactly(new long[]{HOUR_MILLIS, 100}, new long[]{HOUR_MILLIS, 5});
+        }
+    }
+
+    @Test
+    public void shouldTruncateTornTail() throws IOException {
+        try (MappedLedger ledger = new MappedLedger(dir, 8, FsyncPolicy.BATCH, 0)) {
+            ledger.append(1000, 1);
+            ledger.append(2000, 0);
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        // millis of the third record are written, satoshis are not
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 3000), 2 * MappedLedger.RECORD_BYTES);
+        }
+
+        try (MappedLedger ledger = new MappedLedger(dir, 8, FsyncPolicy.BATCH, 0)) {
+            Assertions.assertThat(scan(ledger, Long.MIN_VALUE, Long.MAX_VALUE))
+                .containsExactly(new long[]{1000, 1}, new long[]{2000, 0});
+            ledger.append(4000, 4);
+        }
+        try (MappedLedger ledger = new MappedLedger(dir, 8, FsyncPolicy.BATCH, 0)) {
+            Assertions.assertThat(ledger.size()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void shouldDropStaleRecordsAfterTornOne() throws IOException {
+        try (MappedLedger ledger = new MappedLedger(dir, 8, FsyncPolicy.PERIODIC, 1000)) {
+            for (long i = 0; i < 4; i++) {
+                ledger.append(i * 1000, i);
+            }
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        // satoshis of the second record never made it to disk, later pages did
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 0), MappedLedger.RECORD_BYTES + 8);
+        }
+
+        try (MappedLedger ledger = new MappedLedger(dir, 8, FsyncPolicy.BATCH, 0)) {
+            Assertions.assertThat(ledger.size()).isEqualTo(1);
+            ledger.append(5000, 5);
+        }
+        // records 2 and 3 don't come back once the gap is written over
+        try (MappedLedger ledger = new MappedLedger(dir, 8, FsyncPolicy.BATCH, 0)) {
+            Assertions.assertThat(scan(ledger, Long.MIN_VALUE, Long.MAX_VALUE))
+                .containsExactly(new long[]{0, 0}, new long[]{5000, 5});
+        }
+    }
+
+    @Test
+    public void concurrentBatchAppendsShouldAllBeDurable() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (MappedLedger ledger = new MappedLedger(dir, 256, FsyncPolicy.BATCH, 0)) {
+            List<Future<?>> appends = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long thread = t;
+                appends.add(executor.submit(() -> {
+                    for (long i = 0; i < perThread; i++) {
+                        ledger.append(i * 1000, thread);
+                    }
+                }));
+            }
+            for (Future<?> append : appends) {
+                append.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (MappedLedger ledger = new MappedLedger(dir, 256, FsyncPolicy.BATCH, 0)) {
+            Assertions.assertThat(ledger.size()).isEqualTo(threads * perThread);
+        }
+    }
+
+    @Test
+    public void repositoryShouldReplayLedgerOnStart() {
+        Instant first = Instant.parse("2020-10-01T11:30:00.000Z");
+        try (LedgerWalletRepository repository =
+                 new LedgerWalletRepository(new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0))) {
+            repository.addEntry(new WalletEntry(first.plusSeconds(7200), DateAndAmountUtils.toBigDecimal("2.5")));
+            repository.addEntry(new WalletEntry(first, DateAndAmountUtils.toBigDecimal("1")));
+        }
+
+        try (LedgerWalletRepository repository =
+                 new LedgerWalletRepository(new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0))) {
+            Assertions.assertThat(repository.getWalletTotal()).contains(
+                new WalletEntry(first.plusSeconds(7200), DateAndAmountUtils.toBigDecimal("3.5")));
+            Assertions.assertThat(repository.getFirstEventAndClearQueue().map(WalletEntry::getDatetime))
+                .contains(first);
+
+            repository.clear();
+        }
+        try (MappedLedger ledger = new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0)) {
+            Assertions.assertThat(ledger.size()).isZero();
+        }
+    }
+
+    @Test
+    public void repositoryShouldRestoreSnapshotAndReplayOnlyTail() throws IOException {
+        Path snapshot = dir.resolve("buckets.snapshot");
+        Instant first = Instant.parse("2020-10-01T11:30:00.000Z");
+        LedgerWalletRepository crashed =
+            new LedgerWalletRepository(new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0), snapshot, 0);
+        crashed.addEntry(new WalletEntry(first, DateAndAmountUtils.toBigDecimal("1")));
+        crashed.addEntry(new WalletEntry(first.plusSeconds(7200), DateAndAmountUtils.toBigDecimal("2")));
+        crashed.snapshot();
+        // appended after the snapshot and not closed, as if the process was killed
+        crashed.addEntry(new WalletEntry(first.plusSeconds(3600), DateAndAmountUtils.toBigDecimal("4")));
+
+        try (LedgerWalletRepository repository =
+                 new LedgerWalletRepository(new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0), snapshot, 0)) {
+            Assertions.assertThat(repository.getWalletTotal()).contains(
+                new WalletEntry(first.plusSeconds(7200), DateAndAmountUtils.toBigDecimal("7")));
+            // balances of the snapshot are rebuilt, only the tail is queued
+            Assertions.assertThat(repository.getBalancesWithinRange(first.minusSeconds(3600), first.plusSeconds(9000)))
+                .containsExactly(
+                    new WalletEntry(Instant.parse("2020-10-01T12:00:00.000Z"), DateAndAmountUtils.toBigDecimal("1")),
+                    new WalletEntry(Instant.parse("2020-10-01T14:00:00.000Z"), DateAndAmountUtils.toBigDecimal("3")));
+            Assertions.assertThat(repository.getFirstEventAndClearQueue().map(WalletEntry::getDatetime))
+                .contains(first.plusSeconds(3600));
+        }
+        crashed.close();
+
+        try (LedgerWalletRepository repository =
+                 new LedgerWalletRepository(new MappedLedger(dir, 4, FsyncPolicy.BATCH, 0), snapshot, 0)) {
+            Assertions.assertThat(repository.getFirstEventAndClearQueue()).isEmpty();
+            Assertions.assertThat(repository.getWalletSumInRangeByHour(first.minusSeconds(1800),
+                first.plusSeconds(9000))).hasSize(3);
+        }
+    }
+
+    @Test
+    public void repositoryShouldDeleteSnapshotPastLedgerEnd() throws IOException {
+        Path snapshot = dir.resolve("buckets.snapshot");
+        Instant first = Instant.parse("2020-10-01T11:30:00.000Z");
+        try (LedgerWalletRepository repository = new LedgerWalletRepository(
+            new MappedLedger(dir.resolve("lost"), 4, FsyncPolicy.BATCH, 0), snapshot, 0)) {
+            repository.addEntry(new WalletEntry(first, DateAndAmountUtils.toBigDecimal("1")));
+            repository.addEntry(new WalletEntry(first.plusSeconds(3600), DateAndAmountUtils.toBigDecimal("2")));
+        }
+
+        // ledger is gone, snapshot is not, and it would be taken again once the new ledger reaches 2 records
+        MappedLedger ledger = new MappedLedger(dir.resolve("new"), 4, FsyncPolicy.BATCH, 0);
+        ledger.append(first.plusSeconds(7200).toEpochMilli(), 400_000_000L);
+        try (LedgerWalletRepository repository = new LedgerWalletRepository(ledger, snapshot, 0)) {
+            Assertions.assertThat(snapshot).doesNotExist();
+            Assertions.assertThat(repository.getWalletTotal()).contains(
+                new WalletEntry(first.plusSeconds(7200), DateAndAmountUtils.toBigDecimal("4")));
+        }
+    }
+
+    private List<long[]> scan(MappedLedger ledger, long from, long to) {
+        List<long[]> res = new ArrayList<>();
+        ledger.scan(from, to, (millis, satoshis) -> res.add(new long[]{millis, satoshis}));
+        return res;
+    }
+}
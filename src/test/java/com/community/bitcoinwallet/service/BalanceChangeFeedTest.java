@@ -0,0 +1,125 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.config.H2JdbcConfig;
+import com.community.bitcoinwallet.model.BalanceChange;
+import com.community.bitcoinwallet.model.BalanceChanges;
+import com.community.bitcoinwallet.model.RecomputeRange;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.LocalUpdaterCoordination;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class BalanceChangeFeedTest extends SpringTest {
+
+    @Autowired
+    private BalanceChangeFeed changeFeed;
+    @Autowired
+    private BalanceUpdaterService balanceUpdaterService;
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    @Qualifier(H2JdbcConfig.UPDATER_TRANSACTION_MANAGER)
+    private PlatformTransactionManager updaterTransactionManager;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+    }
+
+    @Test
+    public void shouldRecordEveryUpdateWithItsHoursAndBalances() {
+        repository.addEntry(entry("2020-10-01T10:15:00Z", "1.0"));
+        balanceUpdaterService.updateBalances(false);
+        // the feed was cleared, so a new consumer may be told to resync first
+        long head = changeFeed.getChanges(0, 10).getLastSequence();
+
+        // backdated correction
+        repository.addEntry(entry("2020-10-01T09:30:00Z", "2.0"));
+        balanceUpdaterService.updateBalances(false);
+
+        BalanceChanges changes = changeFeed.getChanges(head, 10);
+        Assertions.assertThat(changes.isResync()).isFalse();
+        Assertions.assertThat(changes.getLastSequence()).isEqualTo(head + 1);
+        Assertions.assertThat(changes.getChanges()).hasSize(1);
+        BalanceChange change = changes.getChanges().get(0);
+        Assertions.assertThat(change.getSequence()).isEqualTo(head + 1);
+        Assertions.assertThat(change.getFrom()).isEqualTo(Instant.parse("2020-10-01T09:00:00Z"));
+        Assertions.assertThat(change.getTo()).isAfter(Instant.parse("2020-10-01T10:00:00Z"));
+        Assertions.assertThat(change.getBalances()).containsExactly(
+            entry("2020-10-01T10:00:00Z", "2.0"),
+            entry("2020-10-01T11:00:00Z", "3.0"));
+
+        Assertions.assertThat(changeFeed.getChanges(head + 1, 10).getChanges()).isEmpty();
+        // consumer is ahead of the feed, it started over
+        Assertions.assertThat(changeFeed.getChanges(head + 5, 10).isResync()).isTrue();
+    }
+
+    @Test
+    public void shouldCompleteWaitingConsumerWithNextUpdate() {
+        repository.addEntry(entry("2020-10-01T10:15:00Z", "1.0"));
+        balanceUpdaterService.updateBalances(false);
+        long head = changeFeed.getChanges(0, 10).getLastSequence();
+
+        CompletableFuture<BalanceChanges> waiting = changeFeed.getChanges(head, 10, Duration.ofSeconds(10));
+        Assertions.assertThat(waiting).isNotDone();
+        Assertions.assertThat(changeFeed.getWaiterCount()).isEqualTo(1);
+        changeFeed.wake();
+        Assertions.assertThat(waiting).isNotDone();
+
+        repository.addEntry(entry("2020-10-01T11:45:00Z", "0.5"));
+        balanceUpdaterService.updateBalances(false);
+        changeFeed.wake();
+
+        Assertions.assertThat(waiting).isDone();
+        List<BalanceChange> changes = waiting.join().getChanges();
+        Assertions.assertThat(changes).hasSize(1);
+        Assertions.assertThat(changes.get(0).getSequence()).isEqualTo(head + 1);
+        Assertions.assertThat(changeFeed.getWaiterCount()).isZero();
+
+        Assertions.assertThatThrownBy(() -> changeFeed.getChanges(-1, 10, Duration.ZERO))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void recomputeOfRangeShouldRollBackWithFailedRecord() {
+        BalanceChangeFeed failingFeed = Mockito.mock(BalanceChangeFeed.class);
+        Mockito.when(failingFeed.record(Mockito.any(), Mockito.any(), Mockito.anyList()))
+            .thenThrow(new IllegalStateException("feed is down"));
+        LocalUpdaterCoordination coordination = new LocalUpdaterCoordination();
+        BalanceUpdaterService updater = new BalanceUpdaterService(repository, 10,
+            Mockito.mock(ScheduledExecutorService.class), Mockito.mock(ExecutorService.class), 1, 24, true,
+            new UpdaterLeadership(coordination, "node", Duration.ofSeconds(5)), coordination, 2,
+            Duration.ofSeconds(5), 0, 720, 1000, failingFeed,
+            updaterTransactionManager);
+        repository.addEntry(entry("2020-10-01T10:15:00Z", "1.0"));
+        coordination.offerRanges(List.of(new RecomputeRange(0, Instant.parse("2020-10-01T10:00:00Z"),
+            Instant.parse("2020-10-01T12:00:00Z"))));
+
+        Assertions.assertThatThrownBy(() -> updater.recomputeOfferedRanges(Instant.now()))
+            .isInstanceOf(IllegalStateException.class);
+
+        Assertions.assertThat(repository.getBalancesWithinRange(Instant.parse("2020-10-01T10:00:00Z"),
+            Instant.parse("2020-10-01T12:00:00Z"))).isEmpty();
+        // released, so the next run recomputes it again
+        Assertions.assertThat(coordination.claimRange("node", Instant.now(), Duration.ofSeconds(5))).isPresent();
+    }
+
+    private static WalletEntry entry(String ts, String amount) {
+        return new WalletEntry(Instant.parse(ts), DateAndAmountUtils.toBigDecimal(amount));
+    }
+}
@@ -0,0 +1,58 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.BalanceWindow;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class BalanceQueryExecutorTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Test
+    public void shouldEstimateCostByHoursAndSyncFlag() {
+        BalanceQueryExecutor executor = new BalanceQueryExecutor(tasks::add, 100, 4, 1);
+        Instant from = Instant.parse("2020-09-01T10:30:00.000Z");
+        Instant to = Instant.parse("2020-09-02T10:30:00.000Z");
+
+        Assertions.assertThat(executor.estimateCost(from, to, false)).isEqualTo(25);
+        Assertions.assertThat(executor.estimateCost(from, to, true)).isEqualTo(100);
+        Assertions.assertThat(executor.estimateCost(to, from, false)).isEqualTo(1);
+        Assertions.assertThat(executor.estimateCost(Arrays.asList(new BalanceWindow(from, to),
+            new BalanceWindow(from, from.plusSeconds(3600))), false)).isEqualTo(25 + 2);
+    }
+
+    @Test
+    public void shouldRejectQueriesOverBudgetUntilOthersComplete() {
+        BalanceQueryExecutor executor = new BalanceQueryExecutor(tasks::add, 100, 4, 3);
+        CompletableFuture<String> first = executor.submit(60, () -> "first");
+        executor.submit(40, () -> "second");
+
+        Assertions.assertThatThrownBy(() -> executor.submit(1, () -> "third"))
+            .isInstanceOf(QueryRejectedException.class)
+            .extracting("retryAfterSeconds").isEqualTo(3L);
+        Assertions.assertThat(executor.getRejectedCount()).isEqualTo(1);
+
+        tasks.remove(0).run();
+        Assertions.assertThat(first).isCompletedWithValue("first");
+        Assertions.assertThat(executor.getInFlightCost()).isEqualTo(40);
+        executor.submit(60, () -> "third");
+        Assertions.assertThat(executor.getInFlightCost()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldAdmitQueryOverWholeBudgetOnlyAlone() {
+        BalanceQueryExecutor executor = new BalanceQueryExecutor(tasks::add, 100, 4, 1);
+        executor.submit(1000, () -> "huge");
+        Assertions.assertThatThrownBy(() -> executor.submit(1, () -> "small"))
+            .isInstanceOf(QueryRejectedException.class);
+
+        tasks.remove(0).run();
+        Assertions.assertThat(executor.getInFlightCost()).isZero();
+    }
+}
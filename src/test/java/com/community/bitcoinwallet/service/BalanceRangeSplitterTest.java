@@ -0,0 +1,59 @@
+package com.community.bitcoinwallet.service;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public class BalanceRangeSplitterTest {
+
+    private static final Instant FROM = Instant.parse("2020-10-01T00:00:00Z");
+
+    @Test
+    public void shouldSplitQuietWindowIntoEqualHours() {
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(100), Collections.emptyNavigableMap(), 4, 1))
+            .containsExactly(FROM, hour(25), hour(50), hour(75), hour(100));
+        // no uneven remainder range, no range beyond the window
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(20), Collections.emptyNavigableMap(), 8, 1))
+            .hasSize(9)
+            .startsWith(FROM)
+            .endsWith(hour(20));
+    }
+
+    @Test
+    public void shouldGiveBusyHoursRangesOfTheirOwn() {
+        NavigableMap<Instant, Long> counts = new TreeMap<>();
+        counts.put(hour(5), 1000L);
+        counts.put(hour(30), 10L);
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(48), counts, 2, 1))
+            .containsExactly(FROM, hour(6), hour(48));
+
+        // two busy hours, each range gets one of them and half of the work
+        counts.put(hour(40), 1000L);
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(48), counts, 2, 1))
+            .containsExactly(FROM, hour(29), hour(48));
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(48), counts, 3, 1))
+            .containsExactly(FROM, hour(6), hour(41), hour(48));
+    }
+
+    @Test
+    public void shouldNotSplitBelowMinHours() {
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(10), Collections.emptyNavigableMap(), 8, 4))
+            .containsExactly(FROM, hour(5), hour(10));
+        Assertions.assertThat(BalanceRangeSplitter.split(FROM, hour(23), Collections.emptyNavigableMap(), 8, 24))
+            .containsExactly(FROM, hour(23));
+
+        NavigableMap<Instant, Long> counts = new TreeMap<>(Collections.singletonMap(hour(0), 1000L));
+        List<Instant> bounds = BalanceRangeSplitter.split(FROM, hour(48), counts, 4, 24);
+        Assertions.assertThat(bounds).containsExactly(FROM, hour(24), hour(48));
+    }
+
+    private static Instant hour(int hour) {
+        return FROM.plus(hour, ChronoUnit.HOURS);
+    }
+}
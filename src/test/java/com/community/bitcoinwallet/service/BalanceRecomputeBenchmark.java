@@ -0,0 +1,122 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.config.H2JdbcConfig;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.UpdaterCoordination;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Java-side accumulation against window functions in H2, run with "gradle benchmark".
+ */
+@Tag("benchmark")
+public class BalanceRecomputeBenchmark extends SpringTest {
+
+    private static final Instant FROM = Instant.parse("2020-01-01T00:00:00.000Z");
+    private static final int DAYS = 90;
+    private static final int ENTRIES = 20_000;
+    private static final int WARM_UP = 3;
+    private static final int ITERATIONS = 10;
+
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    private WalletService walletService;
+    @Autowired
+    private BalanceChangeFeed changeFeed;
+    @Autowired
+    @Qualifier(H2JdbcConfig.UPDATER_TRANSACTION_MANAGER)
+    private PlatformTransactionManager updaterTransactionManager;
+
+    private Instant to;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+        Random random = new Random(42);
+        long spanMillis = DAYS * 24 * 3600 * 1000L;
+        for (int i = 0; i < ENTRIES; i++) {
+            repository.addEntry(new WalletEntry(FROM.plusMillis((long) (random.nextDouble() * spanMillis)),
+                DateAndAmountUtils.toBigDecimal(random.nextInt(10_000) / 100.0)));
+        }
+        to = FROM.plus(DAYS, ChronoUnit.DAYS);
+    }
+
+    @Test
+    public void syncRead() {
+        List<WalletEntry> javaSide = measure("sync read, java-side", this::sumInJava);
+        List<WalletEntry> windowed = measure("sync read, window function",
+            () -> repository.getWalletBalancesByHour(FROM, to));
+        Assertions.assertThat(windowed).isEqualTo(javaSide);
+    }
+
+    @Test
+    public void recompute() {
+        BalanceUpdaterService javaSideUpdater = updater(false);
+        BalanceUpdaterService setBasedUpdater = updater(true);
+        List<WalletEntry> javaSide = measure("recompute, java-side", () -> recompute(javaSideUpdater));
+        List<WalletEntry> setBased = measure("recompute, set-based", () -> recompute(setBasedUpdater));
+        Assertions.assertThat(setBased).isEqualTo(javaSide);
+    }
+
+    private BalanceUpdaterService updater(boolean setBased) {
+        // not scheduled, sequential recompute doesn't need workers, no ranges are offered to other nodes
+        return new BalanceUpdaterService(repository, 10, Mockito.mock(ScheduledExecutorService.class),
+            Mockito.mock(ExecutorService.class), 8, 24, setBased, Mockito.mock(UpdaterLeadership.class),
+            Mockito.mock(UpdaterCoordination.class), 0, Duration.ofMinutes(1), 0, 720, 1000, changeFeed,
+            updaterTransactionManager);
+    }
+
+    private List<WalletEntry> recompute(BalanceUpdaterService updater) {
+        // backdated entry makes the whole range dirty
+        repository.addEntry(new WalletEntry(FROM, BigDecimal.ZERO));
+        updater.updateBalances(false);
+        return walletService.getBalancesWithHoles(FROM, to, false);
+    }
+
+    private List<WalletEntry> sumInJava() {
+        BigDecimal current = repository.getWalletSumBeforeFrom(FROM)
+            .map(WalletEntry::getAmount)
+            .orElse(DateAndAmountUtils.toBigDecimal(0.0));
+        List<WalletEntry> res = new ArrayList<>();
+        res.add(new WalletEntry(FROM, current));
+        for (WalletEntry sum : repository.getWalletSumInRangeByHour(FROM, to)) {
+            current = current.add(sum.getAmount());
+            res.add(new WalletEntry(sum.getDatetime().plus(1, ChronoUnit.HOURS), current));
+        }
+        return res;
+    }
+
+    private <T> T measure(String name, Supplier<T> run) {
+        T res = null;
+        for (int i = 0; i < WARM_UP; i++) {
+            res = run.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            res = run.get();
+        }
+        System.out.printf("%s: %.2f ms/op%n", name, (System.nanoTime() - start) / 1e6 / ITERATIONS);
+        return res;
+    }
+}
@@ -0,0 +1,156 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class BalanceStreamTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Test
+    public void shouldCoalescePendingHoursOfSlowSubscriber() {
+        BalanceStream stream = stream(10, tasks::add);
+        RecordingSink sink = new RecordingSink();
+        stream.subscribe(sink);
+
+        stream.onBalancesMerged(Arrays.asList(balance("12:00", "1"), balance("13:00", "1")));
+        stream.onBalancesMerged(Collections.singletonList(balance("13:00", "2")));
+        Assertions.assertThat(tasks).hasSize(1);
+        runTasks();
+
+        Assertions.assertThat(sink.received).containsExactly(
+            Arrays.asList(balance("12:00", "1"), balance("13:00", "2")));
+
+        stream.onBalancesMerged(Collections.singletonList(balance("14:00", "3")));
+        runTasks();
+        Assertions.assertThat(sink.received).hasSize(2);
+        Assertions.assertThat(sink.received.get(1)).containsExactly(balance("14:00", "3"));
+    }
+
+    @Test
+    public void shouldDropSubscriberWhichFellBehind() {
+        BalanceStream stream = stream(2, tasks::add);
+        RecordingSink slow = new RecordingSink();
+        RecordingSink fast = new RecordingSink();
+        stream.subscribe(slow);
+        stream.subscribe(fast);
+
+        stream.onBalancesMerged(Arrays.asList(balance("12:00", "1"), balance("13:00", "1")));
+        runTasks();
+        Assertions.assertThat(stream.getSubscriberCount()).isEqualTo(2);
+
+        stream.onBalancesMerged(Arrays.asList(balance("12:00", "2"), balance("13:00", "2"),
+            balance("14:00", "2")));
+
+        Assertions.assertThat(slow.closed).isTrue();
+        Assertions.assertThat(fast.closed).isTrue();
+        Assertions.assertThat(stream.getSubscriberCount()).isZero();
+        Assertions.assertThat(stream.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldStopDeliveryToCancelledAndFailedSubscribers() {
+        BalanceStream stream = stream(10, Runnable::run);
+        RecordingSink cancelled = new RecordingSink();
+        RecordingSink failing = new RecordingSink();
+        failing.fail = true;
+        stream.subscribe(cancelled).cancel();
+        stream.subscribe(failing);
+
+        stream.onBalancesMerged(Collections.singletonList(balance("12:00", "1")));
+
+        Assertions.assertThat(cancelled.received).isEmpty();
+        Assertions.assertThat(failing.closed).isFalse();
+        Assertions.assertThat(stream.getSubscriberCount()).isZero();
+    }
+
+    @Test
+    public void shouldDropSubscribersWhenWalletIsCleared() {
+        BalanceStream stream = stream(10, tasks::add);
+        RecordingSink sink = new RecordingSink();
+        stream.subscribe(sink);
+        stream.onBalancesMerged(Collections.singletonList(balance("12:00", "1")));
+
+        stream.onCleared();
+        runTasks();
+
+        Assertions.assertThat(sink.received).isEmpty();
+        Assertions.assertThat(sink.closed).isTrue();
+        Assertions.assertThat(stream.getSubscriberCount()).isZero();
+    }
+
+    @Test
+    public void shouldDropStalledSubscriberWithoutHoldingUpOthers() throws Exception {
+        ExecutorService sendExecutor = Executors.newCachedThreadPool();
+        CountDownLatch stalled = new CountDownLatch(1);
+        try {
+            BalanceStream stream = new BalanceStream(10, 50, 60_000, Runnable::run, sendExecutor);
+            RecordingSink stalledSink = new RecordingSink();
+            stalledSink.stalled = stalled;
+            RecordingSink fast = new RecordingSink();
+            stream.subscribe(stalledSink);
+            stream.subscribe(fast);
+
+            stream.onBalancesMerged(Collections.singletonList(balance("12:00", "1")));
+            stream.onBalancesMerged(Collections.singletonList(balance("13:00", "2")));
+
+            Assertions.assertThat(fast.received).containsExactly(
+                Collections.singletonList(balance("12:00", "1")), Collections.singletonList(balance("13:00", "2")));
+            Assertions.assertThat(stream.getSubscriberCount()).isEqualTo(1);
+            Assertions.assertThat(stream.getDroppedCount()).isEqualTo(1);
+        } finally {
+            stalled.countDown();
+            sendExecutor.shutdown();
+        }
+    }
+
+    private BalanceStream stream(int maxPendingHours, Executor dispatchExecutor) {
+        return new BalanceStream(maxPendingHours, 1000, 60_000, dispatchExecutor, Runnable::run);
+    }
+
+    private void runTasks() {
+        List<Runnable> toRun = new ArrayList<>(tasks);
+        tasks.clear();
+        toRun.forEach(Runnable::run);
+    }
+
+    private WalletEntry balance(String hour, String amount) {
+        return new WalletEntry(Instant.parse("2020-09-01T" + hour + ":00.000Z"),
+            DateAndAmountUtils.toBigDecimal(amount));
+    }
+
+    private static class RecordingSink implements BalanceStream.BalanceSink {
+        private final List<List<WalletEntry>> received = new ArrayList<>();
+        private boolean closed;
+        private boolean fail;
+        private CountDownLatch stalled;
+
+        @Override
+        public void send(List<WalletEntry> balances) throws InterruptedException {
+            if (stalled != null) {
+                stalled.await();
+            }
+            if (fail) {
+                throw new IllegalStateException("Client is gone");
+            }
+            received.add(balances);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
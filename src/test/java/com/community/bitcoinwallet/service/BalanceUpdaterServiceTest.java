@@ -0,0 +1,108 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.config.H2JdbcConfig;
+import com.community.bitcoinwallet.model.RecomputeRange;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.UpdaterCoordination;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class BalanceUpdaterServiceTest extends SpringTest {
+
+    private static final Instant FIRST = Instant.parse("2020-09-01T00:00:00Z");
+    private static final int HOURS = 240;
+    private static final int RECENT_HOURS = 24;
+    private static final int BACKFILL_HOURS = 48;
+    private static final long BACKFILL_WINDOW_MILLIS = 1000;
+
+    @Autowired
+    private BalanceUpdaterService balanceUpdaterService;
+    @Autowired
+    private WalletService service;
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    private UpdaterCoordination coordination;
+    @Autowired
+    private UpdaterLeadership leadership;
+    @Autowired
+    private BalanceChangeFeed changeFeed;
+    @Autowired
+    @Qualifier(H2JdbcConfig.UPDATER_TRANSACTION_MANAGER)
+    private PlatformTransactionManager updaterTransactionManager;
+    private BalanceUpdaterService recentFirstUpdater;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+        // ranges left by someone else
+        Optional<RecomputeRange> left;
+        while ((left = coordination.claimRange("test", Instant.now(), Duration.ofSeconds(5))).isPresent()) {
+            coordination.completeRange(left.get());
+        }
+        // not scheduled, runs are called by tests
+        recentFirstUpdater = new BalanceUpdaterService(repository, 10, Mockito.mock(ScheduledExecutorService.class),
+            Mockito.mock(ExecutorService.class), 8, 24, true, leadership, coordination, 0, Duration.ofMinutes(1),
+            RECENT_HOURS, BACKFILL_HOURS, BACKFILL_WINDOW_MILLIS, changeFeed, updaterTransactionManager);
+    }
+
+    @Test
+    public void shouldMaterializeRecentHoursFirstAndBackfillOlderOnesNewestFirst() {
+        for (int h = 0; h < HOURS; h++) {
+            repository.addEntry(new WalletEntry(hour(h).plusSeconds(60), DateAndAmountUtils.toBigDecimal("1.0")));
+        }
+        // everything materialized at once
+        balanceUpdaterService.updateBalances(false);
+
+        // backdated by 8 days
+        repository.addEntry(new WalletEntry(hour(48).plusSeconds(1800), DateAndAmountUtils.toBigDecimal("100.0")));
+        recentFirstUpdater.updateBalances(false);
+
+        // balances at ends of hours in [216, 240)
+        assertFresh(HOURS - RECENT_HOURS, HOURS);
+        assertStale(150);
+        assertStale(50);
+
+        // backfill of [168, 216) goes first, one range of 48 hours per window
+        Instant now = Instant.now();
+        recentFirstUpdater.recomputeOfferedRanges(now);
+        assertFresh(168, HOURS);
+        recentFirstUpdater.recomputeOfferedRanges(now.plusMillis(BACKFILL_WINDOW_MILLIS - 1));
+        assertStale(150);
+
+        for (int window = 1; window <= 3; window++) {
+            recentFirstUpdater.recomputeOfferedRanges(now.plusMillis(window * BACKFILL_WINDOW_MILLIS));
+        }
+        assertFresh(40, HOURS);
+    }
+
+    private void assertFresh(int fromHour, int toHour) {
+        List<WalletEntry> sync = service.getBalanceFull(hour(fromHour), hour(toHour), true);
+        Assertions.assertThat(service.getBalanceFull(hour(fromHour), hour(toHour), false)).isEqualTo(sync);
+    }
+
+    private void assertStale(int hour) {
+        List<WalletEntry> sync = service.getBalanceFull(hour(hour), hour(hour + 1), true);
+        Assertions.assertThat(service.getBalanceFull(hour(hour), hour(hour + 1), false)).isNotEqualTo(sync);
+    }
+
+    private static Instant hour(int hour) {
+        return FIRST.plus(hour, ChronoUnit.HOURS);
+    }
+}
@@ -0,0 +1,95 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class ColdHistoryTest extends SpringTest {
+
+    private static final Instant FIRST = Instant.parse("2020-01-15T10:10:00.000Z");
+    private static final Instant NOW = Instant.parse("2020-05-20T00:00:00.000Z");
+
+    @Autowired
+    private WalletRepository repository;
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+    }
+
+    @Test
+    public void shouldReadFrozenMonthsSameAsEntries() {
+        // every 5 hours up to now, so some months have entries and the last one is hot
+        for (Instant ts = FIRST; ts.isBefore(NOW); ts = ts.plusSeconds(5 * 3600)) {
+            repository.addEntry(new WalletEntry(ts, DateAndAmountUtils.toBigDecimal("1.5")));
+        }
+        ColdHistory coldHistory = coldHistory();
+        Assertions.assertThat(coldHistory.freeze(NOW)).isEqualTo(4);
+        Assertions.assertThat(coldHistory.freeze(NOW)).isZero();
+
+        assertSameAsEntries(coldHistory, "2020-01-01T00:00:00Z", "2020-05-20T00:00:00Z");
+        assertSameAsEntries(coldHistory, "2020-02-10T07:00:00Z", "2020-03-02T13:00:00Z");
+        assertSameAsEntries(coldHistory, "2020-03-31T20:00:00Z", "2020-05-02T00:00:00Z");
+        assertSameAsEntries(coldHistory, "2019-12-01T00:00:00Z", "2020-02-01T00:00:00Z");
+        assertSameAsEntries(coldHistory, "2020-04-30T23:00:00Z", "2020-04-30T23:00:00Z");
+        // after cold history, opening balance is carried from the last segment
+        assertSameAsEntries(coldHistory, "2020-05-01T00:00:00Z", "2020-05-20T00:00:00Z");
+        assertSameAsEntries(coldHistory, "2020-05-07T13:00:00Z", "2020-05-20T00:00:00Z");
+
+        // segments are loaded on start
+        Assertions.assertThat(coldHistory().getSegmentCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldDropFrozenMonthsWhenEntryIsAddedIntoThem() {
+        for (Instant ts = FIRST; ts.isBefore(NOW); ts = ts.plusSeconds(7 * 3600)) {
+            repository.addEntry(new WalletEntry(ts, DateAndAmountUtils.toBigDecimal("2.0")));
+        }
+        ColdHistory coldHistory = coldHistory();
+        repository.addChangeListener(coldHistory);
+        coldHistory.freeze(NOW);
+
+        repository.addEntry(new WalletEntry(Instant.parse("2020-03-05T05:00:00Z"),
+            DateAndAmountUtils.toBigDecimal("3.0")));
+        Assertions.assertThat(coldHistory.getSegmentCount()).isEqualTo(2);
+        assertSameAsEntries(coldHistory, "2020-01-01T00:00:00Z", "2020-05-01T00:00:00Z");
+
+        Assertions.assertThat(coldHistory.freeze(NOW)).isEqualTo(2);
+        assertSameAsEntries(coldHistory, "2020-01-01T00:00:00Z", "2020-05-01T00:00:00Z");
+    }
+
+    @Test
+    public void shouldDropSegmentsOnStartIfEntriesChanged() {
+        repository.addEntry(new WalletEntry(FIRST, DateAndAmountUtils.toBigDecimal("2.0")));
+        coldHistory().freeze(NOW);
+
+        repository.addEntry(new WalletEntry(FIRST.plusSeconds(3600), DateAndAmountUtils.toBigDecimal("2.0")));
+        Assertions.assertThat(coldHistory().getSegmentCount()).isZero();
+    }
+
+    private ColdHistory coldHistory() {
+        return new ColdHistory(repository, dir, Duration.ofDays(7), Mockito.mock(ScheduledExecutorService.class),
+            1000);
+    }
+
+    private void assertSameAsEntries(ColdHistory coldHistory, String from, String to) {
+        Instant fromAtStart = Instant.parse(from);
+        Instant toAtStart = Instant.parse(to);
+        Assertions.assertThat(coldHistory.getBalancesByHour(fromAtStart, toAtStart))
+            .isEqualTo(repository.getWalletBalancesByHour(fromAtStart, toAtStart));
+    }
+}
@@ -0,0 +1,94 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.service.HourlyBalanceCache.DayBlock;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class HourlyBalanceCacheTest {
+
+    private final List<long[]> loads = new ArrayList<>();
+
+    @Test
+    public void shouldLoadEveryRunOfMissingDaysOnce() {
+        HourlyBalanceCache cache = new HourlyBalanceCache(10);
+        cache.getBlocks(3, 3, this::load);
+        cache.getBlocks(5, 6, this::load);
+        loads.clear();
+
+        List<DayBlock> blocks = cache.getBlocks(1, 7, this::load);
+
+        Assertions.assertThat(blocks).extracting(DayBlock::getEpochDay)
+            .containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L);
+        Assertions.assertThat(loads).containsExactly(new long[]{1, 3}, new long[]{4, 5}, new long[]{7, 8});
+        Assertions.assertThat(cache.getHitCount()).isEqualTo(3);
+        Assertions.assertThat(cache.getMissCount()).isEqualTo(3 + 4);
+    }
+
+    @Test
+    public void shouldInvalidateBlocksFromGivenInstantOnward() {
+        HourlyBalanceCache cache = new HourlyBalanceCache(10);
+        cache.getBlocks(0, 4, this::load);
+        loads.clear();
+
+        cache.onEntryAdded(new WalletEntry(DateAndAmountUtils.atStartOfDay(3).plusSeconds(3600),
+            BigDecimal.ONE));
+        Assertions.assertThat(cache.size()).isEqualTo(3);
+
+        cache.getBlocks(0, 4, this::load);
+        Assertions.assertThat(loads).containsExactly(new long[]{3, 5});
+
+        cache.onCleared();
+        Assertions.assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void shouldNotCacheBlocksInvalidatedWhileLoading() {
+        HourlyBalanceCache cache = new HourlyBalanceCache(10);
+        cache.getBlocks(0, 4, (fromDay, toDay) -> {
+            cache.invalidateFrom(DateAndAmountUtils.atStartOfDay(2));
+            return load(fromDay, toDay);
+        });
+        Assertions.assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedBlocks() {
+        HourlyBalanceCache cache = new HourlyBalanceCache(3);
+        cache.getBlocks(0, 2, this::load);
+        cache.getBlocks(0, 0, this::load);
+        cache.getBlocks(3, 3, this::load);
+        loads.clear();
+
+        cache.getBlocks(0, 0, this::load);
+        cache.getBlocks(1, 1, this::load);
+
+        Assertions.assertThat(loads).containsExactly(new long[]{1, 2});
+        Assertions.assertThat(cache.getEvictionCount()).isEqualTo(2);
+        Assertions.assertThat(cache.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotCacheRangesWiderThanItself() {
+        HourlyBalanceCache cache = new HourlyBalanceCache(3);
+        Assertions.assertThat(cache.isCacheable(0, 2)).isTrue();
+        Assertions.assertThat(cache.isCacheable(0, 3)).isFalse();
+        Assertions.assertThat(new HourlyBalanceCache(0).isCacheable(0, 0)).isFalse();
+    }
+
+    private List<DayBlock> load(long fromDay, long toDayExclusive) {
+        loads.add(new long[]{fromDay, toDayExclusive});
+        List<DayBlock> res = new ArrayList<>();
+        for (long day = fromDay; day < toDayExclusive; day++) {
+            res.add(new DayBlock(day, BigDecimal.ZERO, Collections.emptyList()));
+        }
+        return res;
+    }
+}
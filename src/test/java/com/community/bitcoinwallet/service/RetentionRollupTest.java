@@ -0,0 +1,73 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+public class RetentionRollupTest extends SpringTest {
+
+    private static final Instant FIRST = Instant.parse("2020-01-01T10:10:00.000Z");
+    private static final Instant NOW = Instant.parse("2020-05-01T00:00:00.000Z");
+
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    private RetentionRollup retentionRollup;
+
+    @BeforeEach
+    public void setUp() {
+        repository.clear();
+    }
+
+    @Test
+    public void shouldCompactOldEntriesIntoHourlyEntriesKeepingBalances() {
+        // 4 entries per hour for 3 days, both in old history and in the last days before now
+        for (Instant day : List.of(FIRST, NOW.minus(3, ChronoUnit.DAYS))) {
+            for (int i = 0; i < 3 * 24 * 4; i++) {
+                repository.addEntry(new WalletEntry(day.plusSeconds(i * 900L),
+                    DateAndAmountUtils.toBigDecimal("0.25")));
+            }
+        }
+        // straight from entries, caches would hide a change
+        Instant from = DateAndAmountUtils.atStartOfHour(FIRST);
+        List<WalletEntry> before = repository.getWalletBalancesByHour(from, NOW);
+
+        Assertions.assertThat(retentionRollup.rollUp(NOW)).isEqualTo(3 * 24 * 3);
+        Assertions.assertThat(repository.getEntryCount()).isEqualTo(3 * 24 + 3 * 24 * 4);
+        Assertions.assertThat(repository.getWalletBalancesByHour(from, NOW)).isEqualTo(before);
+
+        // already compacted
+        Assertions.assertThat(retentionRollup.rollUp(NOW)).isZero();
+
+        // backdated into compacted history, only its hour is compacted again
+        Instant backdated = FIRST.plus(1, ChronoUnit.DAYS);
+        repository.addEntry(new WalletEntry(backdated, DateAndAmountUtils.toBigDecimal("1")));
+        repository.addEntry(new WalletEntry(backdated.plusSeconds(60), DateAndAmountUtils.toBigDecimal("1")));
+        List<WalletEntry> withBackdated = repository.getWalletBalancesByHour(from, NOW);
+        Assertions.assertThat(retentionRollup.rollUp(NOW)).isEqualTo(2);
+        Assertions.assertThat(repository.getWalletBalancesByHour(from, NOW)).isEqualTo(withBackdated);
+        Assertions.assertThat(retentionRollup.rollUp(NOW)).isZero();
+    }
+
+    @Test
+    public void shouldExpireOldIdempotencyKeys() {
+        WalletEntry entry = new WalletEntry(NOW, DateAndAmountUtils.toBigDecimal("1"));
+        Assertions.assertThat(repository.addEntry(entry, "key", 1)).isEmpty();
+        Assertions.assertThat(repository.addEntry(entry, "key", 1)).hasValue(1);
+
+        retentionRollup.rollUp(Instant.now());
+        Assertions.assertThat(repository.addEntry(entry, "key", 1)).hasValue(1);
+
+        retentionRollup.rollUp(Instant.now().plus(25, ChronoUnit.HOURS));
+        Assertions.assertThat(repository.addEntry(entry, "key", 1)).isEmpty();
+    }
+}
@@ -0,0 +1,58 @@
+package com.community.bitcoinwallet.service;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+    private final AtomicInteger computations = new AtomicInteger();
+
+    @Test
+    public void shouldShareComputationInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> singleFlight.execute("key", () -> {
+            started.countDown();
+            await(release);
+            return "result-" + computations.incrementAndGet();
+        }));
+        Assertions.assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> singleFlight.execute("key", () ->
+            "result-" + computations.incrementAndGet()));
+        while (singleFlight.getSharedCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        Assertions.assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("result-1");
+        Assertions.assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("result-1");
+        Assertions.assertThat(computations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotKeepResultsOrFailuresAfterCompletion() {
+        Assertions.assertThatThrownBy(() -> singleFlight.execute("key", () -> {
+            throw new IllegalArgumentException("Wrong range");
+        })).isInstanceOf(IllegalArgumentException.class);
+
+        Assertions.assertThat(singleFlight.execute("key", () -> "result-" + computations.incrementAndGet()))
+            .isEqualTo("result-1");
+        Assertions.assertThat(singleFlight.execute("key", () -> "result-" + computations.incrementAndGet()))
+            .isEqualTo("result-2");
+        Assertions.assertThat(singleFlight.getSharedCount()).isZero();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
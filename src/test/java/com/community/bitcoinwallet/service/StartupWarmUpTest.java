@@ -0,0 +1,48 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.WalletEntry;
+import com.community.bitcoinwallet.repository.WalletRepository;
+import com.community.bitcoinwallet.util.DateAndAmountUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Instant;
+
+public class StartupWarmUpTest extends SpringTest {
+
+    @Autowired
+    private WalletService walletService;
+    @Autowired
+    private WalletRepository repository;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void shouldReportOutOfServiceUntilWarmUpIsFinished() {
+        repository.clear();
+        Instant first = Instant.parse("2020-10-01T11:30:00.000Z");
+        for (int i = 0; i < 48; i++) {
+            repository.addEntry(new WalletEntry(first.plusSeconds(i * 3600L), DateAndAmountUtils.toBigDecimal("1")));
+        }
+        StartupWarmUp warmUp = new StartupWarmUp(walletService, repository, objectMapper, true, 2, 10_000, 20);
+        Assertions.assertThat(warmUp.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+        warmUp.run();
+
+        Assertions.assertThat(warmUp.isFinished()).isTrue();
+        Assertions.assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+        Assertions.assertThat(warmUp.health().getDetails()).containsEntry("queries", 20L);
+    }
+
+    @Test
+    public void disabledWarmUpShouldBeReadyRightAway() {
+        StartupWarmUp warmUp = new StartupWarmUp(walletService, repository, objectMapper, false, 2, 10_000, 20);
+        warmUp.run();
+        Assertions.assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+        Assertions.assertThat(warmUp.health().getDetails()).containsEntry("queries", 0L);
+    }
+}
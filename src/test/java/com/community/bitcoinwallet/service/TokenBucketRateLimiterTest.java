@@ -0,0 +1,69 @@
+package com.community.bitcoinwallet.service;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+class TokenBucketRateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong(42 * SECOND);
+
+    @Test
+    public void shouldAllowBurstThenRefillWithRate() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 10, 5, 100, now::get);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertThat(limiter.tryAcquire("client", 1)).isZero();
+        }
+        Assertions.assertThat(limiter.tryAcquire("client", 1)).isEqualTo(SECOND / 10);
+        Assertions.assertThat(limiter.tryAcquire("other", 1)).isZero();
+
+        now.addAndGet(SECOND / 10);
+        Assertions.assertThat(limiter.tryAcquire("client", 1)).isZero();
+        Assertions.assertThat(limiter.tryAcquire("client", 1)).isPositive();
+        Assertions.assertThat(limiter.getRejectedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldChargeWeightedRequestsButNotMoreThanBurst() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 10, 5, 100, now::get);
+        Assertions.assertThat(limiter.tryAcquire("client", 3)).isZero();
+        Assertions.assertThat(limiter.tryAcquire("client", 3)).isEqualTo(SECOND / 10);
+
+        now.addAndGet(SECOND);
+        Assertions.assertThat(limiter.tryAcquire("client", 1000)).isZero();
+        Assertions.assertThat(limiter.tryAcquire("client", 1)).isPositive();
+    }
+
+    @Test
+    public void shouldEvictClientsWithFullBuckets() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 10, 5, 2, now::get);
+        limiter.tryAcquire("first", 1);
+        limiter.tryAcquire("second", 5);
+        now.addAndGet(SECOND / 5);
+
+        limiter.tryAcquire("third", 1);
+
+        Assertions.assertThat(limiter.getClientCount()).isEqualTo(2);
+        // second still has tokens used, so it is not forgotten
+        Assertions.assertThat(limiter.tryAcquire("second", 4)).isPositive();
+    }
+
+    @Test
+    public void shouldPutNewClientsOnSharedBucketWhenAllSlotsAreBusy() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 10, 5, 1, now::get);
+        Assertions.assertThat(limiter.tryAcquire("first", 5)).isZero();
+
+        Assertions.assertThat(limiter.tryAcquire("second", 3)).isZero();
+        Assertions.assertThat(limiter.tryAcquire("third", 3)).isPositive();
+        Assertions.assertThat(limiter.getClientCount()).isEqualTo(1);
+
+        // first is idle again, so the next new client takes its slot
+        now.addAndGet(SECOND);
+        Assertions.assertThat(limiter.tryAcquire("fourth", 5)).isZero();
+        Assertions.assertThat(limiter.tryAcquire("fourth", 1)).isPositive();
+        Assertions.assertThat(limiter.getClientCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,13 @@
+package com.community.bitcoinwallet.service;
+
+import com.community.bitcoinwallet.BitcoinWalletApplication;
+import com.community.bitcoinwallet.ExecutrorsTestConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Same suite, but against the in-memory repository.
+ */
+@SpringBootTest(classes = {BitcoinWalletApplication.class, ExecutrorsTestConfiguration.class},
+    properties = "spring.profiles.active=test,in-memory")
+public class WalletServiceInMemoryTest extends WalletServiceTest {
+}
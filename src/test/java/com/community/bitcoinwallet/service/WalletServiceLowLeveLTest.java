@@ -2,7 +2,7 @@ package com.community.bitcoinwallet.service;
 
 import com.community.bitcoinwallet.SpringTest;
 import com.community.bitcoinwallet.model.WalletEntry;
-import com.community.bitcoinwallet.repository.H2WalletRepository;
+import com.community.bitcoinwallet.repository.WalletRepository;
 import com.community.bitcoinwallet.util.DateAndAmountUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,7 +18,7 @@ import java.util.List;
 public class WalletServiceLowLeveLTest extends SpringTest {
 
     @Autowired
-    private H2WalletRepository h2WalletRepository;
+    private WalletRepository walletRepository;
     @Autowired
     private WalletService walletService;
     @Autowired
@@ -26,7 +26,7 @@ public class WalletServiceLowLeveLTest extends SpringTest {
 
     @BeforeEach
     public void setUpRepository() {
-        h2WalletRepository.clear();
+        walletRepository.clear();
     }
 
     private void assertSyncAndAsyncExections(Instant from, Instant to,
@@ -177,7 +177,7 @@ public class WalletServiceLowLeveLTest extends SpringTest {
 
     private WalletEntry addWalletEntry(Instant instant, String amount) {
         WalletEntry walletEntry = new WalletEntry(instant, DateAndAmountUtils.toBigDecimal(amount));
-        h2WalletRepository.addEntry(walletEntry);
+        walletRepository.addEntry(walletEntry);
         return walletEntry;
     }
 }
\ No newline at end of file
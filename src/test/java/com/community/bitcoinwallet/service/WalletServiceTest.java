@@ -1,8 +1,9 @@
 package com.community.bitcoinwallet.service;
 
 import com.community.bitcoinwallet.SpringTest;
+import com.community.bitcoinwallet.model.BalanceWindow;
 import com.community.bitcoinwallet.model.WalletEntry;
-import com.community.bitcoinwallet.repository.H2WalletRepository;
+import com.community.bitcoinwallet.repository.WalletRepository;
 import com.community.bitcoinwallet.util.DateAndAmountUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -25,7 +26,9 @@ public class WalletServiceTest extends SpringTest {
     @Autowired
     private BalanceUpdaterService balanceUpdaterService;
     @Autowired
-    private H2WalletRepository repository;
+    private WalletRepository repository;
+    @Autowired
+    private HourlyBalanceCache balanceCache;
 
     @BeforeEach
     private void setUp() {
@@ -169,6 +172,100 @@ public class WalletServiceTest extends SpringTest {
                 walletEntry(Instant.parse("2020-09-01T13:00:00.000Z"), "0")));
     }
 
+    @Test
+    public void shouldServeRepeatedQueriesFromCacheAndSeeBackdatedEntries() {
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-01T11:30:00.000Z"),
+            DateAndAmountUtils.toBigDecimal("1")));
+        List<WalletEntry> expected = Arrays.asList(
+            walletEntry(Instant.parse("2020-09-01T11:00:00.000Z"), "0"),
+            walletEntry(Instant.parse("2020-09-01T12:00:00.000Z"), "1"),
+            walletEntry(Instant.parse("2020-09-01T13:00:00.000Z"), "1"));
+        Assertions.assertThat(service.getBalanceFull(Instant.parse("2020-09-01T10:00:00.000Z"),
+            Instant.parse("2020-09-01T13:00:00.000Z"), true)).isEqualTo(expected);
+
+        long hits = balanceCache.getHitCount();
+        Assertions.assertThat(service.getBalanceFull(Instant.parse("2020-09-01T10:00:00.000Z"),
+            Instant.parse("2020-09-01T13:00:00.000Z"), true)).isEqualTo(expected);
+        Assertions.assertThat(balanceCache.getHitCount()).isGreaterThan(hits);
+
+        service.addEntry(new WalletEntry(Instant.parse("2020-08-31T23:30:00.000Z"),
+            DateAndAmountUtils.toBigDecimal("2")));
+        Assertions.assertThat(service.getBalanceFull(Instant.parse("2020-09-01T10:00:00.000Z"),
+            Instant.parse("2020-09-01T13:00:00.000Z"), true)).isEqualTo(Arrays.asList(
+            walletEntry(Instant.parse("2020-09-01T11:00:00.000Z"), "2"),
+            walletEntry(Instant.parse("2020-09-01T12:00:00.000Z"), "3"),
+            walletEntry(Instant.parse("2020-09-01T13:00:00.000Z"), "3")));
+    }
+
+    @Test
+    public void batchShouldReturnSameBalancesAsSingleQueries() {
+        BigDecimal amount = DateAndAmountUtils.toBigDecimal("25.10");
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-01T11:00:00.000Z"), amount));
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-01T13:30:00.000Z"), amount));
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-02T01:15:00.000Z"), amount));
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-03T10:15:00.000Z"), amount));
+
+        List<BalanceWindow> windows = Arrays.asList(
+            new BalanceWindow(Instant.parse("2020-09-02T00:30:00.000Z"), Instant.parse("2020-09-02T03:00:00.000Z")),
+            new BalanceWindow(Instant.parse("2020-09-01T09:00:00.000Z"), Instant.parse("2020-09-01T14:00:00.000Z")),
+            new BalanceWindow(Instant.parse("2020-09-01T12:00:00.000Z"), Instant.parse("2020-09-01T16:00:00.000Z")),
+            new BalanceWindow(Instant.parse("2020-09-03T08:00:00.000Z"), Instant.parse("2020-09-03T12:00:00.000Z")),
+            new BalanceWindow(Instant.parse("2020-09-01T10:00:00.000Z"), Instant.parse("2020-09-01T12:00:00.000Z")));
+        for (boolean sync : new boolean[]{true, false}) {
+            balanceUpdaterService.updateBalances(false);
+            List<List<WalletEntry>> batch = service.getBalanceFullBatch(windows, sync);
+            Assertions.assertThat(batch).hasSize(windows.size());
+            for (int i = 0; i < windows.size(); i++) {
+                Assertions.assertThat(batch.get(i)).isEqualTo(
+                    service.getBalanceFull(windows.get(i).getFrom(), windows.get(i).getTo(), sync));
+            }
+        }
+    }
+
+    @Test
+    public void batchShouldValidateEveryWindow() {
+        Instant now = Instant.parse("2020-09-01T11:00:00.000Z");
+        Assertions.assertThatThrownBy(() -> service.getBalanceFullBatch(Collections.emptyList(), true))
+            .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> service.getBalanceFullBatch(Arrays.asList(
+            new BalanceWindow(now, now.plusSeconds(3600)), new BalanceWindow(now, now)), true))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void balanceAtShouldMatchFullBalanceAndLatestShouldIncludeAllEntries() {
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-01T11:30:00.000Z"),
+            DateAndAmountUtils.toBigDecimal("1.5")));
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-01T14:10:00.000Z"),
+            DateAndAmountUtils.toBigDecimal("2")));
+        balanceUpdaterService.updateBalances(false);
+
+        for (boolean sync : new boolean[]{true, false}) {
+            Assertions.assertThat(service.getBalanceAt(Instant.parse("2020-09-01T11:59:00.000Z"), sync))
+                .isEqualTo(walletEntry(Instant.parse("2020-09-01T11:00:00.000Z"), "0"));
+            Assertions.assertThat(service.getBalanceAt(Instant.parse("2020-09-01T13:20:00.000Z"), sync))
+                .isEqualTo(walletEntry(Instant.parse("2020-09-01T13:00:00.000Z"), "1.5"));
+            Assertions.assertThat(service.getBalanceAt(Instant.parse("2020-09-02T00:00:00.000Z"), sync))
+                .isEqualTo(walletEntry(Instant.parse("2020-09-02T00:00:00.000Z"), "3.5"));
+        }
+        Assertions.assertThat(service.getLatestBalance())
+            .isEqualTo(walletEntry(Instant.parse("2020-09-01T15:00:00.000Z"), "3.5"));
+
+        // backdated entry is not recomputed yet, sync lookups see it anyway
+        service.addEntry(new WalletEntry(Instant.parse("2020-09-01T10:30:00.000Z"),
+            DateAndAmountUtils.toBigDecimal("1")));
+        Assertions.assertThat(service.getBalanceAt(Instant.parse("2020-09-01T13:20:00.000Z"), true))
+            .isEqualTo(walletEntry(Instant.parse("2020-09-01T13:00:00.000Z"), "2.5"));
+        Assertions.assertThat(service.getBalanceAt(Instant.parse("2020-09-02T00:00:00.000Z"), true))
+            .isEqualTo(walletEntry(Instant.parse("2020-09-02T00:00:00.000Z"), "4.5"));
+        Assertions.assertThat(service.getBalanceAt(Instant.parse("2020-09-02T00:00:00.000Z"), false))
+            .isEqualTo(walletEntry(Instant.parse("2020-09-02T00:00:00.000Z"), "3.5"));
+
+        repository.clear();
+        Assertions.assertThat(service.getLatestBalance().getAmount())
+            .isEqualTo(DateAndAmountUtils.toBigDecimal("0"));
+    }
+
     private WalletEntry walletEntry(Instant instant, String amount) {
         return new WalletEntry(instant, DateAndAmountUtils.toBigDecimal(amount));
     }
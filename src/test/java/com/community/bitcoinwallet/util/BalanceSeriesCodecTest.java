@@ -0,0 +1,48 @@
+package com.community.bitcoinwallet.util;
+
+import com.community.bitcoinwallet.model.BalanceSeries;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+class BalanceSeriesCodecTest {
+
+    @Test
+    public void shouldDecodeEncodedSeries() throws IOException {
+        BalanceSeries series = new BalanceSeries(1602244800000L, 3600_000L,
+            new long[]{0, 0, 1_005_000_000L, 1_005_000_000L, 2_010_000_000L, 1, Long.MAX_VALUE, 0});
+        Assertions.assertThat(roundTrip(series)).isEqualTo(series);
+
+        BalanceSeries empty = new BalanceSeries(-3600_000L, 3600_000L, new long[0]);
+        Assertions.assertThat(roundTrip(empty)).isEqualTo(empty);
+    }
+
+    @Test
+    public void shouldEncodeUnchangedHoursWithSingleByte() throws IOException {
+        long[] values = new long[1000];
+        Arrays.fill(values, 2_010_000_000L);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BalanceSeriesCodec.encode(new BalanceSeries(0, 3600_000L, values), out);
+        // header, step, count, first value and then one byte for every next hour
+        Assertions.assertThat(out.size()).isEqualTo(2 + 8 + 4 + 2 + 5 + 999);
+    }
+
+    @Test
+    public void shouldRejectTruncatedInput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BalanceSeriesCodec.encode(new BalanceSeries(0, 3600_000L, new long[]{1, 2, 300}), out);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+        Assertions.assertThatThrownBy(() -> BalanceSeriesCodec.decode(new ByteArrayInputStream(truncated)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private BalanceSeries roundTrip(BalanceSeries series) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BalanceSeriesCodec.encode(series, out);
+        return BalanceSeriesCodec.decode(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
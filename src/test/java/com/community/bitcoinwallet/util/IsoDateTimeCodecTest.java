@@ -0,0 +1,69 @@
+package com.community.bitcoinwallet.util;
+
+import com.community.bitcoinwallet.model.requests.BalanceRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+class IsoDateTimeCodecTest {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
+    private static final DateTimeFormatter FORMATTER_FOR_UTC = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final int RETRIES_COUNT = 10_000;
+
+    @Test
+    public void shouldFormatSameAsFormatter() {
+        Random random = new Random(42);
+        ZoneId[] zones = new ZoneId[]{ZoneOffset.UTC, ZoneId.of("UTC"), ZoneOffset.ofHours(1),
+            ZoneOffset.ofHoursMinutes(-5, -30), ZoneId.of("Europe/London"), ZoneOffset.ofHours(14)};
+        for (int i = 0; i < RETRIES_COUNT; i++) {
+            long seconds = random.nextLong() % 100_000_000_000L;
+            Instant instant = Instant.ofEpochSecond(i % 2 == 0 ? seconds : seconds / 3600 * 3600);
+            ZonedDateTime ts = instant.atZone(zones[random.nextInt(zones.length)]);
+            String expected = ts.getZone().equals(ZoneOffset.UTC) ?
+                FORMATTER_FOR_UTC.format(ts) + "+00:00" : FORMATTER.format(ts);
+            Assertions.assertThat(IsoDateTimeCodec.format(ts)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void shouldParseUtcValues() {
+        Assertions.assertThat(parse("2020-10-20T12:00:00Z"))
+            .isEqualTo(Instant.parse("2020-10-20T12:00:00Z").atZone(ZoneOffset.UTC));
+        Assertions.assertThat(parse("2020-10-20T12:00:00+00:00"))
+            .isEqualTo(Instant.parse("2020-10-20T12:00:00Z").atZone(ZoneOffset.UTC));
+        Assertions.assertThat(parse("2020-10-20T12:00:05.25Z"))
+            .isEqualTo(Instant.parse("2020-10-20T12:00:05.250Z").atZone(ZoneOffset.UTC));
+    }
+
+    @Test
+    public void shouldLeaveOtherFormatsToGenericParser() {
+        Assertions.assertThat(parse("2020-10-20T12:00:00+01:00")).isNull();
+        Assertions.assertThat(parse("2020-10-20T12:00Z")).isNull();
+        Assertions.assertThat(parse("2020-10-20 12:00:00Z")).isNull();
+        Assertions.assertThat(parse("2020-02-30T12:00:00Z")).isNull();
+        Assertions.assertThat(parse("2020-10-20T12:00:00.Z")).isNull();
+    }
+
+    @Test
+    public void deserializerShouldAcceptAllZones() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        BalanceRequest request = objectMapper.readValue(
+            "{\"from\":\"2020-10-20T12:00:00Z\",\"to\":\"2020-10-20T15:30:00-06:00\"}", BalanceRequest.class);
+        Assertions.assertThat(request.getFrom().toInstant()).isEqualTo(Instant.parse("2020-10-20T12:00:00Z"));
+        Assertions.assertThat(request.getTo().toInstant()).isEqualTo(Instant.parse("2020-10-20T21:30:00Z"));
+    }
+
+    private ZonedDateTime parse(String text) {
+        return IsoDateTimeCodec.parseUtc(text.toCharArray(), 0, text.length());
+    }
+}